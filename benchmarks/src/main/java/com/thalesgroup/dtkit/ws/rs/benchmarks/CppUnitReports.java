@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.benchmarks;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetricType;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+
+import java.io.*;
+
+//The CppUnit fixtures of the functional tests, and larger reports generated in their format
+final class CppUnitReports {
+
+    static final String SMALL = "small";
+
+    static final String MEDIUM = "medium";
+
+    static final String LARGE = "large";
+
+    private static final String FIXTURES = "/com/thalesgroup/dtkit/ws/rs/cppunit/";
+
+    private CppUnitReports() {
+    }
+
+    static String readFixture(String name) throws IOException {
+        InputStream inputStream = CppUnitReports.class.getResourceAsStream(FIXTURES + name);
+        if (inputStream == null) {
+            throw new FileNotFoundException(FIXTURES + name);
+        }
+        try {
+            Reader reader = new InputStreamReader(inputStream, "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int wasRead;
+            while ((wasRead = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, wasRead);
+            }
+            return sb.toString();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    //The metric the Mongo store builds from the fixture stylesheet and schema
+    static InputMetricDB newCppUnitMetric() throws IOException {
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setToolName("cppunit-benchmark");
+        inputMetricDB.setToolVersion("1.0");
+        inputMetricDB.setToolType(InputType.TEST);
+        inputMetricDB.setInputMetricType(InputMetricType.XSL);
+        inputMetricDB.setOutputFormat("junit");
+        inputMetricDB.setXslContent(readFixture("cppunit-to-junit.xsl"));
+        inputMetricDB.setXsdContent(readFixture("cppunit-input.xsd"));
+        return inputMetricDB;
+    }
+
+    //The fixture report for small, a generated one of a thousand or a hundred thousand tests otherwise
+    static File newReport(String size) throws IOException {
+        if (SMALL.equals(size)) {
+            File report = File.createTempFile("cppunit-small", ".xml");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(report), "ISO-8859-1");
+            try {
+                writer.write(readFixture("cppunit-valid-input.xml"));
+            } finally {
+                writer.close();
+            }
+            return report;
+        }
+        if (MEDIUM.equals(size)) {
+            return generate(1000);
+        }
+        if (LARGE.equals(size)) {
+            return generate(100000);
+        }
+        throw new IllegalArgumentException("Unknown report size " + size);
+    }
+
+    //One test out of ten fails
+    static File generate(int testCount) throws IOException {
+        File report = File.createTempFile("cppunit-" + testCount, ".xml");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), "ISO-8859-1"));
+        try {
+            int failureCount = testCount / 10;
+            writer.write("<?xml version=\"1.0\" encoding='ISO-8859-1' standalone='yes' ?>\n<TestRun>\n  <FailedTests>\n");
+            for (int id = 1; id <= failureCount; id++) {
+                writer.write("    <FailedTest id=\"" + id + "\">\n"
+                        + "      <Name>GeneratedTest::testFailure" + id + "</Name>\n"
+                        + "      <FailureType>Assertion</FailureType>\n"
+                        + "      <Location>\n        <File>generatedTest.cpp</File>\n        <Line>" + id + "</Line>\n      </Location>\n"
+                        + "      <Message>equality assertion failed\n- Expected: " + id + "\n- Actual  : 0\n</Message>\n"
+                        + "    </FailedTest>\n");
+            }
+            writer.write("  </FailedTests>\n  <SuccessfulTests>\n");
+            for (int id = failureCount + 1; id <= testCount; id++) {
+                writer.write("    <Test id=\"" + id + "\">\n      <Name>GeneratedTest::testSuccess" + id + "</Name>\n    </Test>\n");
+            }
+            writer.write("  </SuccessfulTests>\n  <Statistics>\n"
+                    + "    <Tests>" + testCount + "</Tests>\n"
+                    + "    <FailuresTotal>" + failureCount + "</FailuresTotal>\n"
+                    + "    <Errors>0</Errors>\n"
+                    + "    <Failures>" + failureCount + "</Failures>\n"
+                    + "  </Statistics>\n</TestRun>\n");
+        } finally {
+            writer.close();
+        }
+        return report;
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.benchmarks;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricException;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricEmbeddedDAO;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+//Selector lookups of the embedded metrics, the selectors are taken from one of them
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddedDAOBenchmark {
+
+    private InputMetricEmbeddedDAO inputMetricEmbeddedDAO;
+
+    private InputMetricSelector exactSelector;
+
+    private InputMetricSelector nameSelector;
+
+    private InputMetricSelector formatSelector;
+
+    private InputMetricSelector typeAndFormatSelector;
+
+    private InputMetricSelector missingSelector;
+
+    @Setup
+    public void setUp() throws InputMetricException {
+        inputMetricEmbeddedDAO = new InputMetricEmbeddedDAO();
+        Collection<? extends InputMetric> metrics = inputMetricEmbeddedDAO.getInputMetrics();
+        if (metrics.isEmpty()) {
+            throw new IllegalStateException("No embedded metric");
+        }
+        InputMetric metric = metrics.iterator().next();
+        String type = metric.getToolType().name();
+        String format = metric.getOutputFormatType().getKey();
+        exactSelector = new InputMetricSelector(metric.getToolName(), metric.getToolVersion(), type, format);
+        nameSelector = new InputMetricSelector(metric.getToolName(), null, null, (String) null);
+        formatSelector = new InputMetricSelector(null, null, null, format);
+        typeAndFormatSelector = new InputMetricSelector(null, null, type, format);
+        missingSelector = new InputMetricSelector("missing-metric", null, null, (String) null);
+    }
+
+    @Benchmark
+    public Collection<? extends InputMetric> exact() {
+        return inputMetricEmbeddedDAO.getInputMetric(exactSelector);
+    }
+
+    @Benchmark
+    public Collection<? extends InputMetric> partialByName() {
+        return inputMetricEmbeddedDAO.getInputMetric(nameSelector);
+    }
+
+    @Benchmark
+    public Collection<? extends InputMetric> partialByFormat() {
+        return inputMetricEmbeddedDAO.getInputMetric(formatSelector);
+    }
+
+    @Benchmark
+    public Collection<? extends InputMetric> partialByTypeAndFormat() {
+        return inputMetricEmbeddedDAO.getInputMetric(typeAndFormatSelector);
+    }
+
+    @Benchmark
+    public Collection<? extends InputMetric> missing() {
+        return inputMetricEmbeddedDAO.getInputMetric(missingSelector);
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.benchmarks;
+
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import com.thalesgroup.dtkit.util.validator.ValidationException;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//Conversion and validation of a stored XSL metric, the stylesheet and the schema are compiled once by their caches
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InputMetricDBBenchmark {
+
+    @Param({CppUnitReports.SMALL, CppUnitReports.MEDIUM, CppUnitReports.LARGE})
+    public String size;
+
+    private InputMetricDB inputMetricDB;
+
+    private File report;
+
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        inputMetricDB = CppUnitReports.newCppUnitMetric();
+        report = CppUnitReports.newReport(size);
+        output = File.createTempFile("cppunit-junit", ".xml");
+    }
+
+    @TearDown
+    public void tearDown() {
+        report.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public File convert() throws ConversionException {
+        inputMetricDB.convert(report, output);
+        return output;
+    }
+
+    @Benchmark
+    public boolean validateInputFile() throws ValidationException {
+        return inputMetricDB.validateInputFile(report);
+    }
+}
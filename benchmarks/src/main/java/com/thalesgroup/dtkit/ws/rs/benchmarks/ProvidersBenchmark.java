@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.benchmarks;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricException;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricEmbeddedDAO;
+import com.thalesgroup.dtkit.ws.rs.providers.InputMetricJSONProvider;
+import com.thalesgroup.dtkit.ws.rs.providers.InputMetricXMLProvider;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsResult;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Serialization of one metric and of the whole embedded listing, as the JSON and XML responses write them
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProvidersBenchmark {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private InputMetricJSONProvider inputMetricJSONProvider;
+
+    private JAXBContext jaxbContext;
+
+    private InputMetricResult inputMetricResult;
+
+    private InputMetricsResult inputMetricsResult;
+
+    private ByteArrayOutputStream outputStream;
+
+    @Setup
+    public void setUp() throws InputMetricException {
+        inputMetricJSONProvider = new InputMetricJSONProvider();
+        jaxbContext = new InputMetricXMLProvider().getContext(InputMetricsResult.class);
+
+        List<InputMetric> metrics = new ArrayList<InputMetric>(new InputMetricEmbeddedDAO().getInputMetrics());
+        inputMetricResult = new InputMetricResult();
+        inputMetricResult.setInputMetric(metrics.get(0));
+        inputMetricsResult = new InputMetricsResult();
+        inputMetricsResult.setMetrics(metrics);
+        outputStream = new ByteArrayOutputStream(64 * 1024);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int jsonMetric() throws IOException {
+        outputStream.reset();
+        inputMetricJSONProvider.writeTo(inputMetricResult, InputMetricResult.class, InputMetricResult.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, null, outputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int jsonMetrics() throws IOException {
+        outputStream.reset();
+        inputMetricJSONProvider.writeTo(inputMetricsResult, InputMetricsResult.class, InputMetricsResult.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, null, outputStream);
+        return outputStream.size();
+    }
+
+    //The former provider: a new mapper, with its empty serializer caches, for each response
+    @Benchmark
+    public int jsonMetricLegacy() throws IOException {
+        outputStream.reset();
+        new ObjectMapper().enableDefaultTyping().writeValue(outputStream, inputMetricResult.getInputMetric());
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int jsonMetricsLegacy() throws IOException {
+        outputStream.reset();
+        new ObjectMapper().enableDefaultTyping().writeValue(outputStream, inputMetricsResult.getMetrics());
+        return outputStream.size();
+    }
+
+    //The JAXB provider of Jersey creates a marshaller for each response
+    @Benchmark
+    public int xmlMetric() throws JAXBException {
+        outputStream.reset();
+        jaxbContext.createMarshaller().marshal(inputMetricResult, outputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int xmlMetrics() throws JAXBException {
+        outputStream.reset();
+        jaxbContext.createMarshaller().marshal(inputMetricsResult, outputStream);
+        return outputStream.size();
+    }
+}
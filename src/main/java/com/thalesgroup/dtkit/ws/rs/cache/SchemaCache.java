@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.cache;
+
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import com.thalesgroup.dtkit.util.validator.ValidationException;
+import com.thalesgroup.dtkit.ws.rs.xml.SAXEventBuffer;
+import com.thalesgroup.dtkit.ws.rs.xml.ValidationErrorCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SchemaCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final SchemaCache INSTANCE = new SchemaCache(DEFAULT_MAX_SIZE);
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BoundedCache<String, Schema> cache;
+
+    //The embedded schemas are pinned, the uploaded ones can't evict them
+    private final Map<String, Schema> pinned = new ConcurrentHashMap<String, Schema>();
+
+    public SchemaCache(int maxSize) {
+        this.cache = new BoundedCache<String, Schema>(maxSize);
+    }
+
+    public static SchemaCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Schema getSchema(String xsdContent) throws ValidationException {
+        String digest = ContentDigest.of(xsdContent);
+        Schema schema = cache.get(digest);
+        if (schema == null) {
+            schema = compile(new Source[]{new StreamSource(new StringReader(xsdContent))}, digest);
+            cache.put(digest, schema);
+        }
+        return schema;
+    }
+
+    //Returns null when the XSD with this digest is not compiled yet, its content is then needed
+    public Schema getCompiledSchema(String digest) {
+        return cache.get(digest);
+    }
+
+    public Schema getSchema(File xsdFile) throws ValidationException {
+        String digest;
+        try {
+            digest = ContentDigest.of(xsdFile);
+        } catch (IOException ioe) {
+            throw new ValidationException("Cannot read the XSD file " + xsdFile, ioe);
+        }
+        Schema schema = cache.get(digest);
+        if (schema == null) {
+            schema = compile(new Source[]{new StreamSource(xsdFile)}, digest);
+            cache.put(digest, schema);
+        }
+        return schema;
+    }
+
+    //For schemas which never change at runtime such as the embedded ones
+    public Schema getSchema(String key, URL[] xsdURLs) throws ValidationException {
+        Schema schema = pinned.get(key);
+        if (schema == null) {
+            List<InputStream> inputStreams = new ArrayList<InputStream>();
+            try {
+                Source[] xsdSources = new Source[xsdURLs.length];
+                for (int i = 0; i < xsdURLs.length; i++) {
+                    InputStream inputStream = xsdURLs[i].openStream();
+                    inputStreams.add(inputStream);
+                    xsdSources[i] = new StreamSource(inputStream, xsdURLs[i].toExternalForm());
+                }
+                schema = compile(xsdSources, key);
+            } catch (IOException ioe) {
+                throw new ValidationException("Cannot read the XSD of " + key, ioe);
+            } finally {
+                for (InputStream inputStream : inputStreams) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException ioe) {
+                        logger.warn("Cannot close the XSD of " + key, ioe);
+                    }
+                }
+            }
+            pinned.put(key, schema);
+        }
+        return schema;
+    }
+
+    public BoundedCache<String, Schema> getCache() {
+        return cache;
+    }
+
+    public Map<String, Schema> getPinned() {
+        return pinned;
+    }
+
+    protected Schema compile(Source[] xsdSources, String digest) throws ValidationException {
+        long start = System.nanoTime();
+        try {
+            //A SchemaFactory is not thread safe, the compiled Schema is
+            Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsdSources);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Schema " + digest + " compiled in " + (System.nanoTime() - start) / 1000000 + " ms.");
+            }
+            return schema;
+        } catch (SAXException se) {
+            throw new ValidationException("Cannot compile the XSD " + digest, se);
+        }
+    }
+
+    public List<ValidationError> validate(Schema schema, File inputXMLFile) throws ValidationException {
+        try {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(inputXMLFile));
+            try {
+                return validate(schema, new StreamSource(inputStream, inputXMLFile.toURI().toString()));
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException ioe) {
+            throw new ValidationException("Validation error for " + inputXMLFile, ioe);
+        }
+    }
+
+    public List<ValidationError> validate(Schema schema, Source inputXMLSource) throws ValidationException {
+        Validator validator = schema.newValidator();
+        ValidationErrorCollector errorCollector = new ValidationErrorCollector();
+        validator.setErrorHandler(errorCollector);
+        try {
+            validator.validate(inputXMLSource);
+        } catch (SAXException se) {
+            //A fatal error has already been collected
+            if (!errorCollector.isErrorFound()) {
+                throw new ValidationException("Validation error for " + inputXMLSource.getSystemId(), se);
+            }
+        } catch (IOException ioe) {
+            throw new ValidationException("Validation error for " + inputXMLSource.getSystemId(), ioe);
+        }
+        return errorCollector.getValidationErrors();
+    }
+
+    //The input has already been parsed, only the validation is done
+    public List<ValidationError> validate(Schema schema, SAXEventBuffer inputXMLEvents) throws ValidationException {
+        ValidatorHandler validatorHandler = schema.newValidatorHandler();
+        ValidationErrorCollector errorCollector = new ValidationErrorCollector();
+        validatorHandler.setErrorHandler(errorCollector);
+        try {
+            inputXMLEvents.replay(validatorHandler);
+        } catch (SAXException se) {
+            //A fatal error has already been collected
+            if (!errorCollector.isErrorFound()) {
+                throw new ValidationException("Validation error for " + inputXMLEvents.getSystemId(), se);
+            }
+        }
+        return errorCollector.getValidationErrors();
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.cache;
+
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TemplatesCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final TemplatesCache INSTANCE = new TemplatesCache(DEFAULT_MAX_SIZE);
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BoundedCache<String, CompiledTemplates> cache;
+
+    //The embedded stylesheets are pinned, the uploaded ones can't evict them
+    private final Map<String, CompiledTemplates> pinned = new ConcurrentHashMap<String, CompiledTemplates>();
+
+    public TemplatesCache(int maxSize) {
+        this.cache = new BoundedCache<String, CompiledTemplates>(maxSize);
+    }
+
+    public static TemplatesCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Templates getTemplates(String metricKey, String xslContent) throws ConversionException {
+        String digest = ContentDigest.of(xslContent);
+        CompiledTemplates compiledTemplates = cache.get(metricKey);
+        if (compiledTemplates != null && compiledTemplates.digest.equals(digest)) {
+            return compiledTemplates.templates;
+        }
+
+        //Compiled outside the lock, a concurrent compilation of the same stylesheet is harmless
+        Templates templates = compile(new StreamSource(new StringReader(xslContent)), metricKey);
+        cache.put(metricKey, new CompiledTemplates(digest, templates));
+        return templates;
+    }
+
+    //Returns null when the stylesheet with this digest is not compiled yet, its content is then needed
+    public Templates getCompiledTemplates(String metricKey, String digest) {
+        CompiledTemplates compiledTemplates = cache.get(metricKey);
+        if (compiledTemplates != null && compiledTemplates.digest.equals(digest)) {
+            return compiledTemplates.templates;
+        }
+        return null;
+    }
+
+    //For stylesheets which never change at runtime such as the embedded ones
+    public Templates getTemplates(String metricKey, URL xslURL) throws ConversionException {
+        String location = xslURL.toExternalForm();
+        CompiledTemplates compiledTemplates = pinned.get(metricKey);
+        if (compiledTemplates != null && compiledTemplates.digest.equals(location)) {
+            return compiledTemplates.templates;
+        }
+
+        Templates templates;
+        try {
+            InputStream inputStream = xslURL.openStream();
+            try {
+                templates = compile(new StreamSource(inputStream, location), metricKey);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException ioe) {
+            throw new ConversionException("Cannot read the stylesheet " + location, ioe);
+        }
+        pinned.put(metricKey, new CompiledTemplates(location, templates));
+        return templates;
+    }
+
+    public void invalidate(String metricKey) {
+        if (cache.remove(metricKey) != null && logger.isDebugEnabled()) {
+            logger.debug("Compiled stylesheet of " + metricKey + " invalidated.");
+        }
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+        pinned.clear();
+    }
+
+    public BoundedCache<String, CompiledTemplates> getCache() {
+        return cache;
+    }
+
+    public Map<String, CompiledTemplates> getPinned() {
+        return pinned;
+    }
+
+    protected Templates compile(Source xslSource, String metricKey) throws ConversionException {
+        long start = System.nanoTime();
+        try {
+            Templates templates = TransformerFactory.newInstance().newTemplates(xslSource);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Stylesheet of " + metricKey + " compiled in " + (System.nanoTime() - start) / 1000000 + " ms.");
+            }
+            return templates;
+        } catch (TransformerConfigurationException tce) {
+            throw new ConversionException("Cannot compile the stylesheet of " + metricKey, tce);
+        }
+    }
+
+    public static class CompiledTemplates {
+
+        private final String digest;
+
+        private final Templates templates;
+
+        public CompiledTemplates(String digest, Templates templates) {
+            this.digest = digest;
+            this.templates = templates;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public Templates getTemplates() {
+            return templates;
+        }
+    }
+}
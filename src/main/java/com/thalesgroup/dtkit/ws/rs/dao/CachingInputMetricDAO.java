@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.cache.BoundedCache;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CachingInputMetricDAO implements InputMetricDAO {
+
+    private static final InputMetricSelector ALL_METRICS = new InputMetricSelector(null, null, null, (String) null);
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final InputMetricDAO delegate;
+
+    //Empty results are cached too: a selector of an embedded metric doesn't go to the store
+    private final BoundedCache<InputMetricSelector, Collection<? extends InputMetric>> metricsCache;
+
+    private final BoundedCache<InputMetricSelector, XsdHolder> xsdCache;
+
+    //Incremented on each write so that a read started before the write doesn't cache a stale result
+    private final AtomicLong generation = new AtomicLong();
+
+    //The generation is checked and the result put under the lock of the invalidation
+    private final Object generationLock = new Object();
+
+    public CachingInputMetricDAO(InputMetricDAO delegate, int maxSize, long ttlMillis) {
+        this.delegate = delegate;
+        this.metricsCache = new BoundedCache<InputMetricSelector, Collection<? extends InputMetric>>(maxSize, ttlMillis);
+        this.xsdCache = new BoundedCache<InputMetricSelector, XsdHolder>(maxSize, ttlMillis);
+    }
+
+    public InputMetricDAO getDelegate() {
+        return delegate;
+    }
+
+    public BoundedCache<InputMetricSelector, Collection<? extends InputMetric>> getMetricsCache() {
+        return metricsCache;
+    }
+
+    public BoundedCache<InputMetricSelector, XsdHolder> getXsdCache() {
+        return xsdCache;
+    }
+
+    public void invalidateAll() {
+        //A write can change the result of any partial selector
+        synchronized (generationLock) {
+            generation.incrementAndGet();
+            metricsCache.clear();
+            xsdCache.clear();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Metrics cache of " + delegate.getClass().getSimpleName() + " invalidated.");
+        }
+    }
+
+    @Override
+    public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+        try {
+            return delegate.insert(name, version, toolType, xsl, xsd, outputMetric);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+        try {
+            return delegate.delete(name, version, toolType, outputMetric);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return delegate.getCount();
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+        Collection<? extends InputMetric> metrics = metricsCache.get(inputMetricSelector);
+        if (metrics == null) {
+            long readGeneration = generation.get();
+            try {
+                metrics = Collections.unmodifiableList(new ArrayList<InputMetric>(delegate.getInputMetric(inputMetricSelector)));
+            } catch (StoreUnavailableException sue) {
+                return getStale(metricsCache, inputMetricSelector, sue);
+            }
+            putIfCurrent(metricsCache, inputMetricSelector, metrics, readGeneration);
+        }
+        return metrics;
+    }
+
+    //A listing page is read from the store
+    @Override
+    public InputMetricIterator iterateInputMetrics(String position, int limit) {
+        return delegate.iterateInputMetrics(position, limit);
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetrics() {
+        Collection<? extends InputMetric> metrics = metricsCache.get(ALL_METRICS);
+        if (metrics == null) {
+            long readGeneration = generation.get();
+            try {
+                metrics = Collections.unmodifiableList(new ArrayList<InputMetric>(delegate.getInputMetrics()));
+            } catch (StoreUnavailableException sue) {
+                return getStale(metricsCache, ALL_METRICS, sue);
+            }
+            putIfCurrent(metricsCache, ALL_METRICS, metrics, readGeneration);
+        }
+        return metrics;
+    }
+
+    @Override
+    public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+        XsdHolder xsdHolder = xsdCache.get(inputMetricSelector);
+        if (xsdHolder == null) {
+            long readGeneration = generation.get();
+            try {
+                xsdHolder = new XsdHolder(delegate.getXSD(inputMetricSelector));
+            } catch (StoreUnavailableException sue) {
+                return getStale(xsdCache, inputMetricSelector, sue).xsd;
+            }
+            putIfCurrent(xsdCache, inputMetricSelector, xsdHolder, readGeneration);
+        }
+        return xsdHolder.xsd;
+    }
+
+    private <V> void putIfCurrent(BoundedCache<InputMetricSelector, V> cache, InputMetricSelector inputMetricSelector, V value, long readGeneration) {
+        synchronized (generationLock) {
+            if (readGeneration == generation.get()) {
+                cache.put(inputMetricSelector, value);
+            }
+        }
+    }
+
+    //While the store is unavailable, the expired results are better than none
+    private <V> V getStale(BoundedCache<InputMetricSelector, V> cache, InputMetricSelector inputMetricSelector, StoreUnavailableException sue) {
+        V value = cache.getStale(inputMetricSelector);
+        if (value == null) {
+            throw sue;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Stale results served for " + inputMetricSelector + ": " + sue.getMessage());
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isPersistenceStore() {
+        return delegate.isPersistenceStore();
+    }
+
+    @Override
+    public String getStoreName() {
+        return delegate.getStoreName();
+    }
+
+    //Keeps the absence of XSD in the cache
+    public static class XsdHolder {
+
+        private final XsdPayload xsd;
+
+        private XsdHolder(XsdPayload xsd) {
+            this.xsd = xsd;
+        }
+    }
+}
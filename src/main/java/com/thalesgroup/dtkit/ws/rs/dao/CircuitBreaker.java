@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import java.util.concurrent.TimeUnit;
+
+//Opens when too many of the last calls failed or were slow. After the open duration a single probe
+//call is let through: its success closes the breaker, its failure opens it again.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    //Returned by tryAcquire() when the call is refused
+    public static final long REFUSED = -1;
+
+    private final int windowSize;
+
+    private final int failureRateThreshold;
+
+    private final long slowCallNanos;
+
+    private final long openNanos;
+
+    //Ring of the outcomes of the last calls, true for a failed or slow call
+    private final boolean[] outcomes;
+
+    private int index;
+
+    private int recorded;
+
+    private int badCount;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean probing;
+
+    //Incremented on each change of state, a permit only counts in the state it was granted in
+    private long generation;
+
+    private long openedCount;
+
+    private long rejectedCount;
+
+    //The failure rate is a percentage of the last windowSize calls
+    public CircuitBreaker(int windowSize, int failureRateThreshold, long slowCallMillis, long openMillis) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The circuit breaker window must hold at least one call");
+        }
+        if (failureRateThreshold < 1 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException("The failure rate threshold is a percentage");
+        }
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.outcomes = new boolean[windowSize];
+    }
+
+    //Each permitted call must be followed by record() with the returned permit
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejectedCount++;
+                return REFUSED;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                rejectedCount++;
+                return REFUSED;
+            }
+            probing = true;
+        }
+        return generation;
+    }
+
+    public synchronized void record(long permit, long durationNanos, boolean failed) {
+        if (permit != generation) {
+            //A call permitted before the last change of state, it is neither the probe nor part of the window
+            return;
+        }
+        boolean bad = failed || durationNanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (bad) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+
+        if (recorded == windowSize) {
+            if (outcomes[index]) {
+                badCount--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[index] = bad;
+        if (bad) {
+            badCount++;
+        }
+        index = (index + 1) % windowSize;
+        if (recorded == windowSize && badCount * 100 >= failureRateThreshold * windowSize) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = System.nanoTime();
+        openedCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        index = 0;
+        recorded = 0;
+        badCount = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    //Time until a probe call is let through, 0 unless the breaker is open
+    public synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)));
+    }
+
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
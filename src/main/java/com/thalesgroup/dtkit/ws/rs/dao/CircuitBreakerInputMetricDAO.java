@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.mongodb.MongoException;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContent;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContentLoader;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collection;
+
+//Guards a store with a bulkhead and a circuit breaker, a refused call throws a StoreUnavailableException
+//so that the lookups go on with the other stores and the cached results
+public class CircuitBreakerInputMetricDAO implements InputMetricDAO {
+
+    //The bulkhead has no free slot, retried shortly
+    private static final long BULKHEAD_RETRY_AFTER_MILLIS = 1000;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final InputMetricDAO delegate;
+
+    private final String storeName;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final Bulkhead bulkhead;
+
+    public CircuitBreakerInputMetricDAO(InputMetricDAO delegate, String storeName, CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+        this.delegate = delegate;
+        this.storeName = storeName;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+    }
+
+    public InputMetricDAO getDelegate() {
+        return delegate;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    //Only the store failures count, not the invalid requests
+    protected boolean isFailure(RuntimeException re) {
+        return re instanceof MongoException;
+    }
+
+    private <T> T call(StoreCall<T> storeCall) {
+        if (!bulkhead.tryAcquire()) {
+            throw new StoreUnavailableException("Too many concurrent calls to the " + storeName + " store", BULKHEAD_RETRY_AFTER_MILLIS);
+        }
+        try {
+            long permit = circuitBreaker.tryAcquire();
+            if (permit == CircuitBreaker.REFUSED) {
+                throw new StoreUnavailableException("The " + storeName + " store is unavailable", circuitBreaker.getRetryAfterMillis());
+            }
+            CircuitBreaker.State before = circuitBreaker.getState();
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                return storeCall.call();
+            } catch (RuntimeException re) {
+                failed = isFailure(re);
+                throw re;
+            } finally {
+                circuitBreaker.record(permit, System.nanoTime() - start, failed);
+                CircuitBreaker.State after = circuitBreaker.getState();
+                if (before != after) {
+                    logger.warn("The circuit breaker of the " + storeName + " store is " + after + ".");
+                }
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private abstract static class StoreCall<T> {
+        abstract T call();
+    }
+
+    //The content of a listed metric is read lazily, through the breaker and the bulkhead as the other calls
+    private InputMetric guardContent(InputMetric inputMetric) {
+        if (inputMetric instanceof InputMetricDB) {
+            InputMetricDB inputMetricDB = (InputMetricDB) inputMetric;
+            final InputMetricContentLoader contentLoader = inputMetricDB.getContentLoader();
+            if (contentLoader != null) {
+                inputMetricDB.setContentLoader(new InputMetricContentLoader() {
+                    public InputMetricContent load(final ObjectId contentId) {
+                        return call(new StoreCall<InputMetricContent>() {
+                            InputMetricContent call() {
+                                return contentLoader.load(contentId);
+                            }
+                        });
+                    }
+                });
+            }
+        }
+        return inputMetric;
+    }
+
+    @Override
+    public StoreResult insert(final String name, final String version, final InputType toolType, final File xsl, final File xsd, final OutputMetric outputMetric) {
+        return call(new StoreCall<StoreResult>() {
+            StoreResult call() {
+                return delegate.insert(name, version, toolType, xsl, xsd, outputMetric);
+            }
+        });
+    }
+
+    @Override
+    public StoreResult delete(final String name, final String version, final InputType toolType, final OutputMetric outputMetric) {
+        return call(new StoreCall<StoreResult>() {
+            StoreResult call() {
+                return delegate.delete(name, version, toolType, outputMetric);
+            }
+        });
+    }
+
+    @Override
+    public long getCount() {
+        return call(new StoreCall<Long>() {
+            Long call() {
+                return delegate.getCount();
+            }
+        });
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetric(final InputMetricSelector inputMetricSelector) {
+        return call(new StoreCall<Collection<? extends InputMetric>>() {
+            Collection<? extends InputMetric> call() {
+                Collection<? extends InputMetric> metrics = delegate.getInputMetric(inputMetricSelector);
+                //The selected metrics are converted or validated next, their content is read within the guarded call
+                //and so within the deadline of the lookup, not later by the request thread
+                for (InputMetric inputMetric : metrics) {
+                    if (inputMetric instanceof InputMetricDB) {
+                        ((InputMetricDB) inputMetric).loadContent();
+                    }
+                }
+                return metrics;
+            }
+        });
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetrics() {
+        return call(new StoreCall<Collection<? extends InputMetric>>() {
+            Collection<? extends InputMetric> call() {
+                Collection<? extends InputMetric> metrics = delegate.getInputMetrics();
+                for (InputMetric inputMetric : metrics) {
+                    guardContent(inputMetric);
+                }
+                return metrics;
+            }
+        });
+    }
+
+    //Only the query is guarded, the documents are read while the page is written
+    @Override
+    public InputMetricIterator iterateInputMetrics(final String position, final int limit) {
+        final InputMetricIterator inputMetricIterator = call(new StoreCall<InputMetricIterator>() {
+            InputMetricIterator call() {
+                return delegate.iterateInputMetrics(position, limit);
+            }
+        });
+        return new InputMetricIterator() {
+            public String getPosition() {
+                return inputMetricIterator.getPosition();
+            }
+
+            public boolean hasNext() {
+                return inputMetricIterator.hasNext();
+            }
+
+            public InputMetric next() {
+                return guardContent(inputMetricIterator.next());
+            }
+
+            public void remove() {
+                inputMetricIterator.remove();
+            }
+        };
+    }
+
+    @Override
+    public XsdPayload getXSD(final InputMetricSelector inputMetricSelector) {
+        return call(new StoreCall<XsdPayload>() {
+            XsdPayload call() {
+                return delegate.getXSD(inputMetricSelector);
+            }
+        });
+    }
+
+    @Override
+    public boolean isPersistenceStore() {
+        return delegate.isPersistenceStore();
+    }
+
+    @Override
+    public String getStoreName() {
+        return delegate.getStoreName();
+    }
+}
@@ -27,15 +27,16 @@ import com.thalesgroup.dtkit.metrics.model.InputMetric;
 import com.thalesgroup.dtkit.metrics.model.InputType;
 import com.thalesgroup.dtkit.metrics.model.OutputMetric;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
 
 import java.io.File;
 import java.util.Collection;
 
 public interface InputMetricDAO {
 
-    public void insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric);
+    public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric);
 
-    public void delete(String name, String version, InputType toolType, OutputMetric outputMetric);
+    public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric);
 
     public long getCount();
 
@@ -43,7 +44,14 @@ public interface InputMetricDAO {
 
     public Collection<? extends InputMetric> getInputMetrics();
 
-    public byte[] getXSD(InputMetricSelector inputMetricSelector);
+    //Iterates the metrics in a stable order, after the given position or from the first one when it is null.
+    //At most limit metrics are returned, all of them when it is 0.
+    public InputMetricIterator iterateInputMetrics(String position, int limit);
+
+    public XsdPayload getXSD(InputMetricSelector inputMetricSelector);
 
     public boolean isPersistenceStore();
+
+    //The same name while the store is attached or detached, the cursors refer to the stores by name
+    public String getStoreName();
 }
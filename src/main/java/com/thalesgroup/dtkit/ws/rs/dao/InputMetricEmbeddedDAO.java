@@ -25,19 +25,57 @@ package com.thalesgroup.dtkit.ws.rs.dao;
 
 import com.thalesgroup.dtkit.metrics.model.*;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.core.Response;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class InputMetricEmbeddedDAO implements InputMetricDAO {
 
-    private Map<InputMetricSelector, InputMetric> allMetrics = new ConcurrentHashMap<InputMetricSelector, InputMetric>();
+    public static final String STORE_NAME = "embedded";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    //Exact index on the canonical selector
+    private final Map<InputMetricSelector, InputMetric> allMetrics = new HashMap<InputMetricSelector, InputMetric>();
+
+    //Secondary indexes by normalized criterion, used for partial selectors
+    private final Map<String, List<InputMetric>> metricsByName = new HashMap<String, List<InputMetric>>();
+
+    private final Map<String, List<InputMetric>> metricsByVersion = new HashMap<String, List<InputMetric>>();
+
+    private final Map<String, List<InputMetric>> metricsByType = new HashMap<String, List<InputMetric>>();
+
+    private final Map<String, List<InputMetric>> metricsByFormat = new HashMap<String, List<InputMetric>>();
+
+    //Metrics without output format match any format criterion
+    private final List<InputMetric> metricsWithoutFormat = new ArrayList<InputMetric>();
+
+    private final List<InputMetric> allMetricsList = new ArrayList<InputMetric>();
+
+    private final List<InputMetric> allMetricsView = Collections.unmodifiableList(allMetricsList);
+
+    //The XSD of an embedded metric never changes, it is read from the classpath with the indexes
+    private final Map<InputMetric, XsdPayload> xsdPayloads = new HashMap<InputMetric, XsdPayload>();
+
+    private static String getFormat(InputMetric inputMetric) {
+        return inputMetric.getOutputFormatType() == null ? null : inputMetric.getOutputFormatType().getKey();
+    }
+
+    private static void index(Map<String, List<InputMetric>> index, String criterion, InputMetric inputMetric) {
+        String key = InputMetricSelector.normalize(criterion);
+        List<InputMetric> metrics = index.get(key);
+        if (metrics == null) {
+            metrics = new ArrayList<InputMetric>(1);
+            index.put(key, metrics);
+        }
+        metrics.add(inputMetric);
+    }
 
     private void loadMetrics() throws InputMetricException {
         ServiceLoader<InputMetric> metricServiceLoader = ServiceLoader.load(InputMetric.class, Thread.currentThread().getContextClassLoader());
@@ -49,7 +87,26 @@ public class InputMetricEmbeddedDAO implements InputMetricDAO {
                         inputMetric.getToolVersion(),
                         inputMetric.getToolType().name(),
                         inputMetric.getOutputFormatType());
-                allMetrics.put(inputMetricSelector, InputMetricFactory.getInstance(inputMetric.getClass()));
+                if (allMetrics.containsKey(inputMetricSelector)) {
+                    logger.warn("There are more than one embedded metric for the selector " + inputMetricSelector + ", " + inputMetric.getClass() + " is ignored.");
+                    continue;
+                }
+                InputMetric metric = InputMetricFactory.getInstance(inputMetric.getClass());
+                allMetrics.put(inputMetricSelector, metric);
+                allMetricsList.add(metric);
+                index(metricsByName, metric.getToolName(), metric);
+                index(metricsByVersion, metric.getToolVersion(), metric);
+                index(metricsByType, metric.getToolType().name(), metric);
+                if (getFormat(metric) == null) {
+                    metricsWithoutFormat.add(metric);
+                } else {
+                    index(metricsByFormat, getFormat(metric), metric);
+                }
+                if (metric instanceof InputMetricXSL && ((InputMetricXSL) metric).getInputXsdNameList() != null) {
+                    xsdPayloads.put(metric, XsdPayload.of(readXSD((InputMetricXSL) metric)));
+                }
+            } catch (IOException ioe) {
+                throw new InputMetricException("Can't read the XSD of the embedded metric " + inputMetric.getClass(), ioe);
             } catch (InputMetricException e) {
                 throw new InputMetricException("Can't load all the embedded metrics data");
             }
@@ -67,88 +124,99 @@ public class InputMetricEmbeddedDAO implements InputMetricDAO {
     }
 
     @Override
-    public void insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+    public String getStoreName() {
+        return STORE_NAME;
+    }
+
+    @Override
+    public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
         throw new UnsupportedOperationException("The Insert method is not allowed for embedded data");
     }
 
     @Override
-    public void delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+    public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
         throw new UnsupportedOperationException("The Delete method is not allowed for embedded data");
     }
 
     @Override
     public long getCount() {
-        return allMetrics.size();
+        return allMetricsList.size();
+    }
+
+    private List<InputMetric> getCandidates(Map<String, List<InputMetric>> index, String criterion) {
+        List<InputMetric> candidates = index.get(InputMetricSelector.normalize(criterion));
+        return candidates == null ? Collections.<InputMetric>emptyList() : candidates;
+    }
+
+    private boolean matches(InputMetric metric, InputMetricSelector inputMetricSelector) {
+        String name = inputMetricSelector.getToolName();
+        String version = inputMetricSelector.getToolVersion();
+        String format = inputMetricSelector.getOutputFormat();
+        String type = inputMetricSelector.getTooType();
+        return (name == null || name.equalsIgnoreCase(metric.getToolName()))
+                && (version == null || version.equalsIgnoreCase(metric.getToolVersion()))
+                && (type == null || type.equalsIgnoreCase(metric.getToolType().name()))
+                && (format == null || getFormat(metric) == null || format.equalsIgnoreCase(getFormat(metric)));
     }
 
     @Override
     public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
 
-
         if (inputMetricSelector.isNoCriteria()) {
-            return allMetrics.values();
+            return allMetricsView;
         }
 
-        List<InputMetric> listInputMetrics = new ArrayList<InputMetric>();
-
         InputMetric metric = allMetrics.get(inputMetricSelector);
         if (metric != null) {
-            listInputMetrics.add(metric);
-            return listInputMetrics;
+            return Collections.singletonList(metric);
         }
 
-        String name = inputMetricSelector.getToolName();
-        String version = inputMetricSelector.getToolVersion();
-        String format = inputMetricSelector.getOutputFormat();
-        String type = inputMetricSelector.getTooType();
-
-        InputMetric[] allMetricsList = new InputMetric[allMetrics.values().size()];
-        allMetrics.values().toArray(allMetricsList);
-        for (int i = 0; i < allMetricsList.length; i++) {
-            metric = allMetricsList[i];
-            //Name
-            if (name != null) {
-                if (!name.equalsIgnoreCase(metric.getToolName())) {
-                    continue;
-                }
-            }
-
-            //Version
-            if (version != null) {
-                if (!version.equalsIgnoreCase(metric.getToolVersion())) {
-                    continue;
-                }
-            }
-
-            //Format
-            if (format != null) {
-                if (metric.getOutputFormatType() != null)
-                    if (!format.equalsIgnoreCase(metric.getOutputFormatType().getKey())) {
-                        continue;
-                    }
-            }
+        //Start from the most selective given criterion and check the others on its entries only
+        List<InputMetric> candidates = null;
+        if (inputMetricSelector.getToolName() != null) {
+            candidates = getCandidates(metricsByName, inputMetricSelector.getToolName());
+        }
+        if (inputMetricSelector.getToolVersion() != null) {
+            candidates = smallest(candidates, getCandidates(metricsByVersion, inputMetricSelector.getToolVersion()));
+        }
+        if (inputMetricSelector.getTooType() != null) {
+            candidates = smallest(candidates, getCandidates(metricsByType, inputMetricSelector.getTooType()));
+        }
+        if (inputMetricSelector.getOutputFormat() != null && metricsWithoutFormat.isEmpty()) {
+            candidates = smallest(candidates, getCandidates(metricsByFormat, inputMetricSelector.getOutputFormat()));
+        }
+        if (candidates == null) {
+            //Only a format criterion with metrics without format
+            candidates = allMetricsList;
+        }
 
-            //type
-            if (type != null) {
-                if (!type.equalsIgnoreCase(metric.getToolType().name())) {
-                    continue;
-                }
+        List<InputMetric> listInputMetrics = new ArrayList<InputMetric>();
+        for (InputMetric candidate : candidates) {
+            if (matches(candidate, inputMetricSelector)) {
+                listInputMetrics.add(candidate);
             }
-
-            listInputMetrics.add(metric);
         }
-
-
         return listInputMetrics;
     }
 
+    private List<InputMetric> smallest(List<InputMetric> current, List<InputMetric> candidates) {
+        if (current == null || candidates.size() < current.size()) {
+            return candidates;
+        }
+        return current;
+    }
+
     @Override
     public Collection<? extends InputMetric> getInputMetrics() {
-        return new ArrayList(allMetrics.values());
+        return allMetricsView;
+    }
+
+    public InputMetricIterator iterateInputMetrics(String position, int limit) {
+        return new ListInputMetricIterator(allMetricsView, position, limit);
     }
 
     @Override
-    public byte[] getXSD(InputMetricSelector inputMetricSelector) {
+    public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
 
         Collection<? extends InputMetric> metrics = getInputMetric(inputMetricSelector);
         if (metrics.size() == 0) {
@@ -163,30 +231,24 @@ public class InputMetricEmbeddedDAO implements InputMetricDAO {
         if (!(metric instanceof InputMetricXSL)) {
             throw new UnsupportedOperationException("The metric " + inputMetricSelector.toString() + " doesn't support getXSD() operation.");
         }
-        InputMetricXSL inputMetricXSL = (InputMetricXSL) metric;
-        if (inputMetricXSL.getInputXsdNameList() == null) {
-            return null;
-        }
+        //Null for a metric without XSD
+        return xsdPayloads.get(metric);
+    }
 
+    private static byte[] readXSD(InputMetricXSL inputMetricXSL) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
         for (int i = 0; i < inputMetricXSL.getInputXsdNameList().length; i++) {
+            InputStream inputStream = inputMetricXSL.getClass().getResourceAsStream(inputMetricXSL.getInputXsdNameList()[i]);
             try {
-                InputStream inputStream = metric.getClass().getResourceAsStream(inputMetricXSL.getInputXsdNameList()[i]);
-                byte[] buffer = new byte[1024];
                 int wasRead;
-                do {
-                    wasRead = inputStream.read(buffer);
-                    if (wasRead > 0) {
-                        baos.write(buffer, 0, wasRead);
-                    }
+                while ((wasRead = inputStream.read(buffer)) != -1) {
+                    baos.write(buffer, 0, wasRead);
                 }
-                while (wasRead > 0);
-            }
-            catch (IOException ioe) {
-                throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+            } finally {
+                inputStream.close();
             }
         }
-
         return baos.toByteArray();
     }
 }
@@ -24,15 +24,26 @@
 package com.thalesgroup.dtkit.ws.rs.dao;
 
 import com.google.code.morphia.Morphia;
-import com.google.code.morphia.mapping.MappingException;
+import com.google.code.morphia.mapping.Serializer;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.QueryResults;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 import com.mongodb.Mongo;
+import com.mongodb.MongoException;
 import com.thalesgroup.dtkit.metrics.model.*;
+import com.thalesgroup.dtkit.ws.rs.cache.ContentDigest;
+import com.thalesgroup.dtkit.ws.rs.cache.TemplatesCache;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContent;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContentLoader;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,19 +51,179 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 
 @Singleton
 public class InputMetricMongoDAO implements InputMetricDAO {
 
+    public static final String STORE_NAME = "mongo";
+
+    private static final String SELECTOR_INDEX_NAME = "selector";
+
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
+    private static final String LEGACY_XSL_FIELD = "xslContent";
+
+    private static final String LEGACY_XSD_FIELD = "xsdContent";
+
+    private static final String[] SELECTOR_FIELDS = {"toolNameKey", "toolVersionKey", "toolTypeKey", "outputFormatKey"};
+
+    //A replaced content is still loaded by the metrics read before the replacement, it outlives the cached ones
+    private static final long CONTENT_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(10);
+
+    private Morphia morphia;
+
     private MongoProxy mongoProxy;
 
+    private MongoContentProxy contentProxy;
+
+    private final InputMetricContentLoader contentLoader = new InputMetricContentLoader() {
+        public InputMetricContent load(ObjectId contentId) {
+            return contentProxy.get(contentId);
+        }
+    };
+
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     @Inject
     private void load(Mongo mongo, Morphia morphia, String dbName) {
+        this.morphia = morphia;
         mongoProxy = new MongoProxy(mongo, morphia, dbName);
+        contentProxy = new MongoContentProxy(mongo, morphia, dbName);
+        migrateContent();
+        migrateSelectorKeys();
+        ensureSelectorIndex();
+        contentProxy.deleteOrphans(CONTENT_GRACE_PERIOD);
+    }
+
+    private static BasicDBObject getSelectorKeys() {
+        BasicDBObject keys = new BasicDBObject();
+        for (String field : SELECTOR_FIELDS) {
+            keys.append(field, 1);
+        }
+        return keys;
+    }
+
+    //A metric is unique for its selector, the index was not unique in the former versions
+    private void ensureSelectorIndex() {
+        DBCollection collection = mongoProxy.getCollection();
+        boolean indexed = false;
+        for (DBObject index : collection.getIndexInfo()) {
+            if (SELECTOR_INDEX_NAME.equals(index.get("name"))) {
+                if (Boolean.TRUE.equals(index.get("unique"))) {
+                    return;
+                }
+                indexed = true;
+            }
+        }
+
+        //The duplicates are found through the former index, then it is rebuilt as a unique one
+        if (!indexed) {
+            collection.ensureIndex(getSelectorKeys(), new BasicDBObject("name", SELECTOR_INDEX_NAME));
+        }
+        removeDuplicates();
+        logger.info("The selector index is rebuilt as a unique index.");
+        collection.dropIndex(SELECTOR_INDEX_NAME);
+        collection.ensureIndex(getSelectorKeys(), new BasicDBObject("name", SELECTOR_INDEX_NAME).append("unique", true));
+    }
+
+    //Keeps the latest metric of each selector, the earlier ones are removed with their content
+    private void removeDuplicates() {
+        DBCollection collection = mongoProxy.getCollection();
+        BasicDBObject fields = getSelectorKeys().append("contentId", 1);
+        DBCursor cursor = collection.find(new BasicDBObject(), fields).sort(getSelectorKeys());
+        DBObject kept = null;
+        int count = 0;
+        while (cursor.hasNext()) {
+            DBObject document = cursor.next();
+            if (kept == null || !isSameSelector(kept, document)) {
+                kept = document;
+                continue;
+            }
+            DBObject removed = document;
+            if (((ObjectId) document.get("_id")).compareTo((ObjectId) kept.get("_id")) > 0) {
+                removed = kept;
+                kept = document;
+            }
+            logger.warn("The stored metric " + removed.get("_id") + " has the selector of the later metric " + kept.get("_id") + ", it is removed.");
+            collection.remove(new BasicDBObject("_id", removed.get("_id")));
+            contentProxy.orphan(getContentId(removed));
+            count++;
+        }
+        if (count != 0) {
+            logger.warn(count + " stored metrics removed as duplicates.");
+        }
+    }
+
+    private static boolean isSameSelector(DBObject document, DBObject other) {
+        for (String field : SELECTOR_FIELDS) {
+            Object value = document.get(field);
+            if (value == null ? other.get(field) != null : !value.equals(other.get(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Documents stored before the content was moved to its own collection hold it serialized
+    private void migrateContent() {
+        DBCollection collection = mongoProxy.getCollection();
+        DBCursor cursor = collection.find(new BasicDBObject(LEGACY_XSL_FIELD, new BasicDBObject("$exists", true)));
+        int count = 0;
+        while (cursor.hasNext()) {
+            DBObject document = cursor.next();
+            ObjectId id = (ObjectId) document.get("_id");
+            String xslContent = getLegacyContent(document.get(LEGACY_XSL_FIELD));
+            String xsdContent = getLegacyContent(document.get(LEGACY_XSD_FIELD));
+            contentProxy.save(new InputMetricContent(id, xslContent, xsdContent));
+
+            BasicDBObject digests = new BasicDBObject();
+            if (xslContent != null) {
+                digests.append("xslDigest", ContentDigest.of(xslContent));
+            }
+            if (xsdContent != null) {
+                digests.append("xsdDigest", ContentDigest.of(xsdContent));
+            }
+            BasicDBObject update = new BasicDBObject("$unset", new BasicDBObject(LEGACY_XSL_FIELD, 1).append(LEGACY_XSD_FIELD, 1));
+            if (!digests.isEmpty()) {
+                update.append("$set", digests);
+            }
+            collection.update(new BasicDBObject("_id", id), update);
+            count++;
+        }
+        if (count != 0) {
+            logger.info(count + " stored metrics migrated to the content collection.");
+        }
+    }
+
+    private String getLegacyContent(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        try {
+            Object content = Serializer.deserialize(value, true);
+            return content == null ? null : String.valueOf(content);
+        } catch (IOException ioe) {
+            throw new InputMetricException("Cannot read the serialized content of a stored metric", ioe);
+        } catch (ClassNotFoundException cnfe) {
+            throw new InputMetricException("Cannot read the serialized content of a stored metric", cnfe);
+        }
+    }
+
+    //Documents stored before the selector keys were introduced
+    private void migrateSelectorKeys() {
+        int count = 0;
+        for (InputMetricDB inputMetricDB : mongoProxy.find(mongoProxy.createQuery().field("toolNameKey").doesNotExist())) {
+            mongoProxy.save(inputMetricDB);
+            count++;
+        }
+        if (count != 0) {
+            logger.info(count + " stored metrics migrated to the selector keys.");
+        }
     }
 
     @Override
@@ -60,6 +231,18 @@ public class InputMetricMongoDAO implements InputMetricDAO {
         return true;
     }
 
+    @Override
+    public String getStoreName() {
+        return STORE_NAME;
+    }
+
+    private <T extends Iterable<InputMetricDB>> T attach(T inputMetricDBs) {
+        for (InputMetricDB inputMetricDB : inputMetricDBs) {
+            inputMetricDB.setContentLoader(contentLoader);
+        }
+        return inputMetricDBs;
+    }
+
     private Query<InputMetricDB> makeQuery(InputMetricSelector inputMetricSelector) {
         String toolName = inputMetricSelector.getToolName();
         String toolVersion = inputMetricSelector.getToolVersion();
@@ -68,70 +251,111 @@ public class InputMetricMongoDAO implements InputMetricDAO {
         Query<InputMetricDB> query = mongoProxy.createQuery();
 
         if (toolName != null) {
-            query = query.field("toolName").startsWithIgnoreCase(toolName);
-            query = query.field("toolName").endsWithIgnoreCase(toolName);
+            query = query.field("toolNameKey").equal(InputMetricSelector.normalize(toolName));
         }
         if (toolVersion != null) {
-            query = query.field("toolVersion").startsWithIgnoreCase(toolVersion);
-            query = query.field("toolVersion").endsWithIgnoreCase(toolVersion);
+            query = query.field("toolVersionKey").equal(InputMetricSelector.normalize(toolVersion));
         }
         if (toolType != null) {
-            query = query.field("toolType").startsWithIgnoreCase(toolType);
-            query = query.field("toolType").endsWithIgnoreCase(toolType);
+            query = query.field("toolTypeKey").equal(InputMetricSelector.normalize(toolType));
         }
         if (outputFormat != null) {
-            query = query.field("outputFormat").startsWithIgnoreCase(outputFormat);
-            query = query.field("outputFormat").endsWithIgnoreCase(outputFormat);                        
+            query = query.field("outputFormatKey").equal(InputMetricSelector.normalize(outputFormat));
         }
         return query;
     }
 
+    //Matches the metric of a complete selector through the unique index
+    private DBObject makeKeyQuery(InputMetricSelector inputMetricSelector) {
+        return new BasicDBObject("toolNameKey", InputMetricSelector.normalize(inputMetricSelector.getToolName()))
+                .append("toolVersionKey", InputMetricSelector.normalize(inputMetricSelector.getToolVersion()))
+                .append("toolTypeKey", InputMetricSelector.normalize(inputMetricSelector.getTooType()))
+                .append("outputFormatKey", InputMetricSelector.normalize(inputMetricSelector.getOutputFormat()));
+    }
+
+    //Metrics stored before the content had its own id share it with their metadata
+    private ObjectId getContentId(DBObject document) {
+        Object contentId = document.get("contentId");
+        return (ObjectId) (contentId == null ? document.get("_id") : contentId);
+    }
+
     @Override
-    public void insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+    public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
 
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, toolType.name(), outputMetric.getKey());
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setToolName(name);
+        inputMetricDB.setToolVersion(version);
+        inputMetricDB.setToolType(toolType);
         try {
-            //Verify that the object not already exists
-            Collection<? extends InputMetric> inputMetrics = getInputMetric(inputMetricSelector);
-            assert inputMetrics.size() <= 1;
-            if (inputMetrics.size() == 1) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("The object " + inputMetricSelector + " already exist.");
-                }
-                return;
-            }
-
-            InputMetricDB inputMetricDB = new InputMetricDB();
-            inputMetricDB.setToolName(name);
-            inputMetricDB.setToolVersion(version);
-            inputMetricDB.setToolType(toolType);
             inputMetricDB.setXslContent(getContentTextFile(xsl));
             if (xsd != null) {
                 inputMetricDB.setXsdContent(getContentTextFile(xsd));
             } else {
                 inputMetricDB.setXsdContent(null);
             }
-            inputMetricDB.setInputMetricType(InputMetricType.XSL);
-            inputMetricDB.setOutputFormat(outputMetric.getKey());
-            mongoProxy.save(inputMetricDB);
         }
         catch (IOException ioe) {
             throw new InputMetricException("Cannot insert the current netric " + inputMetricSelector.toString(), ioe);
         }
+        inputMetricDB.setInputMetricType(InputMetricType.XSL);
+        inputMetricDB.setOutputFormat(outputMetric.getKey());
+
+        //The new content is saved first under its own id, a stored metric always refers to an existing content
+        InputMetricContent content = new InputMetricContent(new ObjectId(), inputMetricDB.getXslContent(), inputMetricDB.getXsdContent());
+        contentProxy.save(content);
+        inputMetricDB.setContentId(content.getId());
+
+        DBObject document = morphia.toDBObject(inputMetricDB);
+        document.removeField("_id");
+        DBObject previous;
+        try {
+            previous = upsert(makeKeyQuery(inputMetricSelector), document);
+        } catch (MongoException me) {
+            contentProxy.deleteById(content.getId());
+            throw me;
+        }
+        TemplatesCache.getInstance().invalidate(InputMetricDB.getCacheKey(name, version, toolType.name(), outputMetric.getKey()));
+
+        if (previous == null) {
+            return StoreResult.CREATED;
+        }
+        releaseContent(getContentId(previous));
+        return StoreResult.REPLACED;
+    }
+
+    //The metrics read before a replacement or a removal may still load the content
+    private void releaseContent(ObjectId contentId) {
+        contentProxy.orphan(contentId);
+        contentProxy.deleteOrphans(CONTENT_GRACE_PERIOD);
+    }
+
+    //Replaces or creates the metric in one operation and returns the replaced one
+    private DBObject upsert(DBObject keyQuery, DBObject document) {
+        DBObject fields = new BasicDBObject("contentId", 1);
+        try {
+            return mongoProxy.getCollection().findAndModify(keyQuery, fields, null, false, document, false, true);
+        } catch (MongoException me) {
+            //Two concurrent upserts of a new metric, the second one replaces the first
+            if (me.getCode() != DUPLICATE_KEY_ERROR) {
+                throw me;
+            }
+            return mongoProxy.getCollection().findAndModify(keyQuery, fields, null, false, document, false, true);
+        }
     }
 
     @Override
-    public void delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+    public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
 
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, toolType.name(), outputMetric.getKey());
-        Query<InputMetricDB> query = makeQuery(inputMetricSelector);
-        Collection<? extends InputMetric> metrics = mongoProxy.find(query).asList();
-        if (metrics.size() == 0) {
-            throw new MappingException("Cannot get metric for " + inputMetricSelector.toString());
+        DBObject removed = mongoProxy.getCollection().findAndRemove(makeKeyQuery(inputMetricSelector));
+        if (removed == null) {
+            return StoreResult.NOT_FOUND;
         }
-        assert metrics.size() == 1 : "There are more than 2 metrics for " + inputMetricSelector.toString();
 
-        mongoProxy.deleteByQuery(query);
+        releaseContent(getContentId(removed));
+        TemplatesCache.getInstance().invalidate(InputMetricDB.getCacheKey(name, version, toolType.name(), outputMetric.getKey()));
+        return StoreResult.REMOVED;
     }
 
 
@@ -140,7 +364,7 @@ public class InputMetricMongoDAO implements InputMetricDAO {
     }
 
     public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
-        return mongoProxy.find(makeQuery(inputMetricSelector)).asList();
+        return attach(mongoProxy.find(makeQuery(inputMetricSelector)).asList());
     }
 
 
@@ -156,11 +380,49 @@ public class InputMetricMongoDAO implements InputMetricDAO {
 
     public Collection<? extends InputMetric> getInputMetrics() {
         QueryResults<InputMetricDB> inputMetricDBQueryResults = mongoProxy.find();
-        return inputMetricDBQueryResults.asList();
+        return attach(inputMetricDBQueryResults.asList());
+    }
+
+    //The position of a metric is its id, the documents are read while they are iterated
+    public InputMetricIterator iterateInputMetrics(String position, int limit) {
+        Query<InputMetricDB> query = mongoProxy.createQuery().order("_id");
+        if (position != null) {
+            if (!ObjectId.isValid(position)) {
+                throw new IllegalArgumentException("Invalid position " + position);
+            }
+            query = query.field("_id").greaterThan(new ObjectId(position));
+        }
+        if (limit > 0) {
+            query = query.limit(limit);
+        }
+
+        final Iterator<InputMetricDB> inputMetricDBIterator = mongoProxy.find(query).iterator();
+        return new InputMetricIterator() {
+            private String lastPosition;
+
+            public String getPosition() {
+                return lastPosition;
+            }
+
+            public boolean hasNext() {
+                return inputMetricDBIterator.hasNext();
+            }
+
+            public InputMetric next() {
+                InputMetricDB inputMetricDB = inputMetricDBIterator.next();
+                inputMetricDB.setContentLoader(contentLoader);
+                lastPosition = inputMetricDB.getId().toString();
+                return inputMetricDB;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("The metrics are read only");
+            }
+        };
     }
 
     @Override
-    public byte[] getXSD(InputMetricSelector inputMetricSelector) {
+    public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
 
         //Verify that the object not already exists
         Collection<? extends InputMetric> inputMetrics = getInputMetric(inputMetricSelector);
@@ -174,6 +436,16 @@ public class InputMetricMongoDAO implements InputMetricDAO {
         assert  metric instanceof InputMetricDB;
         InputMetricDB inputMetricDB = (InputMetricDB) metric;
 
-        return String.valueOf(inputMetricDB.getXsdContent()).getBytes();
+        //The stored digest is the one of the UTF-8 content, it is the entity tag as is
+        String xsdContent = inputMetricDB.getXsdContent();
+        return xsdContent == null ? null : new XsdPayload(toUTF8(xsdContent), inputMetricDB.getXsdDigest());
+    }
+
+    private static byte[] toUTF8(String content) {
+        try {
+            return content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
     }
 }
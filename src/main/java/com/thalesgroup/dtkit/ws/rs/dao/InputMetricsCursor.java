@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//Iterates the metrics of all the stores, one store after the other.
+//A cursor is the name of a store and the position of a metric in it, the metrics are queried lazily.
+public class InputMetricsCursor implements Iterator<InputMetric> {
+
+    private final List<InputMetricDAO> inputMetricDAOList;
+
+    private final int limit;
+
+    private int daoIndex;
+
+    private String storeName;
+
+    private String position;
+
+    private InputMetricIterator current;
+
+    private int count;
+
+    public InputMetricsCursor(List<InputMetricDAO> inputMetricDAOList, String cursor, int limit) {
+        //The stores are attached and detached at runtime
+        this.inputMetricDAOList = new ArrayList<InputMetricDAO>(inputMetricDAOList);
+        this.limit = limit;
+        if (cursor != null) {
+            int separator = cursor.indexOf(':');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor);
+            }
+            storeName = cursor.substring(0, separator);
+            daoIndex = indexOf(storeName);
+            if (daoIndex < 0) {
+                //The metrics after the cursor can't be listed until the store is back
+                throw new StoreUnavailableException("The " + storeName + " store is unavailable", 0);
+            }
+            position = separator == cursor.length() - 1 ? null : cursor.substring(separator + 1);
+        }
+    }
+
+    private int indexOf(String storeName) {
+        for (int i = 0; i < inputMetricDAOList.size(); i++) {
+            if (storeName.equals(inputMetricDAOList.get(i).getStoreName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //Cursor after the last returned metric
+    public String getCursor() {
+        if (storeName == null) {
+            //Nothing returned from an empty list of stores, the next page starts from the first store again
+            return null;
+        }
+        return storeName + ":" + (position == null ? "" : position);
+    }
+
+    public boolean hasNext() {
+        if (limit > 0 && count >= limit) {
+            return false;
+        }
+        while (current == null || !current.hasNext()) {
+            int nextIndex = current == null ? daoIndex : daoIndex + 1;
+            if (nextIndex >= inputMetricDAOList.size()) {
+                //The cursor stays after the last metric of the last store
+                return false;
+            }
+            if (current != null) {
+                //The store is exhausted, the next one is read from its start
+                position = null;
+            }
+            daoIndex = nextIndex;
+            InputMetricDAO inputMetricDAO = inputMetricDAOList.get(daoIndex);
+            storeName = inputMetricDAO.getStoreName();
+            current = inputMetricDAO.iterateInputMetrics(position, limit > 0 ? limit - count : 0);
+        }
+        return true;
+    }
+
+    public InputMetric next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        InputMetric inputMetric = current.next();
+        position = current.getPosition();
+        count++;
+        return inputMetric;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("The metrics are read only");
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//The position of a metric is its index in the list
+public class ListInputMetricIterator implements InputMetricIterator {
+
+    private final List<? extends InputMetric> metrics;
+
+    private final int end;
+
+    private int index;
+
+    public ListInputMetricIterator(List<? extends InputMetric> metrics, String position, int limit) {
+        this.metrics = metrics;
+        try {
+            this.index = position == null ? 0 : Integer.parseInt(position) + 1;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid position " + position);
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid position " + position);
+        }
+        this.end = limit > 0 ? (int) Math.min((long) index + limit, metrics.size()) : metrics.size();
+    }
+
+    public String getPosition() {
+        return String.valueOf(index - 1);
+    }
+
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    public InputMetric next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return metrics.get(index++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("The metrics are read only");
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.google.code.morphia.DAO;
+import com.google.code.morphia.Morphia;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Mongo;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContent;
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+
+
+public class MongoContentProxy extends DAO<InputMetricContent, ObjectId> {
+
+    private static final String ORPHANED_FIELD = "orphanedAt";
+
+    public MongoContentProxy(Mongo mongo, Morphia morphia, String dbName) {
+        super(mongo, morphia, dbName);
+        getCollection().ensureIndex(new BasicDBObject(ORPHANED_FIELD, 1), new BasicDBObject("name", ORPHANED_FIELD).append("sparse", true));
+    }
+
+    //A content no metric refers to any more, it is kept for the metrics already read
+    public void orphan(ObjectId id) {
+        getCollection().update(new BasicDBObject("_id", id), new BasicDBObject("$set", new BasicDBObject(ORPHANED_FIELD, new Date())));
+    }
+
+    //Deletes the contents orphaned for longer than the grace period
+    public void deleteOrphans(long gracePeriodMillis) {
+        Date limit = new Date(System.currentTimeMillis() - gracePeriodMillis);
+        getCollection().remove(new BasicDBObject(ORPHANED_FIELD, new BasicDBObject("$lt", limit)));
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.mongodb.Mongo;
+import com.mongodb.MongoOptions;
+import com.mongodb.ServerAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.UnknownHostException;
+import java.util.List;
+
+//Adds the Mongo store to the DAO list while the database is reachable and removes it while it is not.
+//Once attached, the store answers 503 through its circuit breaker while it is tripped.
+//The connection is set up by the monitor thread, the requests only read the list.
+public abstract class MongoStoreMonitor implements Runnable {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<InputMetricDAO> inputMetricDAOList;
+
+    private final String host;
+
+    private final int port;
+
+    private final String dbName;
+
+    private final long interval;
+
+    private final String location;
+
+    private Thread thread;
+
+    private Mongo mongo;
+
+    private InputMetricDAO store;
+
+    private volatile boolean attached;
+
+    private boolean failureLogged;
+
+    //The list must support concurrent reads while it is modified, e.g. a CopyOnWriteArrayList
+    public MongoStoreMonitor(List<InputMetricDAO> inputMetricDAOList, String host, int port, String dbName, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("The health check interval must be positive");
+        }
+        this.inputMetricDAOList = inputMetricDAOList;
+        this.host = host;
+        this.port = port;
+        this.dbName = dbName;
+        this.interval = interval;
+        this.location = host + ":" + port + "/" + dbName;
+    }
+
+    //Called once from the monitor thread, when the database is reachable for the first time
+    protected abstract InputMetricDAO createStore(Mongo mongo, String dbName);
+
+    public synchronized void start() {
+        thread = new Thread(this, "dtkit-mongo-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Stops the health checks and closes the connection, the store is not usable afterwards
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(interval);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (mongo != null) {
+            mongo.close();
+        }
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            check();
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //Throws a MongoException when the database is unreachable
+    protected void ping() throws UnknownHostException {
+        if (mongo == null) {
+            MongoOptions mongoOptions = new MongoOptions();
+            mongoOptions.connectTimeout = (int) Math.min(interval, Integer.MAX_VALUE);
+            mongo = new Mongo(new ServerAddress(host, port), mongoOptions);
+        }
+        mongo.getDB(dbName).getCollectionNames();
+    }
+
+    void check() {
+        try {
+            ping();
+            if (store == null) {
+                store = createStore(mongo, dbName);
+            }
+        } catch (UnknownHostException uhe) {
+            unreachable(uhe);
+            return;
+        } catch (RuntimeException re) {
+            //A MongoException or a failed store creation, the store is created again at the next check
+            unreachable(re);
+            return;
+        }
+
+        failureLogged = false;
+        if (!attached) {
+            inputMetricDAOList.add(store);
+            attached = true;
+            logger.info("The Mongo store " + location + " is attached.");
+        }
+    }
+
+    private void unreachable(Exception e) {
+        if (attached) {
+            inputMetricDAOList.remove(store);
+            attached = false;
+            logger.warn("The Mongo store " + location + " is detached, it is unreachable.", e);
+        } else if (!failureLogged) {
+            logger.warn("The Mongo store " + location + " is unreachable, it is attached as soon as it is back.", e);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("The Mongo store " + location + " is still unreachable.");
+        }
+        failureLogged = true;
+    }
+}
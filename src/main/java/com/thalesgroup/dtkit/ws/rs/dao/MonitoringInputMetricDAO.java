@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringRegistry;
+import com.thalesgroup.dtkit.ws.rs.monitoring.OperationStats;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+
+import java.io.File;
+import java.util.Collection;
+
+//Records the latency and the failures of each store operation
+public class MonitoringInputMetricDAO implements InputMetricDAO {
+
+    private final InputMetricDAO delegate;
+
+    private final OperationStats insertStats;
+
+    private final OperationStats deleteStats;
+
+    private final OperationStats countStats;
+
+    private final OperationStats selectStats;
+
+    private final OperationStats listStats;
+
+    private final OperationStats iterateStats;
+
+    private final OperationStats xsdStats;
+
+    public MonitoringInputMetricDAO(InputMetricDAO delegate, String storeName, MonitoringRegistry monitoringRegistry) {
+        this.delegate = delegate;
+        this.insertStats = monitoringRegistry.getStoreStats(storeName, "insert");
+        this.deleteStats = monitoringRegistry.getStoreStats(storeName, "delete");
+        this.countStats = monitoringRegistry.getStoreStats(storeName, "count");
+        this.selectStats = monitoringRegistry.getStoreStats(storeName, "select");
+        this.listStats = monitoringRegistry.getStoreStats(storeName, "list");
+        this.iterateStats = monitoringRegistry.getStoreStats(storeName, "iterate");
+        this.xsdStats = monitoringRegistry.getStoreStats(storeName, "xsd");
+    }
+
+    public InputMetricDAO getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            StoreResult storeResult = delegate.insert(name, version, toolType, xsl, xsd, outputMetric);
+            failed = false;
+            return storeResult;
+        } finally {
+            insertStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            StoreResult storeResult = delegate.delete(name, version, toolType, outputMetric);
+            failed = false;
+            return storeResult;
+        } finally {
+            deleteStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            long count = delegate.getCount();
+            failed = false;
+            return count;
+        } finally {
+            countStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Collection<? extends InputMetric> metrics = delegate.getInputMetric(inputMetricSelector);
+            failed = false;
+            return metrics;
+        } finally {
+            selectStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public Collection<? extends InputMetric> getInputMetrics() {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Collection<? extends InputMetric> metrics = delegate.getInputMetrics();
+            failed = false;
+            return metrics;
+        } finally {
+            listStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    //Only the query is measured, the documents are read while the response is written
+    @Override
+    public InputMetricIterator iterateInputMetrics(String position, int limit) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            InputMetricIterator iterator = delegate.iterateInputMetrics(position, limit);
+            failed = false;
+            return iterator;
+        } finally {
+            iterateStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            XsdPayload xsd = delegate.getXSD(inputMetricSelector);
+            failed = false;
+            return xsd;
+        } finally {
+            xsdStats.record(System.nanoTime() - start, failed, 0, 0);
+        }
+    }
+
+    @Override
+    public boolean isPersistenceStore() {
+        return delegate.isPersistenceStore();
+    }
+
+    @Override
+    public String getStoreName() {
+        return delegate.getStoreName();
+    }
+}
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.filters;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.jersey.spi.container.*;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+//Decodes gzip and deflate request entities and encodes the response entities a client accepts compressed
+@Singleton
+public class ContentEncodingFilter implements ResourceFilter, ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String THRESHOLD = "compression.threshold";
+
+    //Limit of a decoded request entity, a small compressed upload can inflate to any size
+    public static final String MAX_INFLATED_SIZE = "compression.maxInflatedSize";
+
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+    static final String GZIP = "gzip";
+
+    static final String DEFLATE = "deflate";
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String IDENTITY = "identity";
+
+    //Already compressed, encoding them again only costs CPU
+    private static final MediaType APPLICATION_ZIP = new MediaType("application", "zip");
+
+    private final int threshold;
+
+    private final long maxInflatedSize;
+
+    public ContentEncodingFilter(int threshold) {
+        this(threshold, Long.MAX_VALUE);
+    }
+
+    @Inject
+    public ContentEncodingFilter(@Named(THRESHOLD) int threshold, @Named(MAX_INFLATED_SIZE) long maxInflatedSize) {
+        this.threshold = threshold;
+        this.maxInflatedSize = maxInflatedSize;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public ContainerRequestFilter getRequestFilter() {
+        return this;
+    }
+
+    public ContainerResponseFilter getResponseFilter() {
+        return this;
+    }
+
+    //The decoding stream is given to the entity readers, the upload is never inflated in memory or on disk
+    public ContainerRequest filter(ContainerRequest request) {
+        String contentEncoding = request.getHeaderValue(CONTENT_ENCODING);
+        if (contentEncoding == null) {
+            return request;
+        }
+
+        String coding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        InputStream entityInputStream = request.getEntityInputStream();
+        try {
+            if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                request.setEntityInputStream(new InflatedInputStream(new GZIPInputStream(entityInputStream)));
+            } else if (DEFLATE.equals(coding)) {
+                request.setEntityInputStream(new InflatedInputStream(new InflaterInputStream(entityInputStream)));
+            } else if (!IDENTITY.equals(coding)) {
+                throw new WebApplicationException(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                        .entity("Unsupported content encoding " + contentEncoding).type(MediaType.TEXT_PLAIN).build());
+            }
+        } catch (IOException ioe) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("The request entity is not " + coding + " encoded").type(MediaType.TEXT_PLAIN).build());
+        }
+        request.getRequestHeaders().remove(CONTENT_ENCODING);
+        return request;
+    }
+
+    //Every response which may be compressed varies on Accept-Encoding, a 304 as well as the full response.
+    //A client accepting a coding gets a weak tag, the identity and encoded representations are only equivalent.
+    public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+        if (response.getHttpHeaders().containsKey(CONTENT_ENCODING)
+                || (response.getMediaType() != null && APPLICATION_ZIP.isCompatible(response.getMediaType()))) {
+            return response;
+        }
+
+        response.getHttpHeaders().add(HttpHeaders.VARY, ACCEPT_ENCODING);
+        String coding = negotiate(request.getHeaderValue(ACCEPT_ENCODING));
+        if (coding != null) {
+            weakenEntityTag(response);
+            if (response.getEntity() != null) {
+                response.setContainerResponseWriter(new CompressingResponseWriter(response.getContainerResponseWriter(), coding));
+            }
+        }
+        return response;
+    }
+
+    private static void weakenEntityTag(ContainerResponse response) {
+        Object tag = response.getHttpHeaders().getFirst(HttpHeaders.ETAG);
+        if (tag == null) {
+            return;
+        }
+        EntityTag entityTag = tag instanceof EntityTag ? (EntityTag) tag : EntityTag.valueOf(tag.toString());
+        if (!entityTag.isWeak()) {
+            response.getHttpHeaders().putSingle(HttpHeaders.ETAG, new EntityTag(entityTag.getValue(), true));
+        }
+    }
+
+    //gzip is preferred to deflate at the same quality, null when the client accepts neither
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+            float quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2).trim());
+                    } catch (NumberFormatException nfe) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (DEFLATE.equals(coding)) {
+                deflateQuality = quality;
+            } else if ("*".equals(coding)) {
+                anyQuality = quality;
+            }
+        }
+        if (gzipQuality < 0) {
+            gzipQuality = anyQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = anyQuality;
+        }
+
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return GZIP;
+        }
+        if (deflateQuality > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    //An entity of unknown size is held until it reaches the threshold, so that small ones are sent as they are
+    private class CompressingResponseWriter implements ContainerResponseWriter {
+
+        private final ContainerResponseWriter containerResponseWriter;
+
+        private final String coding;
+
+        private ThresholdOutputStream thresholdOutputStream;
+
+        private CompressingResponseWriter(ContainerResponseWriter containerResponseWriter, String coding) {
+            this.containerResponseWriter = containerResponseWriter;
+            this.coding = coding;
+        }
+
+        public OutputStream writeStatusAndHeaders(long contentLength, ContainerResponse response) throws IOException {
+            if (contentLength >= 0 && contentLength < threshold) {
+                return containerResponseWriter.writeStatusAndHeaders(contentLength, response);
+            }
+            thresholdOutputStream = new ThresholdOutputStream(response);
+            if (contentLength >= 0) {
+                thresholdOutputStream.compress();
+            }
+            return thresholdOutputStream;
+        }
+
+        public void finish() throws IOException {
+            if (thresholdOutputStream != null) {
+                thresholdOutputStream.close();
+            }
+            containerResponseWriter.finish();
+        }
+
+        private class ThresholdOutputStream extends OutputStream {
+
+            private final ContainerResponse response;
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            private OutputStream outputStream;
+
+            private boolean closed;
+
+            private ThresholdOutputStream(ContainerResponse response) {
+                this.response = response;
+            }
+
+            private void compress() throws IOException {
+                response.getHttpHeaders().putSingle(CONTENT_ENCODING, coding);
+                OutputStream entityStream = new UnclosableOutputStream(containerResponseWriter.writeStatusAndHeaders(-1, response));
+                outputStream = GZIP.equals(coding) ? new GZIPOutputStream(entityStream, 8192) : new DeflaterOutputStream(entityStream);
+                buffer.writeTo(outputStream);
+                buffer = null;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (outputStream == null) {
+                    if (buffer.size() + len < threshold) {
+                        buffer.write(b, off, len);
+                        return;
+                    }
+                    compress();
+                }
+                outputStream.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                //A flush below the threshold doesn't commit the response
+                if (outputStream != null) {
+                    outputStream.flush();
+                }
+            }
+
+            //Ends the compression, the container closes the entity stream itself
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (outputStream == null) {
+                    OutputStream entityStream = containerResponseWriter.writeStatusAndHeaders(buffer.size(), response);
+                    buffer.writeTo(entityStream);
+                    buffer = null;
+                } else {
+                    //Releases the native deflater too
+                    outputStream.close();
+                }
+            }
+        }
+    }
+
+    //Thrown while the entity is read, the readers let it through to the container
+    private class InflatedInputStream extends LimitedInputStream {
+
+        private InflatedInputStream(InputStream inputStream) {
+            super(inputStream, maxInflatedSize);
+        }
+
+        @Override
+        protected void exceeded(String message) {
+            throw new WebApplicationException(Response.status(REQUEST_ENTITY_TOO_LARGE)
+                    .entity("The decoded request entity exceeds " + maxInflatedSize + " bytes").type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    private static class UnclosableOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        private UnclosableOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
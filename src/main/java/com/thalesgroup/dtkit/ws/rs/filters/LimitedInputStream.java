@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.filters;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Fails the read which goes beyond the limit of the stream, or beyond the limit shared by several streams
+public class LimitedInputStream extends FilterInputStream {
+
+    public static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private final long limit;
+
+    private final AtomicLong sharedCount;
+
+    private final long sharedLimit;
+
+    private long count;
+
+    public LimitedInputStream(InputStream inputStream, long limit) {
+        this(inputStream, limit, null, 0);
+    }
+
+    public LimitedInputStream(InputStream inputStream, long limit, AtomicLong sharedCount, long sharedLimit) {
+        super(inputStream);
+        this.limit = limit;
+        this.sharedCount = sharedCount;
+        this.sharedLimit = sharedLimit;
+    }
+
+    private void count(long read) throws IOException {
+        if (read <= 0) {
+            return;
+        }
+        count += read;
+        if (count > limit) {
+            exceeded("The content exceeds " + limit + " bytes");
+        }
+        if (sharedCount != null && sharedCount.addAndGet(read) > sharedLimit) {
+            exceeded("The contents exceed " + sharedLimit + " bytes in total");
+        }
+    }
+
+    //Fails the read, a LimitExceededException by default
+    protected void exceeded(String message) throws IOException {
+        throw new LimitExceededException(message);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read != -1) {
+            count(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        count(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
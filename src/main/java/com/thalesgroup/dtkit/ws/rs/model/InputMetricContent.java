@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.model;
+
+import com.google.code.morphia.annotations.Entity;
+import com.google.code.morphia.annotations.Id;
+import org.bson.types.ObjectId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//Stylesheet and schema of a stored metric, kept apart from its metadata and gzipped
+@Entity(value = "InputMetricContent", noClassnameStored = true)
+public class InputMetricContent {
+
+    @Id
+    private ObjectId id;
+
+    private byte[] xsl;
+
+    private byte[] xsd;
+
+    public InputMetricContent() {
+    }
+
+    public InputMetricContent(ObjectId id, String xslContent, String xsdContent) {
+        this.id = id;
+        this.xsl = compress(xslContent);
+        this.xsd = compress(xsdContent);
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public String getXslContent() {
+        return decompress(xsl);
+    }
+
+    public String getXsdContent() {
+        return decompress(xsd);
+    }
+
+    private static byte[] compress(String content) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            OutputStream outputStream = new GZIPOutputStream(baos);
+            try {
+                outputStream.write(content.getBytes("UTF-8"));
+            } finally {
+                outputStream.close();
+            }
+            return baos.toByteArray();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot compress the metric content", ioe);
+        }
+    }
+
+    private static String decompress(byte[] content) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length * 4);
+            InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(content));
+            try {
+                byte[] buffer = new byte[4096];
+                int wasRead;
+                while ((wasRead = inputStream.read(buffer)) != -1) {
+                    baos.write(buffer, 0, wasRead);
+                }
+            } finally {
+                inputStream.close();
+            }
+            return baos.toString("UTF-8");
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot decompress the metric content", ioe);
+        }
+    }
+}
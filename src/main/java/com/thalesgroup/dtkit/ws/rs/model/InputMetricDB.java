@@ -24,20 +24,25 @@
 package com.thalesgroup.dtkit.ws.rs.model;
 
 import com.google.code.morphia.annotations.Id;
-import com.google.code.morphia.annotations.Serialized;
+import com.google.code.morphia.annotations.PrePersist;
+import com.google.code.morphia.annotations.Transient;
 import com.thalesgroup.dtkit.metrics.model.AbstractOutputMetric;
 import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
 import com.thalesgroup.dtkit.metrics.model.OutputMetric;
 import com.thalesgroup.dtkit.util.converter.ConversionException;
-import com.thalesgroup.dtkit.util.converter.ConversionService;
 import com.thalesgroup.dtkit.util.validator.ValidationException;
-import com.thalesgroup.dtkit.util.validator.ValidationService;
+import com.thalesgroup.dtkit.ws.rs.cache.ContentDigest;
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
 import org.bson.types.ObjectId;
+import com.thalesgroup.dtkit.ws.rs.cache.TemplatesCache;
 import org.codehaus.jackson.annotate.JsonIgnore;
 
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
-import java.io.File;
-import java.io.StringReader;
+import javax.xml.validation.Schema;
+import java.io.*;
 
 
 public class InputMetricDB extends InputMetricXSL {
@@ -45,35 +50,99 @@ public class InputMetricDB extends InputMetricXSL {
     @Id
     private ObjectId id;
 
-    @Serialized
-    private Object xslContent;
+    //The content is stored in its own collection, only its digests are read with the metadata
+    @Transient
+    private String xslContent;
 
-    @Serialized
-    private Object xsdContent;
+    @Transient
+    private String xsdContent;
+
+    @Transient
+    private InputMetricContentLoader contentLoader;
+
+    private ObjectId contentId;
+
+    private String xslDigest;
+
+    private String xsdDigest;
 
     private String outputFormat;
 
+    //Lower case copies of the selector criteria, queried through the selector index
+    private String toolNameKey;
+
+    private String toolVersionKey;
+
+    private String toolTypeKey;
+
+    private String outputFormatKey;
+
     @JsonIgnore
     public ObjectId getId() {
         return id;
     }
 
+    //Metrics stored before the content had its own id share it with their metadata
+    @JsonIgnore
+    public ObjectId getContentId() {
+        return contentId == null ? id : contentId;
+    }
+
+    public void setContentId(ObjectId contentId) {
+        this.contentId = contentId;
+    }
+
+    public synchronized void setContentLoader(InputMetricContentLoader contentLoader) {
+        this.contentLoader = contentLoader;
+    }
+
+    //Null once the content has been loaded
+    @JsonIgnore
+    public synchronized InputMetricContentLoader getContentLoader() {
+        return contentLoader;
+    }
+
+    public synchronized void loadContent() {
+        if (contentLoader != null) {
+            InputMetricContent content = contentLoader.load(getContentId());
+            if (content != null) {
+                xslContent = content.getXslContent();
+                xsdContent = content.getXsdContent();
+            }
+            contentLoader = null;
+        }
+    }
+
     @JsonIgnore
-    public Object getXslContent() {
+    public String getXslContent() {
+        loadContent();
         return xslContent;
     }
 
-    public void setXslContent(Object xslContent) {
+    public synchronized void setXslContent(String xslContent) {
         this.xslContent = xslContent;
+        this.xslDigest = xslContent == null ? null : ContentDigest.of(xslContent);
     }
 
     @JsonIgnore
-    public Object getXsdContent() {
+    public String getXsdContent() {
+        loadContent();
         return xsdContent;
     }
 
-    public void setXsdContent(Object xsdContent) {
+    public synchronized void setXsdContent(String xsdContent) {
         this.xsdContent = xsdContent;
+        this.xsdDigest = xsdContent == null ? null : ContentDigest.of(xsdContent);
+    }
+
+    @JsonIgnore
+    public String getXslDigest() {
+        return xslDigest;
+    }
+
+    @JsonIgnore
+    public String getXsdDigest() {
+        return xsdDigest;
     }
 
     public String getOutputFormat() {
@@ -116,17 +185,78 @@ public class InputMetricDB extends InputMetricXSL {
         };
     }
 
+    @PrePersist
+    @SuppressWarnings("unused")
+    void updateSelectorKeys() {
+        toolNameKey = InputMetricSelector.normalize(getToolName());
+        toolVersionKey = InputMetricSelector.normalize(getToolVersion());
+        toolTypeKey = getToolType() == null ? null : InputMetricSelector.normalize(getToolType().name());
+        outputFormatKey = InputMetricSelector.normalize(outputFormat);
+    }
+
+    public static String getCacheKey(String name, String version, String toolType, String outputFormat) {
+        return new InputMetricSelector(name, version, toolType, outputFormat).getKey();
+    }
+
+    //The content is only read when the compiled stylesheet is not cached
+    public Templates getTemplates() throws ConversionException {
+        String cacheKey = getCacheKey(getToolName(), getToolVersion(), getToolType().name(), getOutputFormat());
+        TemplatesCache templatesCache = TemplatesCache.getInstance();
+        Templates templates = xslDigest == null ? null : templatesCache.getCompiledTemplates(cacheKey, xslDigest);
+        if (templates == null) {
+            String xsl = getXslContent();
+            if (xsl == null) {
+                throw new ConversionException("The stylesheet of the metric " + cacheKey + " can't be found.");
+            }
+            templates = templatesCache.getTemplates(cacheKey, xsl);
+        }
+        return templates;
+    }
+
+    //Returns null when the metric has no input XSD
+    public Schema getSchema() throws ValidationException {
+        if (xsdDigest == null) {
+            return null;
+        }
+        SchemaCache schemaCache = SchemaCache.getInstance();
+        Schema schema = schemaCache.getCompiledSchema(xsdDigest);
+        if (schema == null) {
+            String xsd = getXsdContent();
+            schema = xsd == null ? null : schemaCache.getSchema(xsd);
+        }
+        return schema;
+    }
+
     @Override
     public void convert(File inputFile, File outFile) throws ConversionException {
-        new ConversionService().convert(new StreamSource(new StringReader(String.valueOf(getXslContent()))), inputFile, outFile);
+        try {
+            InputStream inputStream = new FileInputStream(inputFile);
+            try {
+                OutputStream outputStream = new FileOutputStream(outFile);
+                try {
+                    getTemplates()
+                            .newTransformer()
+                            .transform(new StreamSource(inputStream), new StreamResult(outputStream));
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (TransformerException te) {
+            throw new ConversionException("Conversion error for " + inputFile, te);
+        } catch (IOException ioe) {
+            throw new ConversionException("Conversion error for " + inputFile, ioe);
+        }
     }
 
     @Override
     public boolean validateInputFile(File inputXMLFile) throws ValidationException {
-        if (this.getXsdContent() == null) {
+        Schema schema = getSchema();
+        if (schema == null) {
             return true;
         }
-        setInputValidationErrors(new ValidationService().processValidation(new StreamSource(new StringReader(String.valueOf(getXsdContent()))), inputXMLFile));
+        setInputValidationErrors(SchemaCache.getInstance().validate(schema, inputXMLFile));
         return getInputValidationErrors().size() == 0;
     }
 
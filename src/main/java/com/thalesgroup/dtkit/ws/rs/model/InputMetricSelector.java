@@ -2,6 +2,8 @@ package com.thalesgroup.dtkit.ws.rs.model;
 
 import com.thalesgroup.dtkit.metrics.model.OutputMetric;
 
+import java.util.Locale;
+
 public class InputMetricSelector {
 
     private String toolName;
@@ -12,13 +14,10 @@ public class InputMetricSelector {
 
     private String outputFormat;
 
+    private String key;
+
     public InputMetricSelector(String toolName, String toolVersion, String tooType, OutputMetric outputFormat) {
-        this.toolName = toolName;
-        this.toolVersion = toolVersion;
-        this.tooType = tooType;
-        if (outputFormat != null) {
-            this.outputFormat = outputFormat.getKey();
-        }
+        this(toolName, toolVersion, tooType, outputFormat == null ? null : outputFormat.getKey());
     }
 
     public InputMetricSelector(String toolName, String toolVersion, String tooType, String outputFormat) {
@@ -26,6 +25,23 @@ public class InputMetricSelector {
         this.toolVersion = toolVersion;
         this.tooType = tooType;
         this.outputFormat = outputFormat;
+        StringBuilder sb = new StringBuilder();
+        appendCriterion(sb, toolName);
+        appendCriterion(sb, toolVersion);
+        appendCriterion(sb, tooType);
+        appendCriterion(sb, outputFormat);
+        this.key = sb.toString();
+    }
+
+    //Each criterion is prefixed by its length so that no value can be mistaken for another criterion or for a missing one
+    private static void appendCriterion(StringBuilder sb, String criterion) {
+        if (criterion == null) {
+            sb.append('-');
+        } else {
+            //The length of the normalized value, lower casing may change the length of some characters
+            String normalized = normalize(criterion);
+            sb.append(normalized.length()).append(':').append(normalized);
+        }
     }
 
     public String getToolName() {
@@ -48,6 +64,35 @@ public class InputMetricSelector {
         return toolName == null && toolVersion == null && tooType == null && outputFormat == null;
     }
 
+    public boolean isAllCriteria() {
+        return toolName != null && toolVersion != null && tooType != null && outputFormat != null;
+    }
+
+    public static String normalize(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ENGLISH);
+    }
+
+    //Canonical form of the selector, the criteria are compared without case
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InputMetricSelector)) {
+            return false;
+        }
+        return key.equals(((InputMetricSelector) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
     @Override
     public String toString() {
         return "{" + toolName + "," + toolVersion + "," + tooType + "," + outputFormat + "}";
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.AbstractSubResourceMethod;
+import com.sun.jersey.spi.container.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Measures every resource method, its endpoint is its HTTP method and its path template
+public class MonitoringFilterFactory implements ResourceFilterFactory {
+
+    public static final String SLOW_REQUEST_THRESHOLD = "monitoring.slowRequestThreshold";
+
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    private static final String TRACE_PARENT = "traceparent";
+
+    //A logger of its own, so that the slow requests can be sent to a dedicated appender
+    private static final Logger SLOW_REQUEST_LOGGER = LoggerFactory.getLogger("com.thalesgroup.dtkit.ws.rs.SlowRequests");
+
+    private final MonitoringRegistry monitoringRegistry;
+
+    private final long slowRequestThresholdNanos;
+
+    private final TraceExporter traceExporter;
+
+    //A negative threshold disables the slow request log
+    @Inject
+    public MonitoringFilterFactory(MonitoringRegistry monitoringRegistry, @Named(SLOW_REQUEST_THRESHOLD) long slowRequestThreshold, TraceExporter traceExporter) {
+        this.monitoringRegistry = monitoringRegistry;
+        this.slowRequestThresholdNanos = slowRequestThreshold < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowRequestThreshold);
+        this.traceExporter = traceExporter;
+    }
+
+    public List<ResourceFilter> create(AbstractMethod abstractMethod) {
+        if (!(abstractMethod instanceof AbstractResourceMethod)) {
+            return null;
+        }
+        return Collections.<ResourceFilter>singletonList(new MonitoringFilter(getEndpoint((AbstractResourceMethod) abstractMethod)));
+    }
+
+    static String getEndpoint(AbstractResourceMethod resourceMethod) {
+        StringBuilder sb = new StringBuilder(resourceMethod.getHttpMethod()).append(' ');
+        if (resourceMethod.getResource().getPath() != null) {
+            sb.append(resourceMethod.getResource().getPath().getValue());
+        }
+        if (resourceMethod instanceof AbstractSubResourceMethod) {
+            String path = ((AbstractSubResourceMethod) resourceMethod).getPath().getValue();
+            if (!path.startsWith("/")) {
+                sb.append('/');
+            }
+            sb.append(path);
+        }
+        return sb.toString();
+    }
+
+    private class MonitoringFilter implements ResourceFilter, ContainerRequestFilter, ContainerResponseFilter {
+
+        private final String endpoint;
+
+        private MonitoringFilter(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public ContainerRequestFilter getRequestFilter() {
+            return this;
+        }
+
+        public ContainerResponseFilter getResponseFilter() {
+            return this;
+        }
+
+        public ContainerRequest filter(ContainerRequest request) {
+            RequestSample sample = RequestSample.start(endpoint);
+            sample.setTraceParent(request.getHeaderValue(TRACE_PARENT));
+            request.setEntityInputStream(new CountingInputStream(request.getEntityInputStream(), sample));
+            return request;
+        }
+
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            RequestSample sample = RequestSample.current();
+            if (sample != null) {
+                sample.setStatus(response.getStatus());
+                response.setContainerResponseWriter(new RecordingResponseWriter(response.getContainerResponseWriter(), sample));
+            }
+            return response;
+        }
+    }
+
+    //The request is recorded once its entity is written, the streamed ones included.
+    //The phases which ended before the response is committed are sent in the Server-Timing header.
+    private class RecordingResponseWriter implements ContainerResponseWriter {
+
+        private final ContainerResponseWriter containerResponseWriter;
+
+        private final RequestSample sample;
+
+        private RequestSample.Span serializeSpan;
+
+        private RecordingResponseWriter(ContainerResponseWriter containerResponseWriter, RequestSample sample) {
+            this.containerResponseWriter = containerResponseWriter;
+            this.sample = sample;
+        }
+
+        public OutputStream writeStatusAndHeaders(long contentLength, ContainerResponse response) throws IOException {
+            response.getHttpHeaders().putSingle(SERVER_TIMING, sample.getServerTiming(System.nanoTime()));
+            serializeSpan = RequestSample.startSpan("serialize");
+            return new CountingOutputStream(containerResponseWriter.writeStatusAndHeaders(contentLength, response), sample);
+        }
+
+        public void finish() throws IOException {
+            try {
+                containerResponseWriter.finish();
+            } finally {
+                if (serializeSpan != null) {
+                    serializeSpan.end();
+                }
+                RequestSample.clear();
+                sample.end(System.nanoTime());
+                monitoringRegistry.getRequestStats(sample.getEndpoint(), sample.getSelector())
+                        .record(sample.getDurationNanos(), sample.getStatus() >= 500, sample.getBytesIn(), sample.getBytesOut());
+                if (slowRequestThresholdNanos >= 0 && sample.getDurationNanos() >= slowRequestThresholdNanos) {
+                    logSlowRequest(sample);
+                }
+                traceExporter.export(sample);
+            }
+        }
+    }
+
+    private static void logSlowRequest(RequestSample sample) {
+        StringBuilder sb = new StringBuilder("slow request endpoint=\"").append(sample.getEndpoint()).append('"');
+        if (sample.getSelector() != null) {
+            sb.append(" name=").append(sample.getSelector().getToolName())
+                    .append(" version=").append(sample.getSelector().getToolVersion())
+                    .append(" type=").append(sample.getSelector().getTooType())
+                    .append(" format=").append(sample.getSelector().getOutputFormat());
+        }
+        sb.append(" status=").append(sample.getStatus())
+                .append(" durationMs=").append(TimeUnit.NANOSECONDS.toMillis(sample.getDurationNanos()))
+                .append(" bytesIn=").append(sample.getBytesIn())
+                .append(" bytesOut=").append(sample.getBytesOut());
+        for (RequestSample.Span span : sample.getSpans()) {
+            if (span.isEnded()) {
+                sb.append(' ').append(span.getName()).append("Ms=").append(TimeUnit.NANOSECONDS.toMillis(span.getDurationNanos()));
+            }
+        }
+        SLOW_REQUEST_LOGGER.warn(sb.toString());
+    }
+
+    private static class CountingInputStream extends InputStream {
+
+        private final InputStream inputStream;
+
+        private final RequestSample sample;
+
+        private CountingInputStream(InputStream inputStream, RequestSample sample) {
+            this.inputStream = inputStream;
+            this.sample = sample;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = inputStream.read();
+            if (b != -1) {
+                sample.addBytesIn(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int wasRead = inputStream.read(b, off, len);
+            if (wasRead > 0) {
+                sample.addBytesIn(wasRead);
+            }
+            return wasRead;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return inputStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        private final RequestSample sample;
+
+        private CountingOutputStream(OutputStream outputStream, RequestSample sample) {
+            this.outputStream = outputStream;
+            this.sample = sample;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+            sample.addBytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+            sample.addBytesOut(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.close();
+        }
+    }
+}
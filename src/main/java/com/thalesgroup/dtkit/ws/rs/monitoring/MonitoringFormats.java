@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.dao.Bulkhead;
+import com.thalesgroup.dtkit.ws.rs.dao.CircuitBreaker;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+
+//Writes the statistics of a registry in the Prometheus text format or in JSON
+public final class MonitoringFormats {
+
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private MonitoringFormats() {
+    }
+
+    public static void writePrometheus(MonitoringRegistry monitoringRegistry, Writer writer) throws IOException {
+        Map<MonitoringRegistry.RequestSeries, OperationStats> requestStats = monitoringRegistry.getRequestStats();
+        writeHeader(writer, "dtkit_http_requests_total", "counter", "Requests by endpoint and metric selector.");
+        for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : requestStats.entrySet()) {
+            writeSample(writer, "dtkit_http_requests_total", getLabels(entry.getKey()), entry.getValue().getCount());
+        }
+        writeHeader(writer, "dtkit_http_request_errors_total", "counter", "Requests answered with a server error.");
+        for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : requestStats.entrySet()) {
+            writeSample(writer, "dtkit_http_request_errors_total", getLabels(entry.getKey()), entry.getValue().getErrors());
+        }
+        writeHeader(writer, "dtkit_http_request_bytes_total", "counter", "Bytes read from the request entities.");
+        for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : requestStats.entrySet()) {
+            writeSample(writer, "dtkit_http_request_bytes_total", getLabels(entry.getKey()), entry.getValue().getBytesIn());
+        }
+        writeHeader(writer, "dtkit_http_response_bytes_total", "counter", "Bytes written to the response entities.");
+        for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : requestStats.entrySet()) {
+            writeSample(writer, "dtkit_http_response_bytes_total", getLabels(entry.getKey()), entry.getValue().getBytesOut());
+        }
+        writeHeader(writer, "dtkit_http_request_duration_seconds", "histogram", "Request latency until the response is written.");
+        for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : requestStats.entrySet()) {
+            writeHistogram(writer, "dtkit_http_request_duration_seconds", getLabels(entry.getKey()), entry.getValue());
+        }
+
+        Map<MonitoringRegistry.StoreSeries, OperationStats> storeStats = monitoringRegistry.getStoreStats();
+        writeHeader(writer, "dtkit_store_operations_total", "counter", "Store operations by store and operation.");
+        for (Map.Entry<MonitoringRegistry.StoreSeries, OperationStats> entry : storeStats.entrySet()) {
+            writeSample(writer, "dtkit_store_operations_total", getLabels(entry.getKey()), entry.getValue().getCount());
+        }
+        writeHeader(writer, "dtkit_store_operation_errors_total", "counter", "Store operations which failed.");
+        for (Map.Entry<MonitoringRegistry.StoreSeries, OperationStats> entry : storeStats.entrySet()) {
+            writeSample(writer, "dtkit_store_operation_errors_total", getLabels(entry.getKey()), entry.getValue().getErrors());
+        }
+        writeHeader(writer, "dtkit_store_operation_duration_seconds", "histogram", "Store operation latency.");
+        for (Map.Entry<MonitoringRegistry.StoreSeries, OperationStats> entry : storeStats.entrySet()) {
+            writeHistogram(writer, "dtkit_store_operation_duration_seconds", getLabels(entry.getKey()), entry.getValue());
+        }
+
+        Map<String, CircuitBreaker> circuitBreakers = monitoringRegistry.getCircuitBreakers();
+        writeHeader(writer, "dtkit_store_circuit_state", "gauge", "State of the store circuit breakers: 0 closed, 1 open, 2 half open.");
+        for (Map.Entry<String, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            writeSample(writer, "dtkit_store_circuit_state", getStoreLabel(entry.getKey()), entry.getValue().getState().ordinal());
+        }
+        writeHeader(writer, "dtkit_store_circuit_opened_total", "counter", "Times the store circuit breakers opened.");
+        for (Map.Entry<String, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            writeSample(writer, "dtkit_store_circuit_opened_total", getStoreLabel(entry.getKey()), entry.getValue().getOpenedCount());
+        }
+        writeHeader(writer, "dtkit_store_circuit_rejected_total", "counter", "Store calls refused by the circuit breakers.");
+        for (Map.Entry<String, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            writeSample(writer, "dtkit_store_circuit_rejected_total", getStoreLabel(entry.getKey()), entry.getValue().getRejectedCount());
+        }
+
+        Map<String, Bulkhead> bulkheads = monitoringRegistry.getBulkheads();
+        writeHeader(writer, "dtkit_store_bulkhead_in_use", "gauge", "Concurrent store calls.");
+        for (Map.Entry<String, Bulkhead> entry : bulkheads.entrySet()) {
+            writeSample(writer, "dtkit_store_bulkhead_in_use", getStoreLabel(entry.getKey()), entry.getValue().getInUse());
+        }
+        writeHeader(writer, "dtkit_store_bulkhead_limit", "gauge", "Maximum concurrent store calls.");
+        for (Map.Entry<String, Bulkhead> entry : bulkheads.entrySet()) {
+            writeSample(writer, "dtkit_store_bulkhead_limit", getStoreLabel(entry.getKey()), entry.getValue().getLimit());
+        }
+        writeHeader(writer, "dtkit_store_bulkhead_rejected_total", "counter", "Store calls refused by the bulkheads.");
+        for (Map.Entry<String, Bulkhead> entry : bulkheads.entrySet()) {
+            writeSample(writer, "dtkit_store_bulkhead_rejected_total", getStoreLabel(entry.getKey()), entry.getValue().getRejectedCount());
+        }
+
+        ScratchSpace scratchSpace = monitoringRegistry.getScratchSpace();
+        if (scratchSpace != null) {
+            writeHeader(writer, "dtkit_scratch_quota_bytes", "gauge", "Disk quota of the request files.");
+            writeSample(writer, "dtkit_scratch_quota_bytes", "", scratchSpace.getQuota());
+            writeHeader(writer, "dtkit_scratch_reserved_bytes", "gauge", "Disk space reserved by the requests in progress.");
+            writeSample(writer, "dtkit_scratch_reserved_bytes", "", scratchSpace.getReserved());
+            writeHeader(writer, "dtkit_scratch_files", "gauge", "Request files not deleted yet.");
+            writeSample(writer, "dtkit_scratch_files", "", scratchSpace.getFileCount());
+            writeHeader(writer, "dtkit_scratch_waits_total", "counter", "Requests which waited for disk space.");
+            writeSample(writer, "dtkit_scratch_waits_total", "", scratchSpace.getWaitCount());
+            writeHeader(writer, "dtkit_scratch_rejected_total", "counter", "Requests refused for lack of disk space.");
+            writeSample(writer, "dtkit_scratch_rejected_total", "", scratchSpace.getRejectedCount());
+            writeHeader(writer, "dtkit_scratch_deleted_bytes_total", "counter", "Bytes of the request files deleted.");
+            writeSample(writer, "dtkit_scratch_deleted_bytes_total", "", scratchSpace.getDeletedBytes());
+        }
+        writer.flush();
+    }
+
+    private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, Object value) throws IOException {
+        writer.write(name + "{" + labels + "} " + value + "\n");
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, OperationStats stats) throws IOException {
+        long[] buckets = stats.getLatency().getBuckets();
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+            cumulative += buckets[i];
+            writeSample(writer, name + "_bucket", labels + ",le=\"" + LatencyHistogram.BOUNDS[i] + "\"", cumulative);
+        }
+        cumulative += buckets[LatencyHistogram.BOUNDS.length];
+        writeSample(writer, name + "_bucket", labels + ",le=\"+Inf\"", cumulative);
+        writeSample(writer, name + "_sum", labels, stats.getLatency().getSumSeconds());
+        //The count of the buckets, the request counter can be ahead of them while they are updated
+        writeSample(writer, name + "_count", labels, cumulative);
+    }
+
+    private static String getLabels(MonitoringRegistry.RequestSeries series) {
+        InputMetricSelector selector = series.getSelector();
+        return "endpoint=\"" + escape(series.getEndpoint())
+                + "\",name=\"" + escape(selector.getToolName())
+                + "\",version=\"" + escape(selector.getToolVersion())
+                + "\",type=\"" + escape(selector.getTooType())
+                + "\",format=\"" + escape(selector.getOutputFormat()) + "\"";
+    }
+
+    private static String getLabels(MonitoringRegistry.StoreSeries series) {
+        return "store=\"" + escape(series.getStore()) + "\",operation=\"" + escape(series.getOperation()) + "\"";
+    }
+
+    private static String getStoreLabel(String store) {
+        return "store=\"" + escape(store) + "\"";
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static void writeJSON(MonitoringRegistry monitoringRegistry, OutputStream outputStream) throws IOException {
+        JsonGenerator jsonGenerator = JSON_FACTORY.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+        try {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeArrayFieldStart("requests");
+            for (Map.Entry<MonitoringRegistry.RequestSeries, OperationStats> entry : monitoringRegistry.getRequestStats().entrySet()) {
+                InputMetricSelector selector = entry.getKey().getSelector();
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("endpoint", entry.getKey().getEndpoint());
+                jsonGenerator.writeStringField("name", selector.getToolName());
+                jsonGenerator.writeStringField("version", selector.getToolVersion());
+                jsonGenerator.writeStringField("type", selector.getTooType());
+                jsonGenerator.writeStringField("format", selector.getOutputFormat());
+                writeJSONStats(jsonGenerator, entry.getValue());
+                jsonGenerator.writeNumberField("bytesIn", entry.getValue().getBytesIn());
+                jsonGenerator.writeNumberField("bytesOut", entry.getValue().getBytesOut());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeArrayFieldStart("stores");
+            for (Map.Entry<MonitoringRegistry.StoreSeries, OperationStats> entry : monitoringRegistry.getStoreStats().entrySet()) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("store", entry.getKey().getStore());
+                jsonGenerator.writeStringField("operation", entry.getKey().getOperation());
+                writeJSONStats(jsonGenerator, entry.getValue());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeArrayFieldStart("circuitBreakers");
+            for (Map.Entry<String, CircuitBreaker> entry : monitoringRegistry.getCircuitBreakers().entrySet()) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("store", entry.getKey());
+                jsonGenerator.writeStringField("state", entry.getValue().getState().name());
+                jsonGenerator.writeNumberField("opened", entry.getValue().getOpenedCount());
+                jsonGenerator.writeNumberField("rejected", entry.getValue().getRejectedCount());
+                jsonGenerator.writeNumberField("retryAfterMillis", entry.getValue().getRetryAfterMillis());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeArrayFieldStart("bulkheads");
+            for (Map.Entry<String, Bulkhead> entry : monitoringRegistry.getBulkheads().entrySet()) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeStringField("store", entry.getKey());
+                jsonGenerator.writeNumberField("inUse", entry.getValue().getInUse());
+                jsonGenerator.writeNumberField("limit", entry.getValue().getLimit());
+                jsonGenerator.writeNumberField("rejected", entry.getValue().getRejectedCount());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            ScratchSpace scratchSpace = monitoringRegistry.getScratchSpace();
+            if (scratchSpace != null) {
+                jsonGenerator.writeObjectFieldStart("scratchSpace");
+                jsonGenerator.writeNumberField("quota", scratchSpace.getQuota());
+                jsonGenerator.writeNumberField("reserved", scratchSpace.getReserved());
+                jsonGenerator.writeNumberField("files", scratchSpace.getFileCount());
+                jsonGenerator.writeNumberField("waits", scratchSpace.getWaitCount());
+                jsonGenerator.writeNumberField("rejected", scratchSpace.getRejectedCount());
+                jsonGenerator.writeNumberField("deletedBytes", scratchSpace.getDeletedBytes());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndObject();
+        } finally {
+            jsonGenerator.close();
+        }
+    }
+
+    private static void writeJSONStats(JsonGenerator jsonGenerator, OperationStats stats) throws IOException {
+        jsonGenerator.writeNumberField("count", stats.getCount());
+        jsonGenerator.writeNumberField("errors", stats.getErrors());
+        jsonGenerator.writeNumberField("latencySumSeconds", stats.getLatency().getSumSeconds());
+        jsonGenerator.writeArrayFieldStart("latencyBuckets");
+        long[] buckets = stats.getLatency().getBuckets();
+        for (int i = 0; i < buckets.length; i++) {
+            jsonGenerator.writeStartObject();
+            if (i < LatencyHistogram.BOUNDS.length) {
+                jsonGenerator.writeNumberField("le", LatencyHistogram.BOUNDS[i]);
+            } else {
+                jsonGenerator.writeStringField("le", "+Inf");
+            }
+            jsonGenerator.writeNumberField("count", buckets[i]);
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndArray();
+    }
+}
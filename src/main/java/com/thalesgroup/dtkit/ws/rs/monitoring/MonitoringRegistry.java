@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.dao.Bulkhead;
+import com.thalesgroup.dtkit.ws.rs.dao.CircuitBreaker;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//The statistics of the requests by endpoint and metric selector, of the store operations and of the store guards
+public class MonitoringRegistry {
+
+    //The selectors come from the clients, the series beyond this count are merged
+    public static final int MAX_SERIES = 1000;
+
+    public static final InputMetricSelector NO_SELECTOR = new InputMetricSelector(null, null, null, (String) null);
+
+    private static final InputMetricSelector OTHER_SELECTOR = new InputMetricSelector("other", "other", "other", "other");
+
+    private final ConcurrentMap<RequestSeries, OperationStats> requestStats = new ConcurrentHashMap<RequestSeries, OperationStats>();
+
+    private final ConcurrentMap<StoreSeries, OperationStats> storeStats = new ConcurrentHashMap<StoreSeries, OperationStats>();
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+    private volatile ScratchSpace scratchSpace;
+
+    public OperationStats getRequestStats(String endpoint, InputMetricSelector selector) {
+        RequestSeries series = new RequestSeries(endpoint, selector == null ? NO_SELECTOR : selector);
+        OperationStats stats = requestStats.get(series);
+        if (stats == null) {
+            if (requestStats.size() >= MAX_SERIES) {
+                series = new RequestSeries(endpoint, OTHER_SELECTOR);
+            }
+            stats = getOrCreate(requestStats, series);
+        }
+        return stats;
+    }
+
+    public OperationStats getStoreStats(String store, String operation) {
+        StoreSeries series = new StoreSeries(store, operation);
+        OperationStats stats = storeStats.get(series);
+        if (stats == null) {
+            stats = getOrCreate(storeStats, series);
+        }
+        return stats;
+    }
+
+    private static <K> OperationStats getOrCreate(ConcurrentMap<K, OperationStats> statsMap, K series) {
+        OperationStats stats = new OperationStats();
+        OperationStats previous = statsMap.putIfAbsent(series, stats);
+        return previous == null ? stats : previous;
+    }
+
+    public void register(String store, CircuitBreaker circuitBreaker) {
+        circuitBreakers.put(store, circuitBreaker);
+    }
+
+    public void register(String store, Bulkhead bulkhead) {
+        bulkheads.put(store, bulkhead);
+    }
+
+    public void register(ScratchSpace scratchSpace) {
+        this.scratchSpace = scratchSpace;
+    }
+
+    public Map<RequestSeries, OperationStats> getRequestStats() {
+        return requestStats;
+    }
+
+    public Map<StoreSeries, OperationStats> getStoreStats() {
+        return storeStats;
+    }
+
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public Map<String, Bulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    //Null until the scratch space is created
+    public ScratchSpace getScratchSpace() {
+        return scratchSpace;
+    }
+
+    public static final class RequestSeries {
+
+        private final String endpoint;
+
+        private final InputMetricSelector selector;
+
+        private final int hashCode;
+
+        private RequestSeries(String endpoint, InputMetricSelector selector) {
+            this.endpoint = endpoint;
+            this.selector = selector;
+            this.hashCode = 31 * endpoint.hashCode() + selector.hashCode();
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public InputMetricSelector getSelector() {
+            return selector;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RequestSeries)) {
+                return false;
+            }
+            RequestSeries that = (RequestSeries) o;
+            return endpoint.equals(that.endpoint) && selector.equals(that.selector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public static final class StoreSeries {
+
+        private final String store;
+
+        private final String operation;
+
+        private StoreSeries(String store, String operation) {
+            this.store = store;
+            this.operation = operation;
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StoreSeries)) {
+                return false;
+            }
+            StoreSeries that = (StoreSeries) o;
+            return store.equals(that.store) && operation.equals(that.operation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * store.hashCode() + operation.hashCode();
+        }
+    }
+}
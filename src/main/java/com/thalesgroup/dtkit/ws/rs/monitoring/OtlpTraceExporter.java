@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Sends the requests and their phases as spans to an OpenTelemetry collector, with the OTLP/HTTP JSON encoding.
+//The requests are queued and posted in batches by a daemon thread, they are dropped when the collector lags.
+public class OtlpTraceExporter implements TraceExporter, Runnable {
+
+    private static final int QUEUE_SIZE = 4096;
+
+    private static final int BATCH_SIZE = 512;
+
+    private static final int TIMEOUT = 5000;
+
+    private static final int SPAN_KIND_INTERNAL = 1;
+
+    private static final int SPAN_KIND_SERVER = 2;
+
+    private static final int STATUS_CODE_ERROR = 2;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final URL endpoint;
+
+    private final String serviceName;
+
+    private final BlockingQueue<RequestSample> queue = new ArrayBlockingQueue<RequestSample>(QUEUE_SIZE);
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Random random = new Random();
+
+    private final Thread thread;
+
+    public OtlpTraceExporter(String endpoint, String serviceName) throws MalformedURLException {
+        this.endpoint = new URL(endpoint);
+        this.serviceName = serviceName;
+        thread = new Thread(this, "dtkit-otlp-exporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //The queued traces are dropped
+    public void close() {
+        thread.interrupt();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void export(RequestSample sample) {
+        if (!queue.offer(sample)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public void run() {
+        List<RequestSample> batch = new ArrayList<RequestSample>(BATCH_SIZE);
+        boolean collectorDown = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                post(batch);
+                if (collectorDown) {
+                    logger.info("The OpenTelemetry collector " + endpoint + " is reachable again.");
+                    collectorDown = false;
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ioe) {
+                //Logged once until the collector answers again
+                if (!collectorDown) {
+                    logger.warn("The traces can't be sent to " + endpoint + ", they are dropped until it answers.", ioe);
+                    collectorDown = true;
+                }
+            } catch (RuntimeException re) {
+                logger.error("The traces can't be exported.", re);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void post(List<RequestSample> batch) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        OutputStream outputStream = connection.getOutputStream();
+        try {
+            writeTraces(batch, outputStream);
+        } finally {
+            outputStream.close();
+        }
+        int status = connection.getResponseCode();
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (inputStream != null) {
+            //Reads the answer so that the connection is kept alive
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) {
+            }
+            inputStream.close();
+        }
+        if (status >= 300) {
+            throw new IOException("The collector answered " + status);
+        }
+    }
+
+    void writeTraces(List<RequestSample> batch, OutputStream outputStream) throws IOException {
+        JsonGenerator jsonGenerator = JSON_FACTORY.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeArrayFieldStart("resourceSpans");
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeObjectFieldStart("resource");
+        jsonGenerator.writeArrayFieldStart("attributes");
+        writeAttribute(jsonGenerator, "service.name", serviceName);
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeArrayFieldStart("scopeSpans");
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeObjectFieldStart("scope");
+        jsonGenerator.writeStringField("name", "dtkit-rs");
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeArrayFieldStart("spans");
+        for (RequestSample sample : batch) {
+            writeSpans(jsonGenerator, sample);
+        }
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.close();
+    }
+
+    //Returns the trace id and the parent span id of a W3C traceparent, version-traceId-parentId-flags,
+    //null when it is malformed so that nothing the client sends is copied into the export
+    static String[] parseTraceParent(String traceParent) {
+        if (traceParent == null) {
+            return null;
+        }
+        String[] fields = traceParent.trim().split("-", -1);
+        if (fields.length < 4 || !isHex(fields[0], 2) || "ff".equals(fields[0])
+                || !isHex(fields[1], 32) || !isHex(fields[2], 16) || !isHex(fields[3], 2)) {
+            return null;
+        }
+        //Only a later version may have more fields
+        if ("00".equals(fields[0]) && fields.length != 4) {
+            return null;
+        }
+        if (fields[1].matches("0+") || fields[2].matches("0+")) {
+            return null;
+        }
+        return new String[]{fields[1], fields[2]};
+    }
+
+    private static boolean isHex(String field, int length) {
+        if (field.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeSpans(JsonGenerator jsonGenerator, RequestSample sample) throws IOException {
+        //A caller's trace context is continued
+        String traceId;
+        String parentSpanId = null;
+        String[] traceContext = parseTraceParent(sample.getTraceParent());
+        if (traceContext != null) {
+            traceId = traceContext[0];
+            parentSpanId = traceContext[1];
+        } else {
+            traceId = newId(16);
+        }
+        String requestSpanId = newId(8);
+        long startEpochNanos = TimeUnit.MILLISECONDS.toNanos(sample.getStartMillis());
+
+        jsonGenerator.writeStartObject();
+        writeIds(jsonGenerator, traceId, requestSpanId, parentSpanId);
+        jsonGenerator.writeStringField("name", sample.getEndpoint());
+        jsonGenerator.writeNumberField("kind", SPAN_KIND_SERVER);
+        jsonGenerator.writeStringField("startTimeUnixNano", String.valueOf(startEpochNanos));
+        jsonGenerator.writeStringField("endTimeUnixNano", String.valueOf(startEpochNanos + Math.max(0, sample.getDurationNanos())));
+        jsonGenerator.writeArrayFieldStart("attributes");
+        writeAttribute(jsonGenerator, "http.status_code", sample.getStatus());
+        writeAttribute(jsonGenerator, "http.request_content_length", sample.getBytesIn());
+        writeAttribute(jsonGenerator, "http.response_content_length", sample.getBytesOut());
+        InputMetricSelector selector = sample.getSelector();
+        if (selector != null) {
+            writeAttribute(jsonGenerator, "dtkit.metric.name", selector.getToolName());
+            writeAttribute(jsonGenerator, "dtkit.metric.version", selector.getToolVersion());
+            writeAttribute(jsonGenerator, "dtkit.metric.type", selector.getTooType());
+            writeAttribute(jsonGenerator, "dtkit.metric.format", selector.getOutputFormat());
+        }
+        jsonGenerator.writeEndArray();
+        if (sample.getStatus() >= 500) {
+            jsonGenerator.writeObjectFieldStart("status");
+            jsonGenerator.writeNumberField("code", STATUS_CODE_ERROR);
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndObject();
+
+        for (RequestSample.Span span : sample.getSpans()) {
+            if (!span.isEnded()) {
+                continue;
+            }
+            long spanStartEpochNanos = startEpochNanos + (span.getStartNanos() - sample.getStartNanos());
+            jsonGenerator.writeStartObject();
+            writeIds(jsonGenerator, traceId, newId(8), requestSpanId);
+            jsonGenerator.writeStringField("name", span.getName());
+            jsonGenerator.writeNumberField("kind", SPAN_KIND_INTERNAL);
+            jsonGenerator.writeStringField("startTimeUnixNano", String.valueOf(spanStartEpochNanos));
+            jsonGenerator.writeStringField("endTimeUnixNano", String.valueOf(spanStartEpochNanos + span.getDurationNanos()));
+            jsonGenerator.writeEndObject();
+        }
+    }
+
+    private static void writeIds(JsonGenerator jsonGenerator, String traceId, String spanId, String parentSpanId) throws IOException {
+        jsonGenerator.writeStringField("traceId", traceId);
+        jsonGenerator.writeStringField("spanId", spanId);
+        if (parentSpanId != null) {
+            jsonGenerator.writeStringField("parentSpanId", parentSpanId);
+        }
+    }
+
+    private static void writeAttribute(JsonGenerator jsonGenerator, String key, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("key", key);
+        jsonGenerator.writeObjectFieldStart("value");
+        jsonGenerator.writeStringField("stringValue", value);
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeEndObject();
+    }
+
+    private static void writeAttribute(JsonGenerator jsonGenerator, String key, long value) throws IOException {
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("key", key);
+        jsonGenerator.writeObjectFieldStart("value");
+        //64 bits integers are strings in the JSON encoding
+        jsonGenerator.writeStringField("intValue", String.valueOf(value));
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeEndObject();
+    }
+
+    private String newId(int byteCount) {
+        byte[] bytes = new byte[byteCount];
+        random.nextBytes(bytes);
+        char[] chars = new char[byteCount * 2];
+        for (int i = 0; i < byteCount; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[2 * i + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
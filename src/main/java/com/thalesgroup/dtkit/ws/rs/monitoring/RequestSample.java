@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+//The measures of the request processed by the current thread
+public class RequestSample {
+
+    private static final ThreadLocal<RequestSample> CURRENT = new ThreadLocal<RequestSample>();
+
+    private final String endpoint;
+
+    private final long startNanos;
+
+    private final long startMillis;
+
+    private final List<Span> spans = new ArrayList<Span>(6);
+
+    private long durationNanos = -1;
+
+    private String traceParent;
+
+    private InputMetricSelector selector;
+
+    private int status;
+
+    private long bytesIn;
+
+    private long bytesOut;
+
+    private RequestSample(String endpoint) {
+        this.endpoint = endpoint;
+        this.startNanos = System.nanoTime();
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    static RequestSample start(String endpoint) {
+        RequestSample sample = new RequestSample(endpoint);
+        CURRENT.set(sample);
+        return sample;
+    }
+
+    static RequestSample current() {
+        return CURRENT.get();
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    //The first selector of a request tags it, called wherever the metrics are looked up
+    public static void tagSelector(InputMetricSelector selector) {
+        RequestSample sample = CURRENT.get();
+        if (sample != null && sample.selector == null) {
+            sample.selector = selector;
+        }
+    }
+
+    //Times a phase of the current request, the span is not recorded outside of a request
+    public static Span startSpan(String name) {
+        RequestSample sample = CURRENT.get();
+        if (sample == null) {
+            return Span.NONE;
+        }
+        Span span = new Span(name, System.nanoTime());
+        sample.spans.add(span);
+        return span;
+    }
+
+    //Records a phase which started with the request, such as the reading of its entity
+    public static void spanFromStart(String name) {
+        RequestSample sample = CURRENT.get();
+        if (sample != null) {
+            Span span = new Span(name, sample.startNanos);
+            span.end();
+            sample.spans.add(span);
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    //-1 until the response is written
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    void end(long endNanos) {
+        durationNanos = endNanos - startNanos;
+    }
+
+    //The W3C trace context of the caller, null when there is none
+    public String getTraceParent() {
+        return traceParent;
+    }
+
+    void setTraceParent(String traceParent) {
+        this.traceParent = traceParent;
+    }
+
+    //The ended spans and the time until now, for the Server-Timing header
+    String getServerTiming(long nowNanos) {
+        StringBuilder sb = new StringBuilder();
+        for (Span span : spans) {
+            if (span.isEnded()) {
+                appendTiming(sb, span.getName(), span.getDurationNanos()).append(", ");
+            }
+        }
+        return appendTiming(sb, "total", nowNanos - startNanos).toString();
+    }
+
+    private static StringBuilder appendTiming(StringBuilder sb, String name, long nanos) {
+        return sb.append(name).append(";dur=").append(String.format(Locale.ENGLISH, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    public InputMetricSelector getSelector() {
+        return selector;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    void setStatus(int status) {
+        this.status = status;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    void addBytesIn(long count) {
+        bytesIn += count;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    void addBytesOut(long count) {
+        bytesOut += count;
+    }
+
+    public static final class Span {
+
+        private static final Span NONE = new Span("none", 0);
+
+        private final String name;
+
+        private final long startNanos;
+
+        private long endNanos = -1;
+
+        private Span(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        public void end() {
+            if (endNanos < 0 && this != NONE) {
+                endNanos = System.nanoTime();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public boolean isEnded() {
+            return endNanos >= 0;
+        }
+
+        public long getDurationNanos() {
+            return endNanos - startNanos;
+        }
+    }
+}
@@ -23,9 +23,17 @@
 
 package com.thalesgroup.dtkit.ws.rs.providers;
 
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricResult;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsStream;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
@@ -40,12 +48,43 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.Iterator;
 
 @Provider
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class InputMetricJSONProvider implements MessageBodyWriter, MessageBodyReader<InputMetricsResult> {
 
+    //The mappers are configured once, their serializer caches are kept between the responses
+    private static final ObjectMapper OBJECT_MAPPER = newObjectMapper();
+
+    private static final ObjectMapper TYPED_OBJECT_MAPPER = newObjectMapper().enableDefaultTyping();
+
+    private static final ObjectWriter WRITER = OBJECT_MAPPER.writer();
+
+    private static final ObjectWriter TYPED_WRITER = TYPED_OBJECT_MAPPER.writer();
+
+    private static final ObjectReader METRIC_RESULT_READER = TYPED_OBJECT_MAPPER.reader(InputMetricResult.class);
+
+    private static final ObjectReader METRICS_RESULT_READER = TYPED_OBJECT_MAPPER.reader(InputMetricsResult.class);
+
+    private static ObjectMapper newObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        //The entity stream belongs to the container
+        objectMapper.getJsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        objectMapper.getJsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return objectMapper;
+    }
+
+    //The resources streaming their own JSON output share the configured mapper
+    public static JsonGenerator createJsonGenerator(OutputStream outputStream) throws IOException {
+        return OBJECT_MAPPER.getJsonFactory().createJsonGenerator(outputStream, JsonEncoding.UTF8);
+    }
+
+    public static ObjectWriter getWriter() {
+        return WRITER;
+    }
+
     @Override
     public long getSize(Object obj, Class type, Type genericType,
                         Annotation[] annotations, MediaType mediaType) {
@@ -66,19 +105,45 @@ public class InputMetricJSONProvider implements MessageBodyWriter, MessageBodyRe
             throws IOException {
 
         //Use Jackson to build the json output and write it in the outputStream object
-        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectWriter objectWriter = WRITER;
+        JsonFactory jsonFactory = OBJECT_MAPPER.getJsonFactory();
         Object entity = target;
 
         if (type == InputMetricResult.class) {
-            objectMapper = objectMapper.enableDefaultTyping();
+            objectWriter = TYPED_WRITER;
+            jsonFactory = TYPED_OBJECT_MAPPER.getJsonFactory();
             entity = ((InputMetricResult) target).getInputMetric();
         }
         if (type == InputMetricsResult.class) {
-            objectMapper = objectMapper.enableDefaultTyping();
+            objectWriter = TYPED_WRITER;
+            jsonFactory = TYPED_OBJECT_MAPPER.getJsonFactory();
             entity = ((InputMetricsResult) target).getMetrics();
         }
 
-        objectMapper.writeValue(outputStream, entity);
+        JsonGenerator jsonGenerator = jsonFactory.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+        try {
+            if (type == InputMetricsStream.class) {
+                writeMetrics(jsonGenerator, ((InputMetricsStream) target).getMetrics());
+            } else {
+                objectWriter.writeValue(jsonGenerator, entity);
+            }
+        } finally {
+            //Flushes the output and gives the buffers back to the factory
+            jsonGenerator.close();
+        }
+    }
+
+    //Same output as a typed list of metrics, element by element
+    private void writeMetrics(JsonGenerator jsonGenerator, Iterator<? extends InputMetric> metrics) throws IOException {
+        jsonGenerator.writeStartArray();
+        while (metrics.hasNext()) {
+            InputMetric metric = metrics.next();
+            jsonGenerator.writeStartArray();
+            jsonGenerator.writeString(metric.getClass().getName());
+            TYPED_WRITER.writeValue(jsonGenerator, metric);
+            jsonGenerator.writeEndArray();
+        }
+        jsonGenerator.writeEndArray();
     }
 
     @Override
@@ -93,7 +158,7 @@ public class InputMetricJSONProvider implements MessageBodyWriter, MessageBodyRe
                                        MediaType mediaType,
                                        MultivaluedMap<String, String> httpHeaders,
                                        InputStream entityStream) throws IOException, WebApplicationException {
-        return new ObjectMapper().enableDefaultTyping().readValue(entityStream, type);
+        ObjectReader objectReader = ((Class) type == InputMetricResult.class) ? METRIC_RESULT_READER : METRICS_RESULT_READER;
+        return objectReader.readValue(entityStream);
     }
 }
-
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.providers;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsStream;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+
+//Writes the result element by element with the JAXB context of InputMetricsResult
+@Provider
+@Produces(MediaType.APPLICATION_XML)
+public class InputMetricsStreamXMLProvider implements MessageBodyWriter<InputMetricsStream> {
+
+    private static final QName METRIC_ELEMENT = new QName("metric");
+
+    @Context
+    private Providers providers;
+
+    //Built once, a concurrent first resolution is harmless
+    private volatile JAXBContext jaxbContext;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == InputMetricsStream.class;
+    }
+
+    @Override
+    public long getSize(InputMetricsStream inputMetricsStream, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    private JAXBContext getContext() throws JAXBException {
+        JAXBContext context = jaxbContext;
+        if (context == null) {
+            ContextResolver<JAXBContext> contextResolver = providers.getContextResolver(JAXBContext.class, MediaType.APPLICATION_XML_TYPE);
+            context = contextResolver == null ? null : contextResolver.getContext(InputMetricsResult.class);
+            if (context == null) {
+                context = JAXBContext.newInstance(InputMetricsResult.class);
+            }
+            jaxbContext = context;
+        }
+        return context;
+    }
+
+    @Override
+    public void writeTo(InputMetricsStream inputMetricsStream, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream outputStream) throws IOException, WebApplicationException {
+        try {
+            Marshaller marshaller = getContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><result><metrics>");
+            Iterator<? extends InputMetric> metrics = inputMetricsStream.getMetrics();
+            while (metrics.hasNext()) {
+                marshaller.marshal(new JAXBElement<InputMetric>(METRIC_ELEMENT, InputMetric.class, metrics.next()), writer);
+            }
+            writer.write("</metrics></result>");
+            writer.flush();
+        } catch (JAXBException je) {
+            throw new WebApplicationException(je, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
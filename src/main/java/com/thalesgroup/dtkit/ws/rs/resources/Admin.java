@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.google.inject.Inject;
+import com.google.inject.servlet.RequestScoped;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringFormats;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringRegistry;
+import com.thalesgroup.dtkit.ws.rs.services.MetricsWarmUp;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+
+@Path(Admin.PATH)
+@RequestScoped
+public class Admin {
+
+    public static final String PATH = "/admin";
+
+    private MonitoringRegistry monitoringRegistry;
+
+    private MetricsWarmUp metricsWarmUp;
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void set(MonitoringRegistry monitoringRegistry, MetricsWarmUp metricsWarmUp) {
+        this.monitoringRegistry = monitoringRegistry;
+        this.metricsWarmUp = metricsWarmUp;
+    }
+
+    //Ready once the embedded metrics are warmed up
+    @GET
+    @Path("/ready")
+    @Produces(MediaType.TEXT_PLAIN)
+    @SuppressWarnings("unused")
+    public Response getReadiness() {
+        if (metricsWarmUp.isReady()) {
+            return Response.ok("ready").build();
+        }
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .entity("warming up " + metricsWarmUp.getWarmed() + "/" + metricsWarmUp.getTotal())
+                .build();
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    @SuppressWarnings("unused")
+    public Response getMetricsPrometheus() {
+        return Response.ok(new StreamingOutput() {
+            public void write(OutputStream outputStream) throws IOException {
+                Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+                MonitoringFormats.writePrometheus(monitoringRegistry, writer);
+            }
+        }).type(MonitoringFormats.PROMETHEUS_TEXT).build();
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    @SuppressWarnings("unused")
+    public Response getMetricsJSON() {
+        return Response.ok(new StreamingOutput() {
+            public void write(OutputStream outputStream) throws IOException {
+                MonitoringFormats.writeJSON(monitoringRegistry, outputStream);
+            }
+        }).build();
+    }
+}
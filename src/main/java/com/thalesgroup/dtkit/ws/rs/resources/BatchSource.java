@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.sun.jersey.multipart.BodyPartEntity;
+import com.sun.jersey.multipart.FormDataBodyPart;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import com.thalesgroup.dtkit.ws.rs.filters.LimitedInputStream;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+//Files of a batch request, read one after the other
+public abstract class BatchSource {
+
+    //Headers of a file part overriding the criteria of the request
+    public static final String METRIC_NAME_HEADER = "Metric-Name";
+
+    public static final String METRIC_VERSION_HEADER = "Metric-Version";
+
+    public static final String METRIC_TYPE_HEADER = "Metric-Type";
+
+    public static final String METRIC_FORMAT_HEADER = "Metric-Format";
+
+    //Limits of the uncompressed content of a file and of all the files of a batch
+    public static final String MAX_ENTRY_SIZE = "batch.maxEntrySize";
+
+    public static final String MAX_BATCH_SIZE = "batch.maxSize";
+
+    //Returns null when there are no more files
+    abstract BatchItem next() throws IOException;
+
+    static class BatchItem {
+
+        final String fileName;
+
+        final InputMetricSelector selector;
+
+        final InputStream inputStream;
+
+        //The file is not processed, it is reported with this error
+        final String error;
+
+        BatchItem(String fileName, InputMetricSelector selector, InputStream inputStream) {
+            this.fileName = fileName;
+            this.selector = selector;
+            this.inputStream = inputStream;
+            this.error = null;
+        }
+
+        BatchItem(String fileName, InputMetricSelector selector, String error) {
+            this.fileName = fileName;
+            this.selector = selector;
+            this.inputStream = null;
+            this.error = error;
+        }
+    }
+
+    //The name is written in the produced archive, it must stay a relative path inside it
+    static String getEntryName(String fileName, int index) {
+        StringBuilder entryName = new StringBuilder();
+        if (fileName != null) {
+            String path = fileName.replace('\\', '/');
+            //A drive prefix, e.g. C:
+            if (path.length() > 1 && path.charAt(1) == ':') {
+                path = path.substring(2);
+            }
+            for (String segment : path.split("/")) {
+                if (segment.length() == 0 || segment.equals(".") || segment.equals("..")) {
+                    continue;
+                }
+                if (entryName.length() > 0) {
+                    entryName.append('/');
+                }
+                entryName.append(segment);
+            }
+        }
+        return entryName.length() == 0 ? "file" + index + ".xml" : entryName.toString();
+    }
+
+    private static String getHeader(FormDataBodyPart part, String name, String defaultValue) {
+        String value = part.getHeaders().getFirst(name);
+        return value == null ? defaultValue : value;
+    }
+
+    //The "file" parts of a multipart request, a part beyond the limits fails while it is read
+    static BatchSource fromParts(FormDataMultiPart multiPart, final InputMetricSelector requestSelector, final long maxEntrySize, final long maxBatchSize) {
+        List<FormDataBodyPart> parts = multiPart.getFields("file");
+        if (parts == null || parts.isEmpty()) {
+            throw new IllegalArgumentException("For a batch request, at least one file part is mandatory");
+        }
+
+        final Iterator<FormDataBodyPart> partIterator = parts.iterator();
+        final AtomicLong batchSize = new AtomicLong();
+        return new BatchSource() {
+            private int index;
+
+            BatchItem next() throws IOException {
+                if (!partIterator.hasNext()) {
+                    return null;
+                }
+                FormDataBodyPart part = partIterator.next();
+                index++;
+                String fileName = part.getContentDisposition().getFileName();
+                InputMetricSelector selector = new InputMetricSelector(
+                        getHeader(part, METRIC_NAME_HEADER, requestSelector.getToolName()),
+                        getHeader(part, METRIC_VERSION_HEADER, requestSelector.getToolVersion()),
+                        getHeader(part, METRIC_TYPE_HEADER, requestSelector.getTooType()),
+                        getHeader(part, METRIC_FORMAT_HEADER, requestSelector.getOutputFormat()));
+                //The parts are already buffered by the multipart reader
+                Object entity = part.getEntity();
+                InputStream inputStream = entity instanceof BodyPartEntity ? ((BodyPartEntity) entity).getInputStream() : new ByteArrayInputStream(part.getValue().getBytes("UTF-8"));
+                return new BatchItem(getEntryName(fileName, index), selector, new LimitedInputStream(inputStream, maxEntrySize, batchSize, maxBatchSize));
+            }
+        };
+    }
+
+    //The entries of a zip archive, read while the previous ones are processed.
+    //The archive is not read beyond an entry which exceeds the limits, its remaining content could be a zip bomb.
+    static BatchSource fromZip(InputStream inputStream, final InputMetricSelector selector, final long maxEntrySize, final long maxBatchSize) {
+        if (selector.isNoCriteria()) {
+            throw new IllegalArgumentException("For an archive, the metric selector is mandatory");
+        }
+
+        final ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        final AtomicLong batchSize = new AtomicLong();
+        return new BatchSource() {
+            private boolean aborted;
+
+            private int index;
+
+            BatchItem next() throws IOException {
+                if (aborted) {
+                    return null;
+                }
+                ZipEntry zipEntry;
+                while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                    if (!zipEntry.isDirectory()) {
+                        index++;
+                        String fileName = getEntryName(zipEntry.getName(), index);
+                        //An entry must be read before the next one, it is kept in memory until it is processed.
+                        //The size declared by the archive is not trusted.
+                        ByteArrayOutputStream content = new ByteArrayOutputStream(8192);
+                        InputStream entryStream = new LimitedInputStream(zipInputStream, maxEntrySize, batchSize, maxBatchSize);
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        try {
+                            while ((read = entryStream.read(buffer)) != -1) {
+                                content.write(buffer, 0, read);
+                            }
+                        } catch (LimitedInputStream.LimitExceededException lee) {
+                            aborted = true;
+                            return new BatchItem(fileName, selector, lee.getMessage() + ", the archive is not read further");
+                        }
+                        return new BatchItem(fileName, selector, new ByteArrayInputStream(content.toByteArray()));
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.ws.rs.cache.ContentDigest;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+
+import javax.ws.rs.core.EntityTag;
+
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    //The metadata of a metric is derived from its class and its key, so they identify the representation,
+    //with the contents of a stored metric which an upsert replaces under the same key.
+    //The variant distinguishes the media types and anything else sent along with the metrics.
+    static EntityTag ofMetrics(Iterable<? extends InputMetric> metrics, String variant) {
+        return ofMetrics(metrics, variant, false);
+    }
+
+    static EntityTag ofMetrics(Iterable<? extends InputMetric> metrics, String variant, boolean weak) {
+        StringBuilder sb = new StringBuilder(variant);
+        for (InputMetric metric : metrics) {
+            sb.append('\n').append(metric.getClass().getName())
+                    .append('|').append(metric.getToolName())
+                    .append('|').append(metric.getToolVersion())
+                    .append('|').append(metric.getToolType())
+                    .append('|').append(metric.getOutputFormatType() == null ? null : metric.getOutputFormatType().getKey());
+            if (metric instanceof InputMetricDB) {
+                InputMetricDB inputMetricDB = (InputMetricDB) metric;
+                sb.append('|').append(inputMetricDB.getXslDigest())
+                        .append('|').append(inputMetricDB.getXsdDigest());
+            }
+        }
+        return new EntityTag(ContentDigest.of(sb.toString()), weak);
+    }
+}
@@ -24,23 +24,33 @@
 package com.thalesgroup.dtkit.ws.rs.resources;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.inject.servlet.RequestScoped;
 import com.sun.jersey.multipart.FormDataParam;
+import com.sun.jersey.spi.container.ResourceFilters;
 import com.thalesgroup.dtkit.metrics.model.AbstractOutputMetric;
 import com.thalesgroup.dtkit.metrics.model.InputMetric;
 import com.thalesgroup.dtkit.metrics.model.InputType;
 import com.thalesgroup.dtkit.metrics.model.OutputMetric;
 import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricsCursor;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreResult;
+import com.thalesgroup.dtkit.ws.rs.filters.ContentEncodingFilter;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.monitoring.RequestSample;
+import com.thalesgroup.dtkit.ws.rs.services.InputMetricsFinder;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricResult;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricsStream;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.*;
 import java.io.File;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -48,50 +58,164 @@ import java.util.List;
 
 @Path(InputMetrics.PATH)
 @RequestScoped
+@ResourceFilters(ContentEncodingFilter.class)
 public class InputMetrics {
 
     public static final String PATH = "/inputMetrics";
 
+    public static final int MAX_LIMIT = 1000;
+
+    public static final String MAX_AGE = "metadata.maxAge";
+
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     private List<InputMetricDAO> inputMetricDAOList;
 
+    private InputMetricsFinder inputMetricsFinder;
+
+    private ScratchSpace scratchSpace;
+
+    private int maxAge;
+
 
     @Inject
     @SuppressWarnings("unused")
-    public void set(List<InputMetricDAO> inputMetricDAOList) {
+    public void set(List<InputMetricDAO> inputMetricDAOList, InputMetricsFinder inputMetricsFinder, ScratchSpace scratchSpace) {
         this.inputMetricDAOList = inputMetricDAOList;
+        this.inputMetricsFinder = inputMetricsFinder;
+        this.scratchSpace = scratchSpace;
+    }
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void setMaxAge(@Named(MAX_AGE) int maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    //Clients keep the metadata for maxAge seconds, then revalidate it with its entity tag
+    private CacheControl getCacheControl() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(maxAge);
+        cacheControl.setMustRevalidate(true);
+        return cacheControl;
+    }
+
+    //Returns 304 when the client already has the tagged representation, null otherwise
+    private Response notModified(Request request, EntityTag entityTag, boolean varyOnAccept) {
+        Response.ResponseBuilder responseBuilder = request.evaluatePreconditions(entityTag);
+        if (responseBuilder == null) {
+            return null;
+        }
+        return tag(responseBuilder, entityTag, varyOnAccept).build();
+    }
+
+    private Response.ResponseBuilder tag(Response.ResponseBuilder responseBuilder, EntityTag entityTag, boolean varyOnAccept) {
+        responseBuilder.tag(entityTag).cacheControl(getCacheControl());
+        if (varyOnAccept) {
+            responseBuilder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return responseBuilder;
+    }
+
+    //The media type Jersey will pick for the metadata, the XML one when the client accepts anything
+    private static MediaType getMetadataMediaType(HttpHeaders httpHeaders) {
+        for (MediaType acceptable : httpHeaders.getAcceptableMediaTypes()) {
+            if (acceptable.isCompatible(MediaType.APPLICATION_XML_TYPE)) {
+                return MediaType.APPLICATION_XML_TYPE;
+            }
+            if (acceptable.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+                return MediaType.APPLICATION_JSON_TYPE;
+            }
+        }
+        return MediaType.APPLICATION_XML_TYPE;
     }
 
 
     @GET
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     @SuppressWarnings("unused")
-    public Response getInputMetricByName(@MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format) {
+    public Response getInputMetricByName(@MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+                                         @QueryParam("limit") @DefaultValue("0") int limit, @QueryParam("cursor") String cursor,
+                                         @Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders httpHeaders) {
 
         if (logger.isDebugEnabled()) {
             logger.debug("getInputMetricByName() service");
         }
 
-        List<InputMetric> metrics = new ArrayList<InputMetric>();
+        String variant = getMetadataMediaType(httpHeaders).toString();
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
-        for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
-            metrics.addAll(inputMetricDAO.getInputMetric(inputMetricSelector));
+        if (inputMetricSelector.isNoCriteria()) {
+            return getInputMetrics(inputMetricSelector, limit, cursor, uriInfo, request, variant);
         }
 
+        List<InputMetric> metrics = inputMetricsFinder.getInputMetric(inputMetricSelector);
+
         if (metrics.size() == 0) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
+        EntityTag entityTag = EntityTags.ofMetrics(metrics, variant);
+        Response notModified = notModified(request, entityTag, true);
+        if (notModified != null) {
+            return notModified;
+        }
+
         if (metrics.size() == 1) {
             InputMetricResult inputMetricResult = new InputMetricResult();
             inputMetricResult.setInputMetric(metrics.get(0));
-            return Response.ok(inputMetricResult).build();
+            return tag(Response.ok(inputMetricResult), entityTag, true).build();
         }
 
         InputMetricsResult inputMetricsResult = new InputMetricsResult();
         inputMetricsResult.setMetrics(metrics);
-        return Response.ok(inputMetricsResult).build();
+        return tag(Response.ok(inputMetricsResult), entityTag, true).build();
+    }
+
+    //The whole listing is streamed from the stores, a page is bounded and links to the next one
+    private Response getInputMetrics(InputMetricSelector inputMetricSelector, int limit, String cursor,
+                                     UriInfo uriInfo, Request request, String variant) {
+        if (limit < 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("The limit must be between 0, for no limit, and " + MAX_LIMIT);
+        }
+
+        InputMetricsCursor inputMetricsCursor = new InputMetricsCursor(inputMetricDAOList, cursor, limit);
+        if (limit == 0) {
+            //The rest of a listing is not tagged
+            if (cursor != null) {
+                return Response.ok(new InputMetricsStream(inputMetricsCursor)).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+            }
+            //The tag is computed from the cached listing of the stores while the body is streamed from the stores,
+            //it is weak as they may differ until the cache expires
+            EntityTag entityTag = EntityTags.ofMetrics(inputMetricsFinder.getInputMetric(inputMetricSelector), variant, true);
+            Response notModified = notModified(request, entityTag, true);
+            if (notModified != null) {
+                return notModified;
+            }
+            return tag(Response.ok(new InputMetricsStream(inputMetricsCursor)), entityTag, true).build();
+        }
+
+        List<InputMetric> page = new ArrayList<InputMetric>(limit);
+        while (inputMetricsCursor.hasNext()) {
+            page.add(inputMetricsCursor.next());
+        }
+        String link = null;
+        String nextCursor = inputMetricsCursor.getCursor();
+        if (page.size() == limit && new InputMetricsCursor(inputMetricDAOList, nextCursor, 1).hasNext()) {
+            URI nextURI = uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", nextCursor).build();
+            link = "<" + nextURI + ">; rel=\"next\"";
+        }
+
+        //A page is tagged with its link too, it appears once a metric is added after the last page
+        EntityTag entityTag = EntityTags.ofMetrics(page, link == null ? variant : variant + '\n' + link);
+        Response notModified = notModified(request, entityTag, true);
+        if (notModified != null) {
+            return notModified;
+        }
+        Response.ResponseBuilder responseBuilder = tag(Response.ok(new InputMetricsStream(page.iterator())), entityTag, true);
+        if (link != null) {
+            responseBuilder.header("Link", link);
+        }
+        return responseBuilder.build();
     }
 
     @PUT
@@ -106,6 +230,17 @@ public class InputMetrics {
             logger.debug("getInputMetricByName() service");
         }
 
+        //The uploads are deleted once stored
+        ScratchSpace.Session session = scratchSpace.open(ScratchSpace.length(inputXslLFile, inputXsdLFile), inputXslLFile, inputXsdLFile);
+        try {
+            return store(name, version, type, format, inputXslLFile, inputXsdLFile);
+        } finally {
+            session.close();
+        }
+    }
+
+    private Response store(String name, String version, String type, final String format, File inputXslLFile, File inputXsdLFile) {
+
         //All parameters except xsd must be provided
         if ((name == null)
                 || (version == null)
@@ -142,13 +277,22 @@ public class InputMetrics {
         };
 
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
+        boolean stored = false;
+        boolean created = false;
         for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
             if (inputMetricDAO.isPersistenceStore()) {
-                inputMetricDAO.insert(name, version, toolType, inputXslLFile, inputXsdLFile, outputMetric);
+                stored = true;
+                created |= inputMetricDAO.insert(name, version, toolType, inputXslLFile, inputXsdLFile, outputMetric) == StoreResult.CREATED;
             }
         }
 
-        return Response.status(Response.Status.CREATED).build();
+        //The persistence store is not attached while it is unreachable
+        if (!stored) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        //An existing metric is replaced
+        return Response.status(created ? Response.Status.CREATED : Response.Status.OK).build();
     }
 
 
@@ -165,6 +309,7 @@ public class InputMetrics {
         InputMetricDAO providedDAO = null;
         List<InputMetric> metrics = new ArrayList<InputMetric>();
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
+        RequestSample.tagSelector(inputMetricSelector);
         for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
             Collection<? extends InputMetric> selectMetrics = inputMetricDAO.getInputMetric(inputMetricSelector);
             if (selectMetrics.size() > 1) {
@@ -187,7 +332,10 @@ public class InputMetrics {
         assert providedDAO != null;
 
         InputMetric metric = metrics.get(0);
-        providedDAO.delete(metric.getToolName(), metric.getToolVersion(), metric.getToolType(), metric.getOutputFormatType());
+        //The metric may have been deleted by a concurrent request since it was selected
+        if (providedDAO.delete(metric.getToolName(), metric.getToolVersion(), metric.getToolType(), metric.getOutputFormatType()) == StoreResult.NOT_FOUND) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
         return Response.status(Response.Status.OK).build();
     }
 
@@ -196,17 +344,21 @@ public class InputMetrics {
     @Produces(MediaType.APPLICATION_XML)
     @SuppressWarnings("unused")
     public Response getXSD(@MatrixParam("name") String name, @MatrixParam("version") String version,
-                           @MatrixParam("type") String type, final @MatrixParam("format") String format) {
+                           @MatrixParam("type") String type, final @MatrixParam("format") String format,
+                           @Context Request request) {
         if (logger.isDebugEnabled()) {
             logger.debug("getXSD() service");
         }
 
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
-        for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
-            byte[] result = inputMetricDAO.getXSD(inputMetricSelector);
-            if (result != null) {
-                return Response.status(Response.Status.OK).entity(result).build();
+        XsdPayload result = inputMetricsFinder.getXSD(inputMetricSelector);
+        if (result != null) {
+            EntityTag entityTag = result.getEntityTag();
+            Response notModified = notModified(request, entityTag, false);
+            if (notModified != null) {
+                return notModified;
             }
+            return tag(Response.status(Response.Status.OK).entity(result), entityTag, false).build();
         }
 
         return Response.status(Response.Status.NOT_FOUND).build();
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.inject.servlet.RequestScoped;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreUnavailableException;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.services.ConversionExecutor;
+import com.thalesgroup.dtkit.ws.rs.services.InputMetricsFinder;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
+import com.thalesgroup.dtkit.ws.rs.vo.BatchEntryResult;
+import com.thalesgroup.dtkit.ws.rs.vo.BatchResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricVo;
+import com.thalesgroup.dtkit.ws.rs.xml.CompiledMetrics;
+import com.thalesgroup.dtkit.ws.rs.xml.ConversionPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+@Path(InputMetricsBatchConversion.PATH)
+@RequestScoped
+public class InputMetricsBatchConversion {
+
+    public static final String PATH = "/inputMetricsBatchConversion";
+
+    public static final String APPLICATION_ZIP = "application/zip";
+
+    //Last entry of the produced archive, the status of each file
+    public static final String RESULT_ENTRY = "batchResult.xml";
+
+    private static JAXBContext batchResultContext;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private InputMetricsFinder inputMetricsFinder;
+
+    private ConversionExecutor conversionExecutor;
+
+    private ScratchSpace scratchSpace;
+
+    private long maxEntrySize;
+
+    private long maxBatchSize;
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void load(InputMetricsFinder inputMetricsFinder, ConversionExecutor conversionExecutor, ScratchSpace scratchSpace) {
+        this.inputMetricsFinder = inputMetricsFinder;
+        this.conversionExecutor = conversionExecutor;
+        this.scratchSpace = scratchSpace;
+    }
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void setLimits(@Named(BatchSource.MAX_ENTRY_SIZE) long maxEntrySize, @Named(BatchSource.MAX_BATCH_SIZE) long maxBatchSize) {
+        this.maxEntrySize = maxEntrySize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    private static synchronized JAXBContext getBatchResultContext() throws JAXBException {
+        if (batchResultContext == null) {
+            batchResultContext = JAXBContext.newInstance(BatchResult.class);
+        }
+        return batchResultContext;
+    }
+
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(APPLICATION_ZIP)
+    @SuppressWarnings("unused")
+    public Response convertInputFiles(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            FormDataMultiPart multiPart) {
+        InputMetricSelector requestSelector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new BatchOutput(BatchSource.fromParts(multiPart, requestSelector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    //The archive is read while the converted files are written
+    @POST
+    @Consumes(APPLICATION_ZIP)
+    @Produces(APPLICATION_ZIP)
+    @SuppressWarnings("unused")
+    public Response convertArchive(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            InputStream inputStream) {
+        InputMetricSelector selector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new BatchOutput(BatchSource.fromZip(inputStream, selector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    private ResolvedMetric resolve(InputMetricSelector selector) {
+        if (selector.isNoCriteria()) {
+            return new ResolvedMetric("No metric selector for this file");
+        }
+        List<InputMetric> metrics = inputMetricsFinder.getInputMetric(selector);
+        if (metrics.size() == 0) {
+            return new ResolvedMetric("No metric found for " + selector);
+        }
+        if (metrics.size() > 1) {
+            return new ResolvedMetric("Several metrics found for " + selector);
+        }
+        InputMetric metric = metrics.get(0);
+        if (!(metric instanceof InputMetricXSL)) {
+            return new ResolvedMetric("The metric " + selector + " doesn't provide a conversion");
+        }
+        try {
+            InputMetricXSL metricXSL = (InputMetricXSL) metric;
+            if (!CompiledMetrics.isCompiledConversion(metricXSL)) {
+                //The metric has its own conversion, each file is spooled for it
+                return new ResolvedMetric(metricXSL, null);
+            }
+            return new ResolvedMetric(metricXSL, new ConversionPipeline(CompiledMetrics.getTemplates(metricXSL), CompiledMetrics.getSchema(metricXSL)));
+        } catch (RuntimeException re) {
+            logger.error("Cannot load the metric " + selector, re);
+            return new ResolvedMetric("Cannot load the metric " + selector + ": " + re.getMessage());
+        }
+    }
+
+    private static class ResolvedMetric {
+
+        private final InputMetricXSL metric;
+
+        private final ConversionPipeline conversionPipeline;
+
+        private final String error;
+
+        private ResolvedMetric(InputMetricXSL metric, ConversionPipeline conversionPipeline) {
+            this.metric = metric;
+            this.conversionPipeline = conversionPipeline;
+            this.error = null;
+        }
+
+        private ResolvedMetric(String error) {
+            this.metric = null;
+            this.conversionPipeline = null;
+            this.error = error;
+        }
+    }
+
+    private static class ConvertedItem {
+
+        private final BatchEntryResult entryResult;
+
+        private final byte[] content;
+
+        private ConvertedItem(BatchEntryResult entryResult, byte[] content) {
+            this.entryResult = entryResult;
+            this.content = content;
+        }
+    }
+
+    //Converts the files on the shared pool and writes each one as soon as it is converted
+    private class BatchOutput implements StreamingOutput {
+
+        private final BatchSource batchSource;
+
+        private final Map<InputMetricSelector, ResolvedMetric> resolvedMetrics = new HashMap<InputMetricSelector, ResolvedMetric>();
+
+        private final Set<String> entryNames = new HashSet<String>();
+
+        private final BatchResult batchResult = new BatchResult();
+
+        private BatchOutput(BatchSource batchSource) {
+            this.batchSource = batchSource;
+            entryNames.add(RESULT_ENTRY);
+        }
+
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+            CompletionService<ConvertedItem> completionService = conversionExecutor.newCompletionService();
+            Set<Future<ConvertedItem>> pending = new HashSet<Future<ConvertedItem>>();
+            try {
+                BatchSource.BatchItem batchItem;
+                while ((batchItem = batchSource.next()) != null) {
+                    if (batchItem.error != null) {
+                        BatchEntryResult entryResult = new BatchEntryResult(batchItem.fileName);
+                        entryResult.setStatus(BatchEntryResult.Status.FAILED);
+                        entryResult.setMessage(batchItem.error);
+                        batchResult.getEntries().add(entryResult);
+                        continue;
+                    }
+                    ResolvedMetric resolvedMetric = resolvedMetrics.get(batchItem.selector);
+                    if (resolvedMetric == null) {
+                        try {
+                            resolvedMetric = resolve(batchItem.selector);
+                            resolvedMetrics.put(batchItem.selector, resolvedMetric);
+                        } catch (StoreUnavailableException sue) {
+                            //Not kept, the next files of the selector retry the lookup
+                            resolvedMetric = new ResolvedMetric("The metric " + batchItem.selector + " cannot be looked up: " + sue.getMessage());
+                        }
+                    }
+                    if (resolvedMetric.error != null) {
+                        BatchEntryResult entryResult = new BatchEntryResult(batchItem.fileName);
+                        entryResult.setStatus(BatchEntryResult.Status.FAILED);
+                        entryResult.setMessage(resolvedMetric.error);
+                        batchResult.getEntries().add(entryResult);
+                        continue;
+                    }
+
+                    pending.add(completionService.submit(new ConversionTask(batchItem, resolvedMetric)));
+                    Future<ConvertedItem> done;
+                    while ((done = completionService.poll()) != null) {
+                        writeConverted(zipOutputStream, collect(done, pending));
+                    }
+                    //Bounds the memory held by the batch
+                    while (pending.size() >= conversionExecutor.getThreads()) {
+                        writeConverted(zipOutputStream, collect(take(completionService), pending));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    writeConverted(zipOutputStream, collect(take(completionService), pending));
+                }
+
+                zipOutputStream.putNextEntry(new ZipEntry(RESULT_ENTRY));
+                Marshaller marshaller = getBatchResultContext().createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+                marshaller.marshal(batchResult, zipOutputStream);
+                zipOutputStream.closeEntry();
+                zipOutputStream.finish();
+            } catch (JAXBException je) {
+                throw new WebApplicationException(je, Response.Status.INTERNAL_SERVER_ERROR);
+            } finally {
+                //The client has gone or the source can't be read
+                for (Future<ConvertedItem> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        private Future<ConvertedItem> take(CompletionService<ConvertedItem> completionService) throws IOException {
+            try {
+                return completionService.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The batch conversion has been interrupted");
+            }
+        }
+
+        private ConvertedItem collect(Future<ConvertedItem> future, Set<Future<ConvertedItem>> pending) throws IOException {
+            pending.remove(future);
+            try {
+                return future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The batch conversion has been interrupted");
+            } catch (ExecutionException ee) {
+                throw new WebApplicationException(ee.getCause(), Response.Status.INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        private void writeConverted(ZipOutputStream zipOutputStream, ConvertedItem convertedItem) throws IOException {
+            batchResult.getEntries().add(convertedItem.entryResult);
+            if (convertedItem.content != null) {
+                String entryName = convertedItem.entryResult.getFileName();
+                for (int i = 1; !entryNames.add(entryName); i++) {
+                    entryName = convertedItem.entryResult.getFileName() + "." + i;
+                }
+                zipOutputStream.putNextEntry(new ZipEntry(entryName));
+                zipOutputStream.write(convertedItem.content);
+                zipOutputStream.closeEntry();
+                zipOutputStream.flush();
+            }
+        }
+    }
+
+    private class ConversionTask implements Callable<ConvertedItem> {
+
+        private final BatchSource.BatchItem batchItem;
+
+        private final ResolvedMetric resolvedMetric;
+
+        private ConversionTask(BatchSource.BatchItem batchItem, ResolvedMetric resolvedMetric) {
+            this.batchItem = batchItem;
+            this.resolvedMetric = resolvedMetric;
+        }
+
+        //The metric works on files, they are reserved in the scratch space once the entry has been read
+        private List<ValidationError> convertWithMetric(InputMetricXSL metric, ByteArrayOutputStream content) throws IOException {
+            ByteArrayOutputStream input = new ByteArrayOutputStream(8192);
+            copy(batchItem.inputStream, input);
+            ScratchSpace.Session session = scratchSpace.open(2L * input.size());
+            try {
+                File inputFile = session.createFile();
+                OutputStream outputStream = new FileOutputStream(inputFile);
+                try {
+                    input.writeTo(outputStream);
+                } finally {
+                    outputStream.close();
+                }
+                File dest = session.createFile();
+                List<ValidationError> validationErrors = InputMetricsConversion.convertWithMetric(metric, inputFile, dest);
+                if (validationErrors.isEmpty()) {
+                    InputStream inputStream = new FileInputStream(dest);
+                    try {
+                        copy(inputStream, content);
+                    } finally {
+                        inputStream.close();
+                    }
+                }
+                return validationErrors;
+            } finally {
+                session.close();
+            }
+        }
+
+        private void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+
+        public ConvertedItem call() throws Exception {
+            InputMetricXSL metric = resolvedMetric.metric;
+            BatchEntryResult entryResult = new BatchEntryResult(batchItem.fileName);
+            try {
+                entryResult.setMetric(new InputMetricVo(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(), metric.getOutputFormatType() == null ? null : metric.getOutputFormatType().getKey()));
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                List<ValidationError> validationErrors;
+                if (resolvedMetric.conversionPipeline == null) {
+                    validationErrors = convertWithMetric(metric, content);
+                } else {
+                    InputSource inputSource = new InputSource(batchItem.inputStream);
+                    inputSource.setSystemId(batchItem.fileName);
+                    validationErrors = resolvedMetric.conversionPipeline.convert(inputSource, new StreamResult(content));
+                }
+                if (!validationErrors.isEmpty()) {
+                    entryResult.setStatus(BatchEntryResult.Status.INVALID);
+                    entryResult.setValidationErrors(validationErrors);
+                    return new ConvertedItem(entryResult, null);
+                }
+                entryResult.setStatus(BatchEntryResult.Status.CONVERTED);
+                return new ConvertedItem(entryResult, content.toByteArray());
+            } catch (ConversionException ce) {
+                logger.error("Conversion error for " + batchItem.fileName, ce);
+                entryResult.setStatus(BatchEntryResult.Status.FAILED);
+                entryResult.setMessage(ce.getMessage());
+                return new ConvertedItem(entryResult, null);
+            } catch (RuntimeException re) {
+                logger.error("Conversion error for " + batchItem.fileName, re);
+                entryResult.setStatus(BatchEntryResult.Status.FAILED);
+                entryResult.setMessage(re.getMessage());
+                return new ConvertedItem(entryResult, null);
+            } finally {
+                try {
+                    batchItem.inputStream.close();
+                } catch (IOException ioe) {
+                    logger.warn("Cannot close the input of " + batchItem.fileName, ioe);
+                }
+            }
+        }
+    }
+}
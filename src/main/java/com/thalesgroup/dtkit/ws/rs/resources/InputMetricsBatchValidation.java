@@ -0,0 +1,417 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.inject.servlet.RequestScoped;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
+import com.thalesgroup.dtkit.util.validator.ErrorType;
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreUnavailableException;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.providers.InputMetricJSONProvider;
+import com.thalesgroup.dtkit.ws.rs.services.ConversionExecutor;
+import com.thalesgroup.dtkit.ws.rs.services.InputMetricsFinder;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricValidationResult;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricVo;
+import com.thalesgroup.dtkit.ws.rs.xml.CompiledMetrics;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+@Path(InputMetricsBatchValidation.PATH)
+@RequestScoped
+public class InputMetricsBatchValidation {
+
+    public static final String PATH = "/inputMetricsBatchValidation";
+
+    //Same root element as a list of results returned by Jersey
+    public static final String RESULTS_ELEMENT = "inputMetricValidationResults";
+
+    private static JAXBContext validationResultContext;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private InputMetricsFinder inputMetricsFinder;
+
+    private ConversionExecutor conversionExecutor;
+
+    private ScratchSpace scratchSpace;
+
+    private long maxEntrySize;
+
+    private long maxBatchSize;
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void load(InputMetricsFinder inputMetricsFinder, ConversionExecutor conversionExecutor, ScratchSpace scratchSpace) {
+        this.inputMetricsFinder = inputMetricsFinder;
+        this.conversionExecutor = conversionExecutor;
+        this.scratchSpace = scratchSpace;
+    }
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void setLimits(@Named(BatchSource.MAX_ENTRY_SIZE) long maxEntrySize, @Named(BatchSource.MAX_BATCH_SIZE) long maxBatchSize) {
+        this.maxEntrySize = maxEntrySize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    private static synchronized JAXBContext getValidationResultContext() throws JAXBException {
+        if (validationResultContext == null) {
+            validationResultContext = JAXBContext.newInstance(InputMetricValidationResult.class);
+        }
+        return validationResultContext;
+    }
+
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_XML)
+    @SuppressWarnings("unused")
+    public Response validateInputFilesXML(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            FormDataMultiPart multiPart) {
+        InputMetricSelector requestSelector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new XMLBatchOutput(BatchSource.fromParts(multiPart, requestSelector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    @SuppressWarnings("unused")
+    public Response validateInputFilesJSON(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            FormDataMultiPart multiPart) {
+        InputMetricSelector requestSelector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new JSONBatchOutput(BatchSource.fromParts(multiPart, requestSelector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    @POST
+    @Consumes(InputMetricsBatchConversion.APPLICATION_ZIP)
+    @Produces(MediaType.APPLICATION_XML)
+    @SuppressWarnings("unused")
+    public Response validateArchiveXML(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            InputStream inputStream) {
+        InputMetricSelector selector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new XMLBatchOutput(BatchSource.fromZip(inputStream, selector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    @POST
+    @Consumes(InputMetricsBatchConversion.APPLICATION_ZIP)
+    @Produces(MediaType.APPLICATION_JSON)
+    @SuppressWarnings("unused")
+    public Response validateArchiveJSON(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            InputStream inputStream) {
+        InputMetricSelector selector = new InputMetricSelector(name, version, type, format);
+        return Response.ok(new JSONBatchOutput(BatchSource.fromZip(inputStream, selector, maxEntrySize, maxBatchSize))).build();
+    }
+
+    private static InputMetricValidationResult newResult(String fileName, InputMetric metric) {
+        InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
+        inputMetricValidationResult.setFileName(fileName);
+        if (metric != null) {
+            inputMetricValidationResult.setMetric(new InputMetricVo(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(), metric.getOutputFormatType() == null ? null : metric.getOutputFormatType().getKey()));
+        }
+        return inputMetricValidationResult;
+    }
+
+    private static InputMetricValidationResult newErrorResult(String fileName, InputMetric metric, String message) {
+        ValidationError validationError = new ValidationError();
+        validationError.setType(ErrorType.FATAL_ERROR);
+        validationError.setMessage(message);
+        InputMetricValidationResult inputMetricValidationResult = newResult(fileName, metric);
+        inputMetricValidationResult.setValid(false);
+        inputMetricValidationResult.setValidationErrors(Collections.singletonList(validationError));
+        return inputMetricValidationResult;
+    }
+
+    private List<InputMetric> resolve(InputMetricSelector selector) {
+        if (selector.isNoCriteria()) {
+            return Collections.emptyList();
+        }
+        return inputMetricsFinder.getInputMetric(selector);
+    }
+
+    //Validates the files on the shared pool and writes each result as soon as it is available
+    private abstract class BatchOutput implements StreamingOutput {
+
+        private final BatchSource batchSource;
+
+        private final Map<InputMetricSelector, List<InputMetric>> resolvedMetrics = new HashMap<InputMetricSelector, List<InputMetric>>();
+
+        private BatchOutput(BatchSource batchSource) {
+            this.batchSource = batchSource;
+        }
+
+        protected abstract void start(OutputStream outputStream) throws IOException;
+
+        protected abstract void write(InputMetricValidationResult inputMetricValidationResult) throws IOException;
+
+        protected abstract void end() throws IOException;
+
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            CompletionService<List<InputMetricValidationResult>> completionService = conversionExecutor.newCompletionService();
+            Set<Future<List<InputMetricValidationResult>>> pending = new HashSet<Future<List<InputMetricValidationResult>>>();
+            start(outputStream);
+            try {
+                BatchSource.BatchItem batchItem;
+                while ((batchItem = batchSource.next()) != null) {
+                    if (batchItem.error != null) {
+                        write(newErrorResult(batchItem.fileName, null, batchItem.error));
+                        continue;
+                    }
+                    List<InputMetric> metrics = resolvedMetrics.get(batchItem.selector);
+                    if (metrics == null) {
+                        try {
+                            metrics = resolve(batchItem.selector);
+                        } catch (StoreUnavailableException sue) {
+                            //Not kept, the next files of the selector retry the lookup
+                            write(newErrorResult(batchItem.fileName, null, "The metric " + batchItem.selector + " cannot be looked up: " + sue.getMessage()));
+                            continue;
+                        }
+                        resolvedMetrics.put(batchItem.selector, metrics);
+                    }
+                    if (metrics.isEmpty()) {
+                        write(newErrorResult(batchItem.fileName, null, "No metric found for " + batchItem.selector));
+                        continue;
+                    }
+
+                    pending.add(completionService.submit(new ValidationTask(batchItem, metrics)));
+                    Future<List<InputMetricValidationResult>> done;
+                    while ((done = completionService.poll()) != null) {
+                        writeAll(collect(done, pending));
+                    }
+                    //Bounds the memory held by the batch
+                    while (pending.size() >= conversionExecutor.getThreads()) {
+                        writeAll(collect(take(completionService), pending));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    writeAll(collect(take(completionService), pending));
+                }
+                end();
+            } finally {
+                for (Future<List<InputMetricValidationResult>> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        private void writeAll(List<InputMetricValidationResult> results) throws IOException {
+            for (InputMetricValidationResult inputMetricValidationResult : results) {
+                write(inputMetricValidationResult);
+            }
+        }
+
+        private Future<List<InputMetricValidationResult>> take(CompletionService<List<InputMetricValidationResult>> completionService) throws IOException {
+            try {
+                return completionService.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The batch validation has been interrupted");
+            }
+        }
+
+        private List<InputMetricValidationResult> collect(Future<List<InputMetricValidationResult>> future, Set<Future<List<InputMetricValidationResult>>> pending) throws IOException {
+            pending.remove(future);
+            try {
+                return future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The batch validation has been interrupted");
+            } catch (ExecutionException ee) {
+                throw new WebApplicationException(ee.getCause(), Response.Status.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private class XMLBatchOutput extends BatchOutput {
+
+        private Writer writer;
+
+        private Marshaller marshaller;
+
+        private XMLBatchOutput(BatchSource batchSource) {
+            super(batchSource);
+        }
+
+        @Override
+        protected void start(OutputStream outputStream) throws IOException {
+            try {
+                marshaller = getValidationResultContext().createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            } catch (JAXBException je) {
+                throw new WebApplicationException(je, Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><" + RESULTS_ELEMENT + ">");
+        }
+
+        @Override
+        protected void write(InputMetricValidationResult inputMetricValidationResult) throws IOException {
+            try {
+                marshaller.marshal(inputMetricValidationResult, writer);
+            } catch (JAXBException je) {
+                throw new WebApplicationException(je, Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            writer.flush();
+        }
+
+        @Override
+        protected void end() throws IOException {
+            writer.write("</" + RESULTS_ELEMENT + ">");
+            writer.flush();
+        }
+    }
+
+    private class JSONBatchOutput extends BatchOutput {
+
+        private JsonGenerator jsonGenerator;
+
+        private JSONBatchOutput(BatchSource batchSource) {
+            super(batchSource);
+        }
+
+        @Override
+        protected void start(OutputStream outputStream) throws IOException {
+            jsonGenerator = InputMetricJSONProvider.createJsonGenerator(outputStream);
+            jsonGenerator.writeStartArray();
+        }
+
+        @Override
+        protected void write(InputMetricValidationResult inputMetricValidationResult) throws IOException {
+            InputMetricJSONProvider.getWriter().writeValue(jsonGenerator, inputMetricValidationResult);
+            jsonGenerator.flush();
+        }
+
+        @Override
+        protected void end() throws IOException {
+            jsonGenerator.writeEndArray();
+            //Flushes the output and gives the buffers back to the factory, the entity stream is left open
+            jsonGenerator.close();
+        }
+    }
+
+    private class ValidationTask implements Callable<List<InputMetricValidationResult>> {
+
+        private final BatchSource.BatchItem batchItem;
+
+        private final List<InputMetric> metrics;
+
+        private ValidationTask(BatchSource.BatchItem batchItem, List<InputMetric> metrics) {
+            this.batchItem = batchItem;
+            this.metrics = metrics;
+        }
+
+        private byte[] readContent() throws IOException {
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = batchItem.inputStream.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                return content.toByteArray();
+            } finally {
+                batchItem.inputStream.close();
+            }
+        }
+
+        private List<ValidationError> validate(InputMetric metric, byte[] content) throws IOException {
+            if (metric instanceof InputMetricXSL) {
+                Schema schema = CompiledMetrics.getSchema((InputMetricXSL) metric);
+                if (schema == null) {
+                    return Collections.emptyList();
+                }
+                return SchemaCache.getInstance().validate(schema, new StreamSource(new ByteArrayInputStream(content), batchItem.fileName));
+            }
+
+            //Other metrics only validate files and keep the errors of the last validation
+            ScratchSpace.Session session = scratchSpace.open(content.length);
+            try {
+                File inputFile = session.createFile();
+                OutputStream outputStream = new FileOutputStream(inputFile);
+                try {
+                    outputStream.write(content);
+                } finally {
+                    outputStream.close();
+                }
+                synchronized (metric) {
+                    if (metric.validateInputFile(inputFile)) {
+                        return Collections.emptyList();
+                    }
+                    List<ValidationError> validationErrors = metric.getInputValidationErrors();
+                    return validationErrors == null ? Collections.<ValidationError>emptyList() : new ArrayList<ValidationError>(validationErrors);
+                }
+            } finally {
+                session.close();
+            }
+        }
+
+        public List<InputMetricValidationResult> call() throws Exception {
+            byte[] content;
+            try {
+                content = readContent();
+            } catch (IOException ioe) {
+                logger.error("Cannot read " + batchItem.fileName, ioe);
+                return Collections.singletonList(newErrorResult(batchItem.fileName, null, "Cannot read the file: " + ioe.getMessage()));
+            }
+            List<InputMetricValidationResult> results = new ArrayList<InputMetricValidationResult>(metrics.size());
+            for (InputMetric metric : metrics) {
+                try {
+                    List<ValidationError> validationErrors = validate(metric, content);
+                    InputMetricValidationResult inputMetricValidationResult = newResult(batchItem.fileName, metric);
+                    inputMetricValidationResult.setValid(validationErrors.isEmpty());
+                    inputMetricValidationResult.setValidationErrors(validationErrors);
+                    results.add(inputMetricValidationResult);
+                } catch (RuntimeException re) {
+                    logger.error("Validation error for " + batchItem.fileName, re);
+                    results.add(newErrorResult(batchItem.fileName, metric, re.getMessage()));
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -26,47 +26,60 @@ package com.thalesgroup.dtkit.ws.rs.resources;
 import com.google.inject.Inject;
 import com.google.inject.servlet.RequestScoped;
 import com.sun.jersey.multipart.FormDataParam;
+import com.sun.jersey.spi.container.ResourceFilters;
 import com.thalesgroup.dtkit.metrics.model.InputMetric;
 import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
 import com.thalesgroup.dtkit.util.converter.ConversionException;
 import com.thalesgroup.dtkit.util.converter.ConversionService;
+import com.thalesgroup.dtkit.util.validator.ValidationError;
 import com.thalesgroup.dtkit.util.validator.ValidationException;
-import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.filters.ContentEncodingFilter;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.monitoring.RequestSample;
+import com.thalesgroup.dtkit.ws.rs.services.InputMetricsFinder;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricValidationResult;
-import com.thalesgroup.dtkit.ws.rs.vo.InputMetricVo;
+import com.thalesgroup.dtkit.ws.rs.xml.CompiledMetrics;
+import com.thalesgroup.dtkit.ws.rs.xml.ConversionPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.File;
-import java.io.IOException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
 @Path(InputMetricsConversion.PATH)
 @RequestScoped
+@ResourceFilters(ContentEncodingFilter.class)
 public class InputMetricsConversion {
 
     public static final String PATH = "/inputMetricsConversion";
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
-    private List<InputMetricDAO> inputMetricDAOList;
+    private InputMetricsFinder inputMetricsFinder;
 
     private ConversionService conversionService;
 
+    private ScratchSpace scratchSpace;
+
     @Inject
     @SuppressWarnings("unused")
-    public void load(List<InputMetricDAO> inputMetricDAOList, ConversionService conversionService) {
+    public void load(InputMetricsFinder inputMetricsFinder, ConversionService conversionService, ScratchSpace scratchSpace) {
         this.conversionService = conversionService;
-        this.inputMetricDAOList = inputMetricDAOList;
+        this.inputMetricsFinder = inputMetricsFinder;
+        this.scratchSpace = scratchSpace;
     }
 
-    private File convertCustom(File inputXmlLFile, File inputXslFile) throws ConversionException {
+    private File convertCustom(ScratchSpace.Session session, File inputXmlLFile, File inputXslFile) throws ConversionException {
 
         if (inputXmlLFile == null) {
             throw new NullPointerException("For a custom conversion, the input file is mandatory");
@@ -75,16 +88,72 @@ public class InputMetricsConversion {
             throw new NullPointerException("For a custom conversion, the input XSL file is mandatory");
         }
 
+        RequestSample.Span transformSpan = RequestSample.startSpan("transform");
         try {
-            File dest = File.createTempFile("temp", Long.toString(System.nanoTime()));
+            File dest = session.createFile();
             conversionService.convert(inputXslFile, inputXmlLFile, dest);
             return dest;
         } catch (IOException ioe) {
             logger.error("Conversion error", ioe);
             throw new ConversionException("Conversion error for " + inputXmlLFile, ioe);
+        } finally {
+            transformSpan.end();
+        }
+    }
+
+
+    private InputMetricXSL getConversionMetric(InputMetricSelector inputMetricSelector) {
+        List<InputMetric> metrics = inputMetricsFinder.getInputMetric(inputMetricSelector);
+
+        if (metrics.size() == 0) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+
+        if (metrics.size() > 1) {
+            throw new WebApplicationException(Response.Status.CONFLICT);
+        }
+
+        InputMetric metric = metrics.get(0);
+        if (!(metric instanceof InputMetricXSL)) {
+            throw new WebApplicationException(Response.Status.PRECONDITION_FAILED);
+        }
+        return (InputMetricXSL) metric;
+    }
+
+    //The metrics are shared by the requests and keep the errors of their last validation
+    static List<ValidationError> convertWithMetric(InputMetricXSL metric, File inputXmlLFile, File dest) {
+        RequestSample.Span transformSpan = RequestSample.startSpan("transform");
+        try {
+            synchronized (metric) {
+                if (!metric.validateInputFile(inputXmlLFile)) {
+                    List<ValidationError> validationErrors = metric.getInputValidationErrors();
+                    return validationErrors == null ? new ArrayList<ValidationError>() : new ArrayList<ValidationError>(validationErrors);
+                }
+            }
+            metric.convert(inputXmlLFile, dest);
+            return Collections.emptyList();
+        } finally {
+            transformSpan.end();
+        }
+    }
+
+    //A metric with its own conversion needs its input as a file, it is converted from a multipart request only
+    static ConversionPipeline getStreamedPipeline(InputMetricXSL metric) {
+        if (!CompiledMetrics.isCompiledConversion(metric)) {
+            throw new WebApplicationException(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                    .entity("The metric " + metric.getToolName() + " has its own conversion, the file must be sent as " + MediaType.MULTIPART_FORM_DATA)
+                    .type(MediaType.TEXT_PLAIN)
+                    .build());
         }
+        return new ConversionPipeline(CompiledMetrics.getTemplates(metric), CompiledMetrics.getSchema(metric));
     }
 
+    private InputMetricValidationResult getValidationResult(List<ValidationError> validationErrors) {
+        InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
+        inputMetricValidationResult.setValid(false);
+        inputMetricValidationResult.setValidationErrors(validationErrors);
+        return inputMetricValidationResult;
+    }
 
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -94,50 +163,95 @@ public class InputMetricsConversion {
             @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
             @FormDataParam("file") File inputXmlLFile, @FormDataParam("xsl") File inputXslFile) {
 
+        //The multipart entity has been read and spooled before the method is called
+        RequestSample.spanFromStart("parse");
+
+        //The output is about the size of the input, the files are deleted once the response is written
+        ScratchSpace.Session session = scratchSpace.open(2 * ScratchSpace.length(inputXmlLFile, inputXslFile), inputXmlLFile, inputXslFile);
+        boolean streamed = false;
         try {
 
             InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
             if (inputMetricSelector.isNoCriteria()) {
-                File convertedFile = convertCustom(inputXmlLFile, inputXslFile);
-                return Response.ok(convertedFile).build();
-            }
-
-            List<InputMetric> metrics = new ArrayList<InputMetric>();
-            for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
-                metrics.addAll(inputMetricDAO.getInputMetric(inputMetricSelector));
-            }
-
-            if (metrics.size() == 0) {
-                return Response.status(Response.Status.NOT_FOUND).build();
+                File convertedFile = convertCustom(session, inputXmlLFile, inputXslFile);
+                streamed = true;
+                return Response.ok(session.stream(convertedFile)).build();
             }
 
-            if (metrics.size() > 1) {
-                return Response.status(Response.Status.CONFLICT).build();
-            }
+            InputMetricXSL metric = getConversionMetric(inputMetricSelector);
+            File dest = session.createFile();
+            List<ValidationError> validationErrors;
+            if (!CompiledMetrics.isCompiledConversion(metric)) {
+                //The metric has its own conversion
+                validationErrors = convertWithMetric(metric, inputXmlLFile, dest);
+            } else {
+                ConversionPipeline conversionPipeline = new ConversionPipeline(CompiledMetrics.getTemplates(metric), CompiledMetrics.getSchema(metric));
 
-            InputMetric metric = metrics.get(0);
-            if (!(metric instanceof InputMetricXSL)) {
-                return Response.status(Response.Status.PRECONDITION_FAILED).build();
+                //Validating and converting the input file in a single parse, timed as one phase
+                RequestSample.Span transformSpan = RequestSample.startSpan("transform");
+                InputStream inputStream = new BufferedInputStream(new FileInputStream(inputXmlLFile));
+                try {
+                    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(dest));
+                    try {
+                        InputSource inputSource = new InputSource(inputStream);
+                        inputSource.setSystemId(inputXmlLFile.toURI().toString());
+                        validationErrors = conversionPipeline.convert(inputSource, new StreamResult(outputStream));
+                    } finally {
+                        outputStream.close();
+                    }
+                } finally {
+                    inputStream.close();
+                    transformSpan.end();
+                }
             }
 
-            //Validating input file
-            boolean result = metric.validateInputFile(inputXmlLFile);
-            if (!result) {
-                InputMetricVo inputMetricVo = new InputMetricVo(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(), metric.getOutputFormatType().getKey());
-                InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
-                inputMetricValidationResult.setValid(metric.validateInputFile(inputXmlLFile));
-                inputMetricValidationResult.setValidationErrors(metric.getInputValidationErrors());
-                return Response.ok(inputMetricValidationResult).build();
+            if (!validationErrors.isEmpty()) {
+                return Response.ok(getValidationResult(validationErrors)).build();
             }
-
-            //Converting the input file
-            File dest = File.createTempFile("temp", Long.toString(System.nanoTime()));
-            metric.convert(inputXmlLFile, dest);
-            return Response.ok(dest).build();
+            streamed = true;
+            return Response.ok(session.stream(dest)).build();
         }
         catch (IOException ioe) {
             throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            if (!streamed) {
+                session.close();
+            }
         }
     }
 
+    //The request body is parsed while it is received and the result is written directly to the response
+    @POST
+    @Consumes({MediaType.APPLICATION_XML, MediaType.TEXT_XML, MediaType.APPLICATION_OCTET_STREAM})
+    @Produces(MediaType.APPLICATION_XML)
+    @SuppressWarnings("unused")
+    public Response convertInputStream(
+            @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
+            final InputStream inputStream) {
+
+        InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
+        if (inputMetricSelector.isNoCriteria()) {
+            throw new IllegalArgumentException("For a streamed conversion, the metric selector is mandatory");
+        }
+
+        final ConversionPipeline conversionPipeline = getStreamedPipeline(getConversionMetric(inputMetricSelector));
+        StreamingOutput streamingOutput = new StreamingOutput() {
+            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                //Runs while the response is written, after the Server-Timing header is sent
+                RequestSample.Span transformSpan = RequestSample.startSpan("transform");
+                List<ValidationError> validationErrors;
+                try {
+                    validationErrors = conversionPipeline.convert(new InputSource(inputStream), new StreamResult(outputStream));
+                } finally {
+                    transformSpan.end();
+                }
+                if (!validationErrors.isEmpty()) {
+                    //Nothing has been written yet, the response can still be replaced
+                    throw new WebApplicationException(Response.ok(getValidationResult(validationErrors), MediaType.APPLICATION_XML_TYPE).build());
+                }
+            }
+        };
+        return Response.ok(streamingOutput).build();
+    }
+
 }
@@ -24,45 +24,77 @@
 package com.thalesgroup.dtkit.ws.rs.resources;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.inject.servlet.RequestScoped;
 import com.sun.jersey.multipart.FormDataParam;
+import com.sun.jersey.spi.container.ResourceFilters;
 import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
 import com.thalesgroup.dtkit.util.validator.ValidationError;
 import com.thalesgroup.dtkit.util.validator.ValidationException;
-import com.thalesgroup.dtkit.util.validator.ValidationService;
-import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
+import com.thalesgroup.dtkit.ws.rs.filters.ContentEncodingFilter;
 import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.monitoring.RequestSample;
+import com.thalesgroup.dtkit.ws.rs.services.ConversionExecutor;
+import com.thalesgroup.dtkit.ws.rs.services.InputMetricsFinder;
+import com.thalesgroup.dtkit.ws.rs.services.ScratchSpace;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricValidationResult;
 import com.thalesgroup.dtkit.ws.rs.vo.InputMetricVo;
+import com.thalesgroup.dtkit.ws.rs.xml.CompiledMetrics;
+import com.thalesgroup.dtkit.ws.rs.xml.SAXEventBuffer;
+import com.thalesgroup.dtkit.ws.rs.xml.ValidationErrorCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.File;
+import javax.xml.validation.Schema;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 @Path(InputMetricsValidation.PATH)
 @RequestScoped
+@ResourceFilters(ContentEncodingFilter.class)
 public class InputMetricsValidation {
 
     public static final String PATH = "/inputMetricsValidation";
 
+    //Estimated memory of the parsed input shared by the candidate metrics, a larger input is parsed by each of them
+    public static final String MAX_BUFFER_SIZE = "validation.maxBufferSize";
+
     private Logger logger = LoggerFactory.getLogger(getClass());
 
-    private List<InputMetricDAO> inputMetricDAOList;
+    private InputMetricsFinder inputMetricsFinder;
+
+    private ConversionExecutor conversionExecutor;
+
+    private ScratchSpace scratchSpace;
 
-    private ValidationService validationService;
+    private long maxBufferSize = Long.MAX_VALUE;
 
     @Inject
     @SuppressWarnings("unused")
-    public void load(List<InputMetricDAO> inputMetricDAOList, ValidationService validationService) {
-        this.inputMetricDAOList = inputMetricDAOList;
-        this.validationService = validationService;
+    public void load(InputMetricsFinder inputMetricsFinder, ConversionExecutor conversionExecutor, ScratchSpace scratchSpace) {
+        this.inputMetricsFinder = inputMetricsFinder;
+        this.conversionExecutor = conversionExecutor;
+        this.scratchSpace = scratchSpace;
+    }
+
+    @Inject
+    @SuppressWarnings("unused")
+    public void setMaxBufferSize(@Named(MAX_BUFFER_SIZE) long maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
     }
 
     private InputMetricValidationResult validateCustom(File inputXmlLFile, File inputXsdFile) throws ValidationException {
@@ -75,12 +107,64 @@ public class InputMetricsValidation {
         }
 
         InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
-        List<ValidationError> validationErrors = validationService.processValidation(inputXsdFile, inputXmlLFile);
+        SchemaCache schemaCache = SchemaCache.getInstance();
+        List<ValidationError> validationErrors = schemaCache.validate(schemaCache.getSchema(inputXsdFile), inputXmlLFile);
         inputMetricValidationResult.setValid(validationErrors.size() == 0);
         inputMetricValidationResult.setValidationErrors(validationErrors);
         return inputMetricValidationResult;
     }
 
+    //Returns null when the input is not well formed, the errors are then in the collector
+    private SAXEventBuffer parseInputFile(File inputXmlLFile, ValidationErrorCollector errorCollector) throws ValidationException {
+        try {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(inputXmlLFile));
+            try {
+                InputSource inputSource = new InputSource(inputStream);
+                inputSource.setSystemId(inputXmlLFile.toURI().toString());
+                return SAXEventBuffer.parse(inputSource, errorCollector, maxBufferSize);
+            } finally {
+                inputStream.close();
+            }
+        } catch (SAXException se) {
+            if (!errorCollector.isErrorFound()) {
+                throw new ValidationException("Validation error for " + inputXmlLFile, se);
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new ValidationException("Validation error for " + inputXmlLFile, ioe);
+        }
+    }
+
+    //The metrics are shared by the requests and keep the errors of their last validation
+    private InputMetricValidationResult validateWithMetric(InputMetric metric, File inputXmlLFile) throws ValidationException {
+        InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
+        synchronized (metric) {
+            inputMetricValidationResult.setValid(metric.validateInputFile(inputXmlLFile));
+            List<ValidationError> validationErrors = metric.getInputValidationErrors();
+            inputMetricValidationResult.setValidationErrors(validationErrors == null ? null : new ArrayList<ValidationError>(validationErrors));
+        }
+        return inputMetricValidationResult;
+    }
+
+    //The metrics which keep the default validation are validated on the shared parsed input, the others by themselves
+    private static boolean isSharedValidation(InputMetric metric) {
+        return metric instanceof InputMetricXSL && CompiledMetrics.isCompiledValidation((InputMetricXSL) metric);
+    }
+
+    private List<ValidationError> getValidationErrors(Future<List<ValidationError>> future) throws ValidationException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(ie, Response.Status.INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new ValidationException("Validation error", ee.getCause());
+        }
+    }
+
 
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -90,37 +174,92 @@ public class InputMetricsValidation {
             @MatrixParam("name") String name, @MatrixParam("version") String version, @MatrixParam("type") String type, @MatrixParam("format") String format,
             @FormDataParam("file") File inputXmlLFile, @FormDataParam("xsd") File inputXsdFile) {
 
+        //The multipart entity has been read and spooled before the method is called
+        RequestSample.spanFromStart("parse");
 
+        //The uploads are deleted once validated
+        ScratchSpace.Session session = scratchSpace.open(ScratchSpace.length(inputXmlLFile, inputXsdFile), inputXmlLFile, inputXsdFile);
+        try {
+            return validateFiles(name, version, type, format, inputXmlLFile, inputXsdFile);
+        } finally {
+            session.close();
+        }
+    }
+
+    private Response validateFiles(String name, String version, String type, String format, File inputXmlLFile, File inputXsdFile) {
         InputMetricSelector inputMetricSelector = new InputMetricSelector(name, version, type, format);
         if (inputMetricSelector.isNoCriteria()) {
-            InputMetricValidationResult inputMetricValidationResult = validateCustom(inputXmlLFile, inputXsdFile);
-            return Response.ok(inputMetricValidationResult).build();
+            RequestSample.Span validateSpan = RequestSample.startSpan("validate");
+            try {
+                InputMetricValidationResult inputMetricValidationResult = validateCustom(inputXmlLFile, inputXsdFile);
+                return Response.ok(inputMetricValidationResult).build();
+            } finally {
+                validateSpan.end();
+            }
         }
 
-        List<InputMetric> metrics = new ArrayList<InputMetric>();
-        for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
-            metrics.addAll(inputMetricDAO.getInputMetric(inputMetricSelector));
-        }
+        List<InputMetric> metrics = inputMetricsFinder.getInputMetric(inputMetricSelector);
 
         if (metrics.size() == 0) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
+        RequestSample.Span validateSpan = RequestSample.startSpan("validate");
+        try {
+            return validateWithMetrics(metrics, inputXmlLFile);
+        } finally {
+            validateSpan.end();
+        }
+    }
+
+    private Response validateWithMetrics(List<InputMetric> metrics, File inputXmlLFile) {
         if (metrics.size() == 1) {
-            InputMetric metric = metrics.get(0);
-            InputMetricValidationResult inputMetricValidationResult = new InputMetricValidationResult();
-            inputMetricValidationResult.setValid(metric.validateInputFile(inputXmlLFile));
-            inputMetricValidationResult.setValidationErrors(metric.getInputValidationErrors());
-             return Response.ok(inputMetricValidationResult).header("charset", "utf-8").build();
+            InputMetricValidationResult inputMetricValidationResult = validateWithMetric(metrics.get(0), inputXmlLFile);
+            return Response.ok(inputMetricValidationResult).header("charset", "utf-8").build();
+        }
+
+        //The input is parsed once, the candidate metrics are validated concurrently on its events
+        ValidationErrorCollector parseErrorCollector = new ValidationErrorCollector();
+        final SAXEventBuffer inputXMLEvents = parseInputFile(inputXmlLFile, parseErrorCollector);
+        CompletionService<List<ValidationError>> completionService = conversionExecutor.newInteractiveCompletionService();
+        final File inputFile = inputXmlLFile;
+        List<Future<List<ValidationError>>> futures = new ArrayList<Future<List<ValidationError>>>(metrics.size());
+        for (InputMetric metric : metrics) {
+            Future<List<ValidationError>> future = null;
+            if (inputXMLEvents != null && isSharedValidation(metric)) {
+                final InputMetricXSL metricXSL = (InputMetricXSL) metric;
+                future = completionService.submit(new Callable<List<ValidationError>>() {
+                    public List<ValidationError> call() throws Exception {
+                        Schema schema = CompiledMetrics.getSchema(metricXSL);
+                        if (schema == null) {
+                            return new ArrayList<ValidationError>();
+                        }
+                        if (inputXMLEvents.isOverflowed()) {
+                            return SchemaCache.getInstance().validate(schema, inputFile);
+                        }
+                        return SchemaCache.getInstance().validate(schema, inputXMLEvents);
+                    }
+                });
+            }
+            futures.add(future);
         }
 
         InputMetricValidationResult inputMetricValidationResult;
         List<InputMetricValidationResult> results = new ArrayList<InputMetricValidationResult>();
-        for (InputMetric metric : metrics) {
-            InputMetricVo inputMetricVo = new InputMetricVo(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(), metric.getOutputFormatType().getKey());
+        for (int i = 0; i < metrics.size(); i++) {
+            InputMetric metric = metrics.get(i);
+            InputMetricVo inputMetricVo = new InputMetricVo(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(), metric.getOutputFormatType() == null ? null : metric.getOutputFormatType().getKey());
             inputMetricValidationResult = new InputMetricValidationResult();
-            inputMetricValidationResult.setValid(metric.validateInputFile(inputXmlLFile));
-            inputMetricValidationResult.setValidationErrors(metric.getInputValidationErrors());
+            if (!isSharedValidation(metric)) {
+                inputMetricValidationResult = validateWithMetric(metric, inputXmlLFile);
+            } else if (inputXMLEvents == null) {
+                inputMetricValidationResult.setValid(false);
+                inputMetricValidationResult.setValidationErrors(parseErrorCollector.getValidationErrors());
+            } else {
+                List<ValidationError> validationErrors = getValidationErrors(futures.get(i));
+                inputMetricValidationResult.setValid(validationErrors.isEmpty());
+                inputMetricValidationResult.setValidationErrors(validationErrors);
+            }
             inputMetricValidationResult.setMetric(inputMetricVo);
             results.add(inputMetricValidationResult);
         }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Bounded pools, one shared by the batch operations and one reserved to the interactive requests
+@Singleton
+public class ConversionExecutor {
+
+    public static final String THREADS = "conversion.threads";
+
+    public static final String INTERACTIVE_THREADS = "conversion.interactiveThreads";
+
+    private final int threads;
+
+    private final ThreadPoolExecutor executorService;
+
+    private final ThreadPoolExecutor interactiveExecutorService;
+
+    public ConversionExecutor(int threads) {
+        this(threads, threads);
+    }
+
+    @Inject
+    public ConversionExecutor(@Named(THREADS) int threads, @Named(INTERACTIVE_THREADS) int interactiveThreads) {
+        if (threads < 1 || interactiveThreads < 1) {
+            throw new IllegalArgumentException("The number of conversion threads must be positive");
+        }
+        this.threads = threads;
+        this.executorService = newExecutorService(threads, "dtkit-conversion-");
+        this.interactiveExecutorService = newExecutorService(interactiveThreads, "dtkit-validation-");
+    }
+
+    private static ThreadPoolExecutor newExecutorService(int threads, final String threadPrefix) {
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadPrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executorService.allowCoreThreadTimeOut(true);
+        return executorService;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    //A batch should not keep more than getThreads() tasks in flight, the queue is shared by all the batches
+    public <T> CompletionService<T> newCompletionService() {
+        return new ExecutorCompletionService<T>(executorService);
+    }
+
+    //The tasks of a single request, they don't wait behind the queued batch files
+    public <T> CompletionService<T> newInteractiveCompletionService() {
+        return new ExecutorCompletionService<T>(interactiveExecutorService);
+    }
+
+    //On undeploy, the running conversions are interrupted
+    public void shutdown() {
+        executorService.shutdownNow();
+        interactiveExecutorService.shutdownNow();
+    }
+}
@@ -26,14 +26,34 @@ package com.thalesgroup.dtkit.ws.rs.services;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.servlet.GuiceServletContextListener;
-import com.google.inject.servlet.ServletModule;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import javax.servlet.ServletContextEvent;
+
 public class GuiceConfig extends GuiceServletContextListener {
 
+    private ClassPathXmlApplicationContext context;
+
+    private GuiceModule guiceModule;
+
+    private Injector injector;
+
     protected Injector getInjector() {
-        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(new String[]{"com/thalesgroup/dtkit/ws/rs/services/applicationContext.xml"});
-        Object bean = context.getBean("guiceModule");
-        return Guice.createInjector((ServletModule) bean);
+        context = new ClassPathXmlApplicationContext(new String[]{"com/thalesgroup/dtkit/ws/rs/services/applicationContext.xml"});
+        guiceModule = (GuiceModule) context.getBean("guiceModule");
+        injector = Guice.createInjector(guiceModule);
+        return injector;
+    }
+
+    //The threads and the Mongo connection would otherwise outlive the web application on undeploy
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        super.contextDestroyed(servletContextEvent);
+        if (guiceModule != null && injector != null) {
+            guiceModule.stop(injector);
+        }
+        if (context != null) {
+            context.close();
+        }
     }
 }
@@ -26,22 +26,39 @@ package com.thalesgroup.dtkit.ws.rs.services;
 import com.google.code.morphia.Morphia;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
+import com.google.inject.Injector;
 import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
 import com.google.inject.servlet.ServletModule;
 import com.mongodb.Mongo;
-import com.mongodb.MongoException;
 import com.sun.jersey.api.core.PackagesResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.guice.spi.container.servlet.GuiceContainer;
 import com.thalesgroup.dtkit.metrics.model.InputMetricException;
+import com.thalesgroup.dtkit.ws.rs.dao.Bulkhead;
+import com.thalesgroup.dtkit.ws.rs.dao.CachingInputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.CircuitBreaker;
+import com.thalesgroup.dtkit.ws.rs.dao.CircuitBreakerInputMetricDAO;
 import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
 import com.thalesgroup.dtkit.ws.rs.dao.InputMetricEmbeddedDAO;
 import com.thalesgroup.dtkit.ws.rs.dao.InputMetricMongoDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.MongoStoreMonitor;
+import com.thalesgroup.dtkit.ws.rs.dao.MonitoringInputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.filters.ContentEncodingFilter;
+import com.thalesgroup.dtkit.ws.rs.filters.ScratchSpaceFilter;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringFilterFactory;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringRegistry;
+import com.thalesgroup.dtkit.ws.rs.monitoring.OtlpTraceExporter;
+import com.thalesgroup.dtkit.ws.rs.monitoring.TraceExporter;
+import com.thalesgroup.dtkit.ws.rs.resources.BatchSource;
+import com.thalesgroup.dtkit.ws.rs.resources.InputMetrics;
+import com.thalesgroup.dtkit.ws.rs.resources.InputMetricsValidation;
 
-import java.net.UnknownHostException;
-import java.util.Arrays;
+import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class GuiceModule extends ServletModule {
 
@@ -51,6 +68,62 @@ public class GuiceModule extends ServletModule {
 
     private String dbName;
 
+    private int cacheSize = 1000;
+
+    private long cacheTtl = 60000;
+
+    private long daoTimeout = 2000;
+
+    private long mongoTimeout = 2000;
+
+    private int conversionThreads = 4;
+
+    private int interactiveThreads = 2;
+
+    private long validationMaxBufferSize = 64L * 1024 * 1024;
+
+    private long batchMaxEntrySize = 64L * 1024 * 1024;
+
+    private long batchMaxSize = 512L * 1024 * 1024;
+
+    private int metadataMaxAge = 0;
+
+    private int compressionThreshold = 1024;
+
+    private long compressionMaxInflatedSize = 512L * 1024 * 1024;
+
+    private long slowRequestThreshold = 2000;
+
+    private String otlpEndpoint;
+
+    private long mongoHealthInterval = 5000;
+
+    private int breakerWindow = 20;
+
+    private int breakerFailureRate = 50;
+
+    private long breakerSlowCall = 1000;
+
+    private long breakerOpenDuration = 10000;
+
+    private int bulkheadSize = 16;
+
+    private String scratchDirectory = "";
+
+    private long scratchQuota = 1024L * 1024 * 1024;
+
+    private long scratchWait = 10000;
+
+    private boolean warmUp = true;
+
+    private boolean warmUpSynthetic = false;
+
+    private final MonitoringRegistry monitoringRegistry = new MonitoringRegistry();
+
+    private MongoStoreMonitor mongoStoreMonitor;
+
+    private OtlpTraceExporter otlpTraceExporter;
+
     public GuiceModule(String host, String port, String dbName) {
         System.out.println("host="+ host + ";port="+ port+ ";dbName="+dbName);
         this.host = host;
@@ -58,47 +131,201 @@ public class GuiceModule extends ServletModule {
         this.dbName = dbName;
     }
 
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public void setDaoTimeout(long daoTimeout) {
+        this.daoTimeout = daoTimeout;
+    }
+
+    public void setMongoTimeout(long mongoTimeout) {
+        this.mongoTimeout = mongoTimeout;
+    }
+
+    public void setConversionThreads(int conversionThreads) {
+        this.conversionThreads = conversionThreads;
+    }
+
+    public void setInteractiveThreads(int interactiveThreads) {
+        this.interactiveThreads = interactiveThreads;
+    }
+
+    public void setValidationMaxBufferSize(long validationMaxBufferSize) {
+        this.validationMaxBufferSize = validationMaxBufferSize;
+    }
+
+    public void setBatchMaxEntrySize(long batchMaxEntrySize) {
+        this.batchMaxEntrySize = batchMaxEntrySize;
+    }
+
+    public void setBatchMaxSize(long batchMaxSize) {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public void setMetadataMaxAge(int metadataMaxAge) {
+        this.metadataMaxAge = metadataMaxAge;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public void setCompressionMaxInflatedSize(long compressionMaxInflatedSize) {
+        this.compressionMaxInflatedSize = compressionMaxInflatedSize;
+    }
+
+    public void setSlowRequestThreshold(long slowRequestThreshold) {
+        this.slowRequestThreshold = slowRequestThreshold;
+    }
+
+    //The traces are exported only when an OTLP/HTTP endpoint is given, e.g. http://localhost:4318/v1/traces
+    public void setOtlpEndpoint(String otlpEndpoint) {
+        this.otlpEndpoint = otlpEndpoint;
+    }
+
+    public void setMongoHealthInterval(long mongoHealthInterval) {
+        this.mongoHealthInterval = mongoHealthInterval;
+    }
+
+    public void setBreakerWindow(int breakerWindow) {
+        this.breakerWindow = breakerWindow;
+    }
+
+    public void setBreakerFailureRate(int breakerFailureRate) {
+        this.breakerFailureRate = breakerFailureRate;
+    }
+
+    public void setBreakerSlowCall(long breakerSlowCall) {
+        this.breakerSlowCall = breakerSlowCall;
+    }
+
+    public void setBreakerOpenDuration(long breakerOpenDuration) {
+        this.breakerOpenDuration = breakerOpenDuration;
+    }
+
+    public void setBulkheadSize(int bulkheadSize) {
+        this.bulkheadSize = bulkheadSize;
+    }
+
+    //The request files are created in a dtkit-scratch directory of java.io.tmpdir when no directory is given
+    public void setScratchDirectory(String scratchDirectory) {
+        this.scratchDirectory = scratchDirectory == null ? "" : scratchDirectory.trim();
+    }
+
+    public void setScratchQuota(long scratchQuota) {
+        this.scratchQuota = scratchQuota;
+    }
+
+    public void setScratchWait(long scratchWait) {
+        this.scratchWait = scratchWait;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public void setWarmUpSynthetic(boolean warmUpSynthetic) {
+        this.warmUpSynthetic = warmUpSynthetic;
+    }
+
     @Override
     protected void configureServlets() {
         final Map<String, String> params = new HashMap<String, String>();
         params.put(PackagesResourceConfig.PROPERTY_PACKAGES, "com.thalesgroup.dtkit.ws.rs;org.codehaus.jackson.jaxrs");
+        params.put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES, MonitoringFilterFactory.class.getName());
+        bind(MonitoringRegistry.class).toInstance(monitoringRegistry);
+        bindConstant().annotatedWith(Names.named(MonitoringFilterFactory.SLOW_REQUEST_THRESHOLD)).to(slowRequestThreshold);
+        bindTraceExporter();
         bindDAO();
+        bindConstant().annotatedWith(Names.named(InputMetricsFinder.DAO_TIMEOUT)).to(daoTimeout);
+        Map<String, Long> storeTimeouts = new HashMap<String, Long>();
+        storeTimeouts.put(InputMetricMongoDAO.STORE_NAME, mongoTimeout);
+        bind(new TypeLiteral<Map<String, Long>>() {
+        }).annotatedWith(Names.named(InputMetricsFinder.STORE_TIMEOUTS)).toInstance(storeTimeouts);
+        bindConstant().annotatedWith(Names.named(ConversionExecutor.THREADS)).to(conversionThreads);
+        bindConstant().annotatedWith(Names.named(ConversionExecutor.INTERACTIVE_THREADS)).to(interactiveThreads);
+        bindConstant().annotatedWith(Names.named(InputMetricsValidation.MAX_BUFFER_SIZE)).to(validationMaxBufferSize);
+        bindConstant().annotatedWith(Names.named(BatchSource.MAX_ENTRY_SIZE)).to(batchMaxEntrySize);
+        bindConstant().annotatedWith(Names.named(BatchSource.MAX_BATCH_SIZE)).to(batchMaxSize);
+        bindConstant().annotatedWith(Names.named(InputMetrics.MAX_AGE)).to(metadataMaxAge);
+        bindConstant().annotatedWith(Names.named(ContentEncodingFilter.THRESHOLD)).to(compressionThreshold);
+        bindConstant().annotatedWith(Names.named(ContentEncodingFilter.MAX_INFLATED_SIZE)).to(compressionMaxInflatedSize);
+        bindConstant().annotatedWith(Names.named(MetricsWarmUp.ENABLED)).to(warmUp);
+        bindConstant().annotatedWith(Names.named(MetricsWarmUp.SYNTHETIC)).to(warmUpSynthetic);
+        bind(MetricsWarmUp.class).asEagerSingleton();
+        bindConstant().annotatedWith(Names.named(ScratchSpace.DIRECTORY)).to(scratchDirectory);
+        bindConstant().annotatedWith(Names.named(ScratchSpace.QUOTA)).to(scratchQuota);
+        bindConstant().annotatedWith(Names.named(ScratchSpace.WAIT)).to(scratchWait);
+        //The files left by a previous run are deleted at startup
+        bind(ScratchSpace.class).asEagerSingleton();
+        filter("/*").through(ScratchSpaceFilter.class);
         serve("/*").with(GuiceContainer.class, params);
     }
 
+    protected void bindTraceExporter() {
+        if (otlpEndpoint == null || otlpEndpoint.trim().length() == 0) {
+            bind(TraceExporter.class).toInstance(TraceExporter.NONE);
+            return;
+        }
+        try {
+            otlpTraceExporter = new OtlpTraceExporter(otlpEndpoint.trim(), "dtkit-rs");
+            bind(TraceExporter.class).toInstance(otlpTraceExporter);
+        } catch (MalformedURLException mue) {
+            throw new RuntimeException(mue);
+        }
+    }
+
+    //The Mongo store is attached by the monitor once it is reachable, the requests never wait for it
     protected void bindDAO() {
 
+        List<InputMetricDAO> inputMetricDAOs = new CopyOnWriteArrayList<InputMetricDAO>();
         try {
-            //Externalize parameters
-            final Mongo mongo = new Mongo(host, Integer.valueOf(port));
-
-            InputMetricMongoDAO inputMetricDAOMongo = Guice.createInjector(new AbstractModule() {
-                @Override
-                public void configure() {
-                    bind(Mongo.class).toInstance(mongo);
-                    bind(Morphia.class);
-                    bind(String.class).toInstance(dbName);
-                }
-            }).getInstance(InputMetricMongoDAO.class);
-
-
-            List<InputMetricDAO> inputMetricDAOs;
-            try {
-                mongo.getDB(dbName).getCollectionNames();
-                inputMetricDAOs = Arrays.asList(new InputMetricDAO[]{new InputMetricEmbeddedDAO(), inputMetricDAOMongo});
-            }
-            catch (MongoException me) {
-                inputMetricDAOs = Arrays.asList(new InputMetricDAO[]{new InputMetricEmbeddedDAO()});
+            inputMetricDAOs.add(new MonitoringInputMetricDAO(new InputMetricEmbeddedDAO(), InputMetricEmbeddedDAO.STORE_NAME, monitoringRegistry));
+        } catch (InputMetricException e) {
+            throw new RuntimeException(e);
+        }
+
+        mongoStoreMonitor = new MongoStoreMonitor(inputMetricDAOs, host, Integer.valueOf(port), dbName, mongoHealthInterval) {
+            @Override
+            protected InputMetricDAO createStore(final Mongo mongo, final String dbName) {
+                InputMetricMongoDAO inputMetricDAOMongo = Guice.createInjector(new AbstractModule() {
+                    @Override
+                    public void configure() {
+                        bind(Mongo.class).toInstance(mongo);
+                        bind(Morphia.class);
+                        bind(String.class).toInstance(dbName);
+                    }
+                }).getInstance(InputMetricMongoDAO.class);
+                //The cache sits above the breaker to answer with stale entries while the store is refused
+                CircuitBreaker circuitBreaker = new CircuitBreaker(breakerWindow, breakerFailureRate, breakerSlowCall, breakerOpenDuration);
+                Bulkhead bulkhead = new Bulkhead(bulkheadSize);
+                monitoringRegistry.register(InputMetricMongoDAO.STORE_NAME, circuitBreaker);
+                monitoringRegistry.register(InputMetricMongoDAO.STORE_NAME, bulkhead);
+                InputMetricDAO guarded = new CircuitBreakerInputMetricDAO(inputMetricDAOMongo, InputMetricMongoDAO.STORE_NAME, circuitBreaker, bulkhead);
+                return new MonitoringInputMetricDAO(new CachingInputMetricDAO(guarded, cacheSize, cacheTtl), InputMetricMongoDAO.STORE_NAME, monitoringRegistry);
             }
+        };
+        mongoStoreMonitor.start();
 
-            bind(new TypeLiteral<List<InputMetricDAO>>() {
-            }).toInstance(inputMetricDAOs);
+        bind(new TypeLiteral<List<InputMetricDAO>>() {
+        }).toInstance(inputMetricDAOs);
+    }
 
-        } catch (InputMetricException e) {
-            throw new RuntimeException(e);
+    //Stops the threads started by the module and its singletons, the warm up first as it uses the conversion pools
+    public void stop(Injector injector) {
+        injector.getInstance(MetricsWarmUp.class).stop();
+        injector.getInstance(ConversionExecutor.class).shutdown();
+        injector.getInstance(InputMetricsFinder.class).shutdown();
+        if (mongoStoreMonitor != null) {
+            mongoStoreMonitor.stop();
         }
-        catch (UnknownHostException e) {
-            throw new RuntimeException(e);
+        if (otlpTraceExporter != null) {
+            otlpTraceExporter.close();
         }
     }
 
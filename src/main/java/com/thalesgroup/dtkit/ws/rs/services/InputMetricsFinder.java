@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.mongodb.MongoException;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreUnavailableException;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.monitoring.RequestSample;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Singleton
+public class InputMetricsFinder {
+
+    public static final String DAO_TIMEOUT = "dao.timeout";
+
+    public static final String STORE_TIMEOUTS = "dao.storeTimeouts";
+
+    private static final int MAX_THREADS = 64;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<InputMetricDAO> inputMetricDAOList;
+
+    private final long timeout;
+
+    private Map<String, Long> storeTimeouts = Collections.emptyMap();
+
+    private final ExecutorService executorService;
+
+    @Inject
+    public InputMetricsFinder(List<InputMetricDAO> inputMetricDAOList, @Named(DAO_TIMEOUT) long timeout) {
+        this.inputMetricDAOList = inputMetricDAOList;
+        this.timeout = timeout;
+        this.executorService = new ThreadPoolExecutor(0, MAX_THREADS, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dtkit-dao-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //The timeouts by store name, a store without its own timeout uses the default one
+    @Inject(optional = true)
+    @SuppressWarnings("unused")
+    public void setStoreTimeouts(@Named(STORE_TIMEOUTS) Map<String, Long> storeTimeouts) {
+        this.storeTimeouts = storeTimeouts;
+    }
+
+    protected long getTimeout(InputMetricDAO inputMetricDAO) {
+        Long storeTimeout = storeTimeouts.get(inputMetricDAO.getStoreName());
+        return storeTimeout == null ? timeout : storeTimeout;
+    }
+
+    //Only the store failures make a store unavailable, not the programming errors
+    protected boolean isStoreFailure(Throwable cause) {
+        return cause instanceof MongoException || cause instanceof IOException;
+    }
+
+    public List<InputMetricDAO> getInputMetricDAOs() {
+        return inputMetricDAOList;
+    }
+
+    //On undeploy, the pending store queries are interrupted
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    public List<InputMetric> getInputMetric(final InputMetricSelector inputMetricSelector) {
+        RequestSample.tagSelector(inputMetricSelector);
+        RequestSample.Span lookupSpan = RequestSample.startSpan("lookup");
+        try {
+            List<InputMetric> metrics = new ArrayList<InputMetric>();
+            QueryResults<Collection<? extends InputMetric>> queryResults = query(new DAOQuery<Collection<? extends InputMetric>>() {
+                public Collection<? extends InputMetric> query(InputMetricDAO inputMetricDAO) {
+                    return inputMetricDAO.getInputMetric(inputMetricSelector);
+                }
+            });
+            for (Collection<? extends InputMetric> daoMetrics : queryResults.getResults()) {
+                if (daoMetrics != null) {
+                    metrics.addAll(daoMetrics);
+                }
+            }
+            if (metrics.isEmpty()) {
+                queryResults.throwFailure();
+            }
+            return metrics;
+        } finally {
+            lookupSpan.end();
+        }
+    }
+
+    public XsdPayload getXSD(final InputMetricSelector inputMetricSelector) {
+        RequestSample.tagSelector(inputMetricSelector);
+        RequestSample.Span lookupSpan = RequestSample.startSpan("lookup");
+        try {
+            QueryResults<XsdPayload> queryResults = query(new DAOQuery<XsdPayload>() {
+                public XsdPayload query(InputMetricDAO inputMetricDAO) {
+                    return inputMetricDAO.getXSD(inputMetricSelector);
+                }
+            });
+            for (XsdPayload xsd : queryResults.getResults()) {
+                if (xsd != null) {
+                    return xsd;
+                }
+            }
+            queryResults.throwFailure();
+            return null;
+        } finally {
+            lookupSpan.end();
+        }
+    }
+
+    protected <T> QueryResults<T> query(final DAOQuery<T> daoQuery) {
+        //The stores are attached and detached at runtime, a query works on a snapshot of them
+        List<InputMetricDAO> inputMetricDAOs = new ArrayList<InputMetricDAO>(inputMetricDAOList);
+        int daoCount = inputMetricDAOs.size();
+        List<Future<T>> futures = new ArrayList<Future<T>>(daoCount);
+        long[] deadlines = new long[daoCount];
+        QueryResults<T> queryResults = new QueryResults<T>(daoCount);
+        List<T> results = queryResults.results;
+
+        //The persistence stores are queried concurrently
+        for (int i = 0; i < daoCount; i++) {
+            final InputMetricDAO inputMetricDAO = inputMetricDAOs.get(i);
+            Future<T> future = null;
+            if (inputMetricDAO.isPersistenceStore()) {
+                try {
+                    future = executorService.submit(new Callable<T>() {
+                        public T call() throws Exception {
+                            return daoQuery.query(inputMetricDAO);
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    logger.warn("No thread available to query " + inputMetricDAO.getStoreName() + ", its results are ignored.");
+                    queryResults.fail(new StoreUnavailableException("No thread available to query the store", getTimeout(inputMetricDAO), ree));
+                }
+                //Each store has its own deadline, counted from the submission
+                deadlines[i] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getTimeout(inputMetricDAO));
+            }
+            futures.add(future);
+            results.add(null);
+        }
+
+        //The in memory stores are queried by the request thread meanwhile
+        for (int i = 0; i < daoCount; i++) {
+            InputMetricDAO inputMetricDAO = inputMetricDAOs.get(i);
+            if (!inputMetricDAO.isPersistenceStore()) {
+                results.set(i, daoQuery.query(inputMetricDAO));
+            }
+        }
+
+        for (int i = 0; i < daoCount; i++) {
+            Future<T> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            String storeName = inputMetricDAOs.get(i).getStoreName();
+            long storeTimeout = getTimeout(inputMetricDAOs.get(i));
+            try {
+                results.set(i, future.get(Math.max(0, deadlines[i] - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException te) {
+                future.cancel(true);
+                logger.warn(storeName + " didn't answer within " + storeTimeout + " ms, its results are ignored.");
+                queryResults.fail(new StoreUnavailableException(storeName + " didn't answer in time", storeTimeout, te));
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof StoreUnavailableException) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(storeName + " is unavailable, its results are ignored: " + ee.getCause().getMessage());
+                    }
+                    queryResults.fail((StoreUnavailableException) ee.getCause());
+                    continue;
+                }
+                if (!isStoreFailure(ee.getCause())) {
+                    cancel(futures);
+                    if (ee.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ee.getCause();
+                    }
+                    if (ee.getCause() instanceof Error) {
+                        throw (Error) ee.getCause();
+                    }
+                    throw new RuntimeException(ee.getCause());
+                }
+                logger.error(storeName + " query failed, its results are ignored.", ee.getCause());
+                queryResults.fail(new StoreUnavailableException(storeName + " query failed", storeTimeout, ee.getCause()));
+            } catch (InterruptedException ie) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                queryResults.fail(new StoreUnavailableException(storeName + " query interrupted", storeTimeout, ie));
+            }
+        }
+        return queryResults;
+    }
+
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    //Results in the order of the DAO list, null for a store which failed or didn't answer in time
+    protected static class QueryResults<T> {
+
+        private final List<T> results;
+
+        private StoreUnavailableException failure;
+
+        private QueryResults(int daoCount) {
+            this.results = new ArrayList<T>(daoCount);
+        }
+
+        private void fail(StoreUnavailableException storeUnavailableException) {
+            if (failure == null) {
+                failure = storeUnavailableException;
+            }
+        }
+
+        public List<T> getResults() {
+            return results;
+        }
+
+        //Nothing found is not an answer when a store which may hold the result has failed
+        public void throwFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    protected interface DAOQuery<T> {
+        T query(InputMetricDAO inputMetricDAO);
+    }
+}
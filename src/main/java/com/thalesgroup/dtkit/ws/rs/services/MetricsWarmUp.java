@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
+import com.thalesgroup.dtkit.util.validator.ValidationException;
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.xml.CompiledMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Compiles the stylesheets and schemas of the embedded metrics at boot instead of in the first requests
+@Singleton
+public class MetricsWarmUp implements Runnable {
+
+    public static final String ENABLED = "warmup.enabled";
+
+    //Also runs a tiny document through each metric so that the conversion code is loaded
+    public static final String SYNTHETIC = "warmup.synthetic";
+
+    private static final String SYNTHETIC_DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><testsuite/>";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<InputMetricDAO> inputMetricDAOList;
+
+    private final ConversionExecutor conversionExecutor;
+
+    private final boolean synthetic;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final AtomicInteger warmed = new AtomicInteger();
+
+    private volatile int total;
+
+    private Thread thread;
+
+    @Inject
+    public MetricsWarmUp(List<InputMetricDAO> inputMetricDAOList, ConversionExecutor conversionExecutor,
+                         @Named(ENABLED) boolean enabled, @Named(SYNTHETIC) boolean synthetic) {
+        this.inputMetricDAOList = inputMetricDAOList;
+        this.conversionExecutor = conversionExecutor;
+        this.synthetic = synthetic;
+        if (!enabled) {
+            finished.countDown();
+            return;
+        }
+        thread = new Thread(this, "dtkit-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //On undeploy, a warm up still running is interrupted
+    public void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isReady() {
+        return finished.getCount() == 0;
+    }
+
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    public int getWarmed() {
+        return warmed.get();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            List<InputMetricXSL> metrics = new ArrayList<InputMetricXSL>();
+            for (InputMetricDAO inputMetricDAO : inputMetricDAOList) {
+                if (!inputMetricDAO.isPersistenceStore()) {
+                    for (InputMetric inputMetric : inputMetricDAO.getInputMetrics()) {
+                        if (inputMetric instanceof InputMetricXSL) {
+                            metrics.add((InputMetricXSL) inputMetric);
+                        }
+                    }
+                }
+            }
+            total = metrics.size();
+
+            //As the batches, no more than getThreads() tasks in flight
+            CompletionService<Void> completionService = conversionExecutor.newCompletionService();
+            int pending = 0;
+            for (InputMetricXSL metric : metrics) {
+                if (pending >= conversionExecutor.getThreads()) {
+                    completionService.take();
+                    pending--;
+                }
+                completionService.submit(new WarmUpTask(metric));
+                pending++;
+            }
+            for (; pending > 0; pending--) {
+                completionService.take();
+            }
+            logger.info(warmed.get() + "/" + total + " embedded metrics warmed up in " + (System.nanoTime() - start) / 1000000 + " ms.");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            logger.warn("The warm up has been interrupted.");
+        } catch (RuntimeException re) {
+            logger.warn("The warm up has failed, the metrics are compiled by the first requests.", re);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private class WarmUpTask implements Callable<Void> {
+
+        private final InputMetricXSL metric;
+
+        private WarmUpTask(InputMetricXSL metric) {
+            this.metric = metric;
+        }
+
+        public Void call() {
+            String key = new InputMetricSelector(metric.getToolName(), metric.getToolVersion(),
+                    metric.getToolType().name(), metric.getOutputFormatType()).toString();
+            try {
+                long start = System.nanoTime();
+                Templates templates = CompiledMetrics.getTemplates(metric);
+                long templatesEnd = System.nanoTime();
+                Schema schema = CompiledMetrics.getSchema(metric);
+                long schemaEnd = System.nanoTime();
+                if (synthetic) {
+                    runSynthetic(templates, schema);
+                }
+                warmed.incrementAndGet();
+                logger.info("Metric " + key + " warmed up: stylesheet compiled in " + (templatesEnd - start) / 1000000
+                        + " ms, schema in " + (schemaEnd - templatesEnd) / 1000000 + " ms"
+                        + (synthetic ? ", synthetic run in " + (System.nanoTime() - schemaEnd) / 1000000 + " ms." : "."));
+            } catch (Exception e) {
+                logger.warn("Cannot warm up the metric " + key + ".", e);
+            }
+            return null;
+        }
+
+        //The document is not expected to be valid nor to produce anything useful
+        private void runSynthetic(Templates templates, Schema schema) {
+            if (schema != null) {
+                try {
+                    SchemaCache.getInstance().validate(schema, new StreamSource(new StringReader(SYNTHETIC_DOCUMENT)));
+                } catch (ValidationException ve) {
+                    logger.debug("Synthetic validation of " + metric.getClass().getName() + " failed.", ve);
+                }
+            }
+            try {
+                templates.newTransformer().transform(new StreamSource(new StringReader(SYNTHETIC_DOCUMENT)),
+                        new StreamResult(new ByteArrayOutputStream()));
+            } catch (TransformerException te) {
+                logger.debug("Synthetic conversion of " + metric.getClass().getName() + " failed.", te);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Owns the files of the requests: the uploads and the conversion outputs are deleted once the response is written.
+//A request reserves its disk footprint first and waits while the quota is used by the others.
+//The sessions still open when a request ends, e.g. because writing its response failed, are closed by ScratchSpaceFilter.
+@Singleton
+public class ScratchSpace {
+
+    public static final String DIRECTORY = "scratch.directory";
+
+    public static final String QUOTA = "scratch.quota";
+
+    public static final String WAIT = "scratch.wait";
+
+    //Only the files with this prefix are removed at startup, the directory may be shared
+    private static final String FILE_PREFIX = "dtkit-";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final File directory;
+
+    private final long quota;
+
+    private final long waitMillis;
+
+    private long reserved;
+
+    private final AtomicInteger fileCount = new AtomicInteger();
+
+    private final AtomicLong waitCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong deletedBytes = new AtomicLong();
+
+    //The sessions opened by the request of the current thread, null outside of a request
+    private final ThreadLocal<List<Session>> requestSessions = new ThreadLocal<List<Session>>();
+
+    //Without directory, the files are created in a dtkit-scratch directory of java.io.tmpdir
+    @Inject
+    public ScratchSpace(@Named(DIRECTORY) String directory, @Named(QUOTA) long quota, @Named(WAIT) long waitMillis, MonitoringRegistry monitoringRegistry) {
+        if (quota < 1) {
+            throw new IllegalArgumentException("The scratch space quota must be positive");
+        }
+        this.directory = directory == null || directory.length() == 0 ? new File(System.getProperty("java.io.tmpdir"), "dtkit-scratch") : new File(directory);
+        this.quota = quota;
+        this.waitMillis = waitMillis;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create the scratch directory " + this.directory);
+        }
+        removeLeftovers();
+        monitoringRegistry.register(this);
+    }
+
+    //The files of a previous run which was stopped before their requests ended
+    private void removeLeftovers() {
+        File[] leftovers = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX);
+            }
+        });
+        if (leftovers == null) {
+            return;
+        }
+        for (File leftover : leftovers) {
+            if (!leftover.delete()) {
+                logger.warn("Cannot delete the scratch file " + leftover);
+            }
+        }
+        if (leftovers.length > 0) {
+            logger.info(leftovers.length + " scratch files of a previous run deleted from " + directory);
+        }
+    }
+
+    //The uploads belong to the session from now on, even when the reservation is refused.
+    //A single reservation larger than the quota is granted once the space is unused.
+    public Session open(long bytes, File... uploads) {
+        Session session = new Session(bytes);
+        for (File upload : uploads) {
+            session.adopt(upload);
+        }
+        try {
+            reserve(bytes);
+        } catch (RuntimeException re) {
+            session.deleteFiles();
+            throw re;
+        }
+        List<Session> sessions = requestSessions.get();
+        if (sessions != null) {
+            sessions.add(session);
+        }
+        return session;
+    }
+
+    public void beginRequest() {
+        requestSessions.set(new ArrayList<Session>());
+    }
+
+    //Called once the response is written or has failed, the sessions are closed at the latest here
+    public void endRequest() {
+        List<Session> sessions = requestSessions.get();
+        requestSessions.remove();
+        if (sessions == null) {
+            return;
+        }
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    private synchronized void reserve(long bytes) {
+        if (reserved == 0 || reserved + bytes <= quota) {
+            reserved += bytes;
+            return;
+        }
+        waitCount.incrementAndGet();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        try {
+            while (reserved != 0 && reserved + bytes > quota) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    rejectedCount.incrementAndGet();
+                    throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                            .header("Retry-After", Long.toString(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis))))
+                            .build());
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(ie, Response.Status.SERVICE_UNAVAILABLE);
+        }
+        reserved += bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        reserved -= bytes;
+        notifyAll();
+    }
+
+    public static long length(File... files) {
+        long length = 0;
+        for (File file : files) {
+            if (file != null) {
+                length += file.length();
+            }
+        }
+        return length;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    public int getFileCount() {
+        return fileCount.get();
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDeletedBytes() {
+        return deletedBytes.get();
+    }
+
+    //The files of a request, closed by the request or when its response is written, and at the latest when it ends
+    public final class Session {
+
+        private final long bytes;
+
+        private final List<File> files = new ArrayList<File>();
+
+        private boolean closed;
+
+        private Session(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public synchronized File adopt(File file) {
+            if (file != null) {
+                files.add(file);
+                fileCount.incrementAndGet();
+            }
+            return file;
+        }
+
+        public File createFile() throws IOException {
+            return adopt(File.createTempFile(FILE_PREFIX, ".tmp", directory));
+        }
+
+        //Writes the file as the response entity then closes the session
+        public StreamingOutput stream(final File file) {
+            return new StreamingOutput() {
+                public void write(OutputStream outputStream) throws IOException {
+                    try {
+                        InputStream inputStream = new FileInputStream(file);
+                        try {
+                            byte[] buffer = new byte[8192];
+                            int wasRead;
+                            while ((wasRead = inputStream.read(buffer)) != -1) {
+                                outputStream.write(buffer, 0, wasRead);
+                            }
+                        } finally {
+                            inputStream.close();
+                        }
+                    } finally {
+                        close();
+                    }
+                }
+            };
+        }
+
+        private synchronized void deleteFiles() {
+            for (File file : files) {
+                long length = file.length();
+                if (file.delete() || !file.exists()) {
+                    deletedBytes.addAndGet(length);
+                } else {
+                    logger.warn("Cannot delete the scratch file " + file);
+                    file.deleteOnExit();
+                }
+                fileCount.decrementAndGet();
+            }
+            files.clear();
+        }
+
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                deleteFiles();
+            }
+            release(bytes);
+        }
+    }
+}
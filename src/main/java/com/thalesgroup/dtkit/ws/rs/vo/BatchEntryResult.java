@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.vo;
+
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import javax.xml.bind.annotation.*;
+import java.util.List;
+
+
+@XmlAccessorType(XmlAccessType.FIELD)
+public class BatchEntryResult {
+
+    public enum Status {
+        CONVERTED, INVALID, FAILED
+    }
+
+    private String fileName;
+
+    private Status status;
+
+    private InputMetricVo metric;
+
+    private String message;
+
+    @XmlElementWrapper(name = "errors")
+    @XmlElement(name = "error")
+    private List<ValidationError> validationErrors;
+
+    @SuppressWarnings("unused")
+    public BatchEntryResult() {
+    }
+
+    public BatchEntryResult(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_DEFAULT)
+    public InputMetricVo getMetric() {
+        return metric;
+    }
+
+    public void setMetric(InputMetricVo metric) {
+        this.metric = metric;
+    }
+
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_DEFAULT)
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_DEFAULT)
+    public List<ValidationError> getValidationErrors() {
+        return validationErrors;
+    }
+
+    public void setValidationErrors(List<ValidationError> validationErrors) {
+        this.validationErrors = validationErrors;
+    }
+}
@@ -34,6 +34,8 @@ import java.util.List;
 @XmlAccessorType(XmlAccessType.FIELD)
 public class InputMetricValidationResult {
 
+    private String fileName;
+
     private InputMetricVo metric;
 
     private boolean valid;
@@ -70,5 +72,15 @@ public class InputMetricValidationResult {
     public InputMetricVo getMetric() {
         return metric;
     }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    @SuppressWarnings("unused")
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_DEFAULT)
+    public String getFileName() {
+        return fileName;
+    }
 }
 
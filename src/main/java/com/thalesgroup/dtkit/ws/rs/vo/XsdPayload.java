@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.vo;
+
+import com.thalesgroup.dtkit.ws.rs.cache.ContentDigest;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//The XSD of a metric, built once and written as is to every response. The content is never handed out
+//so that it can be shared between the requests.
+public final class XsdPayload {
+
+    private final byte[] content;
+
+    private final EntityTag entityTag;
+
+    //The digest is the one of the content when it is already known, e.g. stored with the metric
+    public XsdPayload(byte[] content, String digest) {
+        if (content == null) {
+            throw new NullPointerException("An XSD payload must have a content");
+        }
+        this.content = content;
+        this.entityTag = new EntityTag(digest == null ? ContentDigest.of(content) : digest);
+    }
+
+    public static XsdPayload of(byte[] content) {
+        return new XsdPayload(content, null);
+    }
+
+    public int getLength() {
+        return content.length;
+    }
+
+    public EntityTag getEntityTag() {
+        return entityTag;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(content, 0, content.length);
+    }
+
+    public byte[] toByteArray() {
+        return content.clone();
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetricXSL;
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import com.thalesgroup.dtkit.util.validator.ValidationException;
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
+import com.thalesgroup.dtkit.ws.rs.cache.TemplatesCache;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+
+import javax.xml.transform.Templates;
+import javax.xml.validation.Schema;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+//Compiled stylesheet and schema of a metric, either embedded or stored
+public final class CompiledMetrics {
+
+    //Methods through which a metric changes the conversion done by InputMetricXSL
+    private static final Set<String> CONVERSION_METHODS = new HashSet<String>(Arrays.asList("convert", "getXslFile", "getXslResourceClass", "getXSLParameters"));
+
+    //Method through which a metric changes the validation done by InputMetricXSL
+    private static final Set<String> VALIDATION_METHODS = new HashSet<String>(Arrays.asList("validateInputFile"));
+
+    private CompiledMetrics() {
+    }
+
+    //The compiled stylesheet stands for the conversion of the metric only when the metric keeps the default one:
+    //a classpath stylesheet applied without parameters
+    public static boolean isCompiledConversion(InputMetricXSL metric) {
+        if (metric instanceof InputMetricDB) {
+            return true;
+        }
+        if (metric.getXslName() == null || metric.getClass().getResource(metric.getXslName()) == null) {
+            return false;
+        }
+        return !overrides(metric, CONVERSION_METHODS);
+    }
+
+    //The compiled schema stands for the validation of the metric only when the metric keeps the default one
+    public static boolean isCompiledValidation(InputMetricXSL metric) {
+        return metric instanceof InputMetricDB || !overrides(metric, VALIDATION_METHODS);
+    }
+
+    private static boolean overrides(InputMetricXSL metric, Set<String> methodNames) {
+        for (Class<?> metricClass = metric.getClass(); metricClass != InputMetricXSL.class; metricClass = metricClass.getSuperclass()) {
+            for (Method method : metricClass.getDeclaredMethods()) {
+                if (methodNames.contains(method.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String getKey(InputMetric metric) {
+        return InputMetricDB.getCacheKey(metric.getToolName(), metric.getToolVersion(), metric.getToolType().name(),
+                metric.getOutputFormatType() == null ? null : metric.getOutputFormatType().getKey());
+    }
+
+    public static Templates getTemplates(InputMetricXSL metric) throws ConversionException {
+        if (metric instanceof InputMetricDB) {
+            return ((InputMetricDB) metric).getTemplates();
+        }
+
+        URL xslURL = metric.getXslName() == null ? null : metric.getClass().getResource(metric.getXslName());
+        if (xslURL == null) {
+            throw new ConversionException("The stylesheet of the metric " + getKey(metric) + " can't be found.");
+        }
+        return TemplatesCache.getInstance().getTemplates(metric.getClass().getName(), xslURL);
+    }
+
+    //Returns null when the metric has no input XSD
+    public static Schema getSchema(InputMetricXSL metric) throws ValidationException {
+        if (metric instanceof InputMetricDB) {
+            return ((InputMetricDB) metric).getSchema();
+        }
+
+        String[] xsdNames = metric.getInputXsdNameList();
+        if (xsdNames == null || xsdNames.length == 0) {
+            return null;
+        }
+        URL[] xsdURLs = new URL[xsdNames.length];
+        for (int i = 0; i < xsdNames.length; i++) {
+            xsdURLs[i] = metric.getClass().getResource(xsdNames[i]);
+            if (xsdURLs[i] == null) {
+                throw new ValidationException("The XSD " + xsdNames[i] + " of the metric " + getKey(metric) + " can't be found.");
+            }
+        }
+        return SchemaCache.getInstance().getSchema(metric.getClass().getName(), xsdURLs);
+    }
+}
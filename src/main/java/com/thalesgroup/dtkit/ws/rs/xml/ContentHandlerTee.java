@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+//Sends each event to the first handler, then to the second one
+public class ContentHandlerTee implements ContentHandler {
+
+    private final ContentHandler first;
+
+    private final ContentHandler second;
+
+    public ContentHandlerTee(ContentHandler first, ContentHandler second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public void setDocumentLocator(Locator locator) {
+        first.setDocumentLocator(locator);
+        second.setDocumentLocator(locator);
+    }
+
+    public void startDocument() throws SAXException {
+        first.startDocument();
+        second.startDocument();
+    }
+
+    public void endDocument() throws SAXException {
+        first.endDocument();
+        second.endDocument();
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        first.startPrefixMapping(prefix, uri);
+        second.startPrefixMapping(prefix, uri);
+    }
+
+    public void endPrefixMapping(String prefix) throws SAXException {
+        first.endPrefixMapping(prefix);
+        second.endPrefixMapping(prefix);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        first.startElement(uri, localName, qName, atts);
+        second.startElement(uri, localName, qName, atts);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        first.endElement(uri, localName, qName);
+        second.endElement(uri, localName, qName);
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        first.characters(ch, start, length);
+        second.characters(ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        first.ignorableWhitespace(ch, start, length);
+        second.ignorableWhitespace(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        first.processingInstruction(target, data);
+        second.processingInstruction(target, data);
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+        first.skippedEntity(name);
+        second.skippedEntity(name);
+    }
+}
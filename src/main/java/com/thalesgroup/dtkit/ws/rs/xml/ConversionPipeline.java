@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.util.List;
+
+//Validates and converts an input in a single parse
+public class ConversionPipeline {
+
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newInstance();
+
+    static {
+        SAX_PARSER_FACTORY.setNamespaceAware(true);
+    }
+
+    private final Templates templates;
+
+    private final Schema schema;
+
+    public ConversionPipeline(Templates templates, Schema schema) {
+        this.templates = templates;
+        this.schema = schema;
+    }
+
+    static XMLReader newXMLReader() throws ConversionException {
+        try {
+            synchronized (SAX_PARSER_FACTORY) {
+                return SAX_PARSER_FACTORY.newSAXParser().getXMLReader();
+            }
+        } catch (ParserConfigurationException pce) {
+            throw new ConversionException("Cannot create the XML parser", pce);
+        } catch (SAXException se) {
+            throw new ConversionException("Cannot create the XML parser", se);
+        }
+    }
+
+    //Returns the validation errors, the result is written only when there are none
+    public List<ValidationError> convert(InputSource input, Result result) throws ConversionException {
+        TransformerHandler transformerHandler;
+        try {
+            transformerHandler = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler(templates);
+        } catch (TransformerConfigurationException tce) {
+            throw new ConversionException("Cannot create the transformer", tce);
+        }
+        transformerHandler.setResult(result);
+
+        ValidationErrorCollector errorCollector = new ValidationErrorCollector();
+        XMLReader xmlReader = newXMLReader();
+        xmlReader.setErrorHandler(errorCollector);
+        ValidGate gate = new ValidGate(transformerHandler, errorCollector);
+        if (schema == null) {
+            xmlReader.setContentHandler(gate);
+        } else {
+            //The transformer receives the events of the parser, not the ones augmented by the validator
+            ValidatorHandler validatorHandler = schema.newValidatorHandler();
+            validatorHandler.setErrorHandler(errorCollector);
+            xmlReader.setContentHandler(new ContentHandlerTee(validatorHandler, gate));
+        }
+        try {
+            xmlReader.setProperty(LEXICAL_HANDLER, gate);
+        } catch (SAXException se) {
+            //Comments are not forwarded
+        }
+
+        try {
+            xmlReader.parse(input);
+        } catch (SAXParseException spe) {
+            //Not well formed input, already collected
+            if (!errorCollector.hasValidationErrors()) {
+                throw new ConversionException("Conversion error for " + input.getSystemId(), spe);
+            }
+        } catch (SAXException se) {
+            throw new ConversionException("Conversion error for " + input.getSystemId(), se.getException() == null ? se : se.getException());
+        } catch (IOException ioe) {
+            throw new ConversionException("Conversion error for " + input.getSystemId(), ioe);
+        }
+        return errorCollector.getValidationErrors();
+    }
+
+    //Stops forwarding the events to the transformer as soon as a validation error is found.
+    //The transformer builds its source tree and only writes at the end of the document, so nothing is written for an invalid input.
+    private static class ValidGate implements ContentHandler, LexicalHandler {
+
+        private final TransformerHandler transformerHandler;
+
+        private final ValidationErrorCollector errorCollector;
+
+        private ValidGate(TransformerHandler transformerHandler, ValidationErrorCollector errorCollector) {
+            this.transformerHandler = transformerHandler;
+            this.errorCollector = errorCollector;
+        }
+
+        private boolean isOpen() {
+            return !errorCollector.hasValidationErrors();
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            transformerHandler.setDocumentLocator(locator);
+        }
+
+        public void startDocument() throws SAXException {
+            transformerHandler.startDocument();
+        }
+
+        public void endDocument() throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endDocument();
+            }
+        }
+
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        public void endPrefixMapping(String prefix) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endPrefixMapping(prefix);
+            }
+        }
+
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.startElement(uri, localName, qName, atts);
+            }
+        }
+
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endElement(uri, localName, qName);
+            }
+        }
+
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.characters(ch, start, length);
+            }
+        }
+
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        public void processingInstruction(String target, String data) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.processingInstruction(target, data);
+            }
+        }
+
+        public void skippedEntity(String name) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.skippedEntity(name);
+            }
+        }
+
+        public void startDTD(String name, String publicId, String systemId) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.startDTD(name, publicId, systemId);
+            }
+        }
+
+        public void endDTD() throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endDTD();
+            }
+        }
+
+        public void startEntity(String name) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.startEntity(name);
+            }
+        }
+
+        public void endEntity(String name) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endEntity(name);
+            }
+        }
+
+        public void startCDATA() throws SAXException {
+            if (isOpen()) {
+                transformerHandler.startCDATA();
+            }
+        }
+
+        public void endCDATA() throws SAXException {
+            if (isOpen()) {
+                transformerHandler.endCDATA();
+            }
+        }
+
+        public void comment(char[] ch, int start, int length) throws SAXException {
+            if (isOpen()) {
+                transformerHandler.comment(ch, start, length);
+            }
+        }
+    }
+}
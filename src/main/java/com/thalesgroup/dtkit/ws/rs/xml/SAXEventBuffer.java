@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//Records the events of a single parse, they can then be replayed to several handlers, concurrently if needed
+public class SAXEventBuffer implements ContentHandler {
+
+    private static final Attributes EMPTY_ATTRIBUTES = new AttributesImpl();
+
+    //Estimated memory of an event and of a buffered character
+    private static final int EVENT_SIZE = 64;
+
+    private static final int CHAR_SIZE = 2;
+
+    private final List<Event> events = new ArrayList<Event>();
+
+    private final long maxSize;
+
+    private long size;
+
+    private boolean overflowed;
+
+    private Locator locator;
+
+    private String publicId;
+
+    private String systemId;
+
+    private SAXEventBuffer(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    //Returns the buffer of the input, the errors of the parse are reported to the error handler
+    public static SAXEventBuffer parse(InputSource input, ErrorHandler errorHandler) throws SAXException, IOException {
+        return parse(input, errorHandler, Long.MAX_VALUE);
+    }
+
+    //The parse stops once the events exceed the estimated size, the buffer is then overflowed and holds no event
+    public static SAXEventBuffer parse(InputSource input, ErrorHandler errorHandler, long maxSize) throws SAXException, IOException {
+        SAXEventBuffer saxEventBuffer = new SAXEventBuffer(maxSize);
+        XMLReader xmlReader = ConversionPipeline.newXMLReader();
+        xmlReader.setErrorHandler(errorHandler);
+        xmlReader.setContentHandler(saxEventBuffer);
+        try {
+            xmlReader.parse(input);
+        } catch (OverflowException oe) {
+            saxEventBuffer.events.clear();
+        }
+        return saxEventBuffer;
+    }
+
+    //The input must then be parsed again by each consumer
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public void replay(ContentHandler contentHandler) throws SAXException {
+        if (overflowed) {
+            throw new IllegalStateException("The events of " + systemId + " have not been kept");
+        }
+        ReplayLocator replayLocator = new ReplayLocator(publicId, systemId);
+        contentHandler.setDocumentLocator(replayLocator);
+        for (Event event : events) {
+            replayLocator.lineNumber = event.lineNumber;
+            replayLocator.columnNumber = event.columnNumber;
+            event.replay(contentHandler);
+        }
+    }
+
+    private void add(Event event) throws SAXException {
+        add(event, 0);
+    }
+
+    private void add(Event event, int length) throws SAXException {
+        size += EVENT_SIZE + (long) CHAR_SIZE * length;
+        if (size > maxSize) {
+            overflowed = true;
+            throw new OverflowException();
+        }
+        if (locator != null) {
+            event.lineNumber = locator.getLineNumber();
+            event.columnNumber = locator.getColumnNumber();
+        }
+        events.add(event);
+    }
+
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+        this.publicId = locator.getPublicId();
+        this.systemId = locator.getSystemId();
+    }
+
+    public void startDocument() throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.startDocument();
+            }
+        });
+    }
+
+    public void endDocument() throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.endDocument();
+            }
+        });
+        locator = null;
+    }
+
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.startPrefixMapping(prefix, uri);
+            }
+        });
+    }
+
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.endPrefixMapping(prefix);
+            }
+        });
+    }
+
+    public void startElement(final String uri, final String localName, final String qName, Attributes atts) throws SAXException {
+        //The parser reuses its attributes
+        final Attributes attributes = atts.getLength() == 0 ? EMPTY_ATTRIBUTES : new AttributesImpl(atts);
+        int length = 0;
+        for (int i = 0; i < attributes.getLength(); i++) {
+            length += attributes.getQName(i).length() + attributes.getValue(i).length();
+        }
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.startElement(uri, localName, qName, attributes);
+            }
+        }, length);
+    }
+
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.endElement(uri, localName, qName);
+            }
+        });
+    }
+
+    public void characters(char[] ch, int start, final int length) throws SAXException {
+        final char[] text = new char[length];
+        System.arraycopy(ch, start, text, 0, length);
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.characters(text, 0, length);
+            }
+        }, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, final int length) throws SAXException {
+        final char[] text = new char[length];
+        System.arraycopy(ch, start, text, 0, length);
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.ignorableWhitespace(text, 0, length);
+            }
+        }, length);
+    }
+
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.processingInstruction(target, data);
+            }
+        });
+    }
+
+    public void skippedEntity(final String name) throws SAXException {
+        add(new Event() {
+            void replay(ContentHandler contentHandler) throws SAXException {
+                contentHandler.skippedEntity(name);
+            }
+        });
+    }
+
+    //Stops the parse, it is not an error of the input
+    private static class OverflowException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+
+        private OverflowException() {
+            super("The parse has been stopped, the events exceed the size of the buffer");
+        }
+    }
+
+    private abstract static class Event {
+
+        private int lineNumber = -1;
+
+        private int columnNumber = -1;
+
+        abstract void replay(ContentHandler contentHandler) throws SAXException;
+    }
+
+    private static class ReplayLocator implements Locator {
+
+        private final String publicId;
+
+        private final String systemId;
+
+        private int lineNumber = -1;
+
+        private int columnNumber = -1;
+
+        private ReplayLocator(String publicId, String systemId) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+        }
+
+        public String getPublicId() {
+            return publicId;
+        }
+
+        public String getSystemId() {
+            return systemId;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+    }
+}
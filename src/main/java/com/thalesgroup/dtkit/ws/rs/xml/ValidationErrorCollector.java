@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import com.thalesgroup.dtkit.util.validator.ErrorType;
+import com.thalesgroup.dtkit.util.validator.ValidationError;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ValidationErrorCollector implements ErrorHandler {
+
+    private final List<ValidationError> validationErrors = Collections.synchronizedList(new ArrayList<ValidationError>());
+
+    private volatile boolean errorFound;
+
+    private void add(ErrorType errorType, SAXParseException exception) {
+        ValidationError validationError = new ValidationError();
+        validationError.setType(errorType);
+        validationError.setLine(exception.getLineNumber());
+        validationError.setMessage(exception.getMessage());
+        validationErrors.add(validationError);
+    }
+
+    public void warning(SAXParseException exception) throws SAXException {
+        add(ErrorType.WARNING, exception);
+    }
+
+    public void error(SAXParseException exception) throws SAXException {
+        errorFound = true;
+        add(ErrorType.ERROR, exception);
+    }
+
+    public void fatalError(SAXParseException exception) throws SAXException {
+        errorFound = true;
+        add(ErrorType.FATAL_ERROR, exception);
+        throw exception;
+    }
+
+    public boolean hasValidationErrors() {
+        return !validationErrors.isEmpty();
+    }
+
+    public boolean isErrorFound() {
+        return errorFound;
+    }
+
+    public List<ValidationError> getValidationErrors() {
+        return new ArrayList<ValidationError>(validationErrors);
+    }
+}
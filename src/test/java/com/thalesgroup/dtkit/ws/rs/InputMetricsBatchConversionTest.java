@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.LoggingFilter;
+import com.sun.jersey.core.header.FormDataContentDisposition;
+import com.sun.jersey.multipart.FormDataBodyPart;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import com.thalesgroup.dtkit.ws.rs.resources.BatchSource;
+import com.thalesgroup.dtkit.ws.rs.resources.InputMetricsBatchConversion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+public class InputMetricsBatchConversionTest extends InputMetricsAbstractTest {
+
+    @Before
+    public void loadWebResurce() {
+        webResource = resource().path(InputMetricsBatchConversion.PATH);
+        webResource.addFilter(new LoggingFilter());
+    }
+
+    private FormDataBodyPart filePart(String fileName, String resourceName) {
+        return new FormDataBodyPart(FormDataContentDisposition.name("file").fileName(fileName).build(), this.getClass().getResourceAsStream(resourceName), MediaType.APPLICATION_XML_TYPE);
+    }
+
+    private Map<String, String> readEntries(InputStream inputStream) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        ZipEntry zipEntry;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = zipInputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            entries.put(zipEntry.getName(), content.toString("UTF-8"));
+        }
+        zipInputStream.close();
+        return entries;
+    }
+
+    @Test
+    public void convertInputFiles() throws Exception {
+        FormDataBodyPart otherMetricPart = filePart("other.xml", "cppunit/cppunit-valid-input.xml");
+        otherMetricPart.getHeaders().putSingle(BatchSource.METRIC_NAME_HEADER, "notExistMetric");
+        FormDataMultiPart multiPart = new FormDataMultiPart();
+        multiPart.bodyPart(filePart("valid.xml", "cppunit/cppunit-valid-input.xml"));
+        multiPart.bodyPart(filePart("novalid.xml", "cppunit/cppunit-novalid-input.xml"));
+        multiPart.bodyPart(otherMetricPart);
+
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+                .accept(InputMetricsBatchConversion.APPLICATION_ZIP)
+                .post(ClientResponse.class, multiPart);
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        Map<String, String> entries = readEntries(clientResponse.getEntityInputStream());
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(readContentInputStream(this.getClass().getResourceAsStream("cppunit/cppunit-valid-junit-result.xml")), entries.get("valid.xml"));
+        String batchResult = entries.get(InputMetricsBatchConversion.RESULT_ENTRY);
+        Assert.assertNotNull(batchResult);
+        Assert.assertTrue(batchResult.contains("<fileName>valid.xml</fileName>\n            <status>CONVERTED</status>"));
+        Assert.assertTrue(batchResult.contains("<fileName>novalid.xml</fileName>\n            <status>INVALID</status>"));
+        Assert.assertTrue(batchResult.contains("<fileName>other.xml</fileName>\n            <status>FAILED</status>"));
+    }
+
+    @Test
+    public void convertArchive() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(archive);
+        for (String entryName : new String[]{"build1/cppunit.xml", "build2/cppunit.xml"}) {
+            zipOutputStream.putNextEntry(new ZipEntry(entryName));
+            zipOutputStream.write(readContentInputStream(this.getClass().getResourceAsStream("cppunit/cppunit-valid-input.xml")).getBytes("UTF-8"));
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(InputMetricsBatchConversion.APPLICATION_ZIP)
+                .accept(InputMetricsBatchConversion.APPLICATION_ZIP)
+                .post(ClientResponse.class, new ByteArrayInputStream(archive.toByteArray()));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        Map<String, String> entries = readEntries(clientResponse.getEntityInputStream());
+        Assert.assertEquals(3, entries.size());
+        Assert.assertTrue(entries.containsKey("build1/cppunit.xml"));
+        Assert.assertTrue(entries.containsKey("build2/cppunit.xml"));
+        Assert.assertTrue(entries.containsKey(InputMetricsBatchConversion.RESULT_ENTRY));
+    }
+
+    @Test
+    public void convertArchiveWithoutSelector() throws Exception {
+        ClientResponse clientResponse = webResource
+                .type(InputMetricsBatchConversion.APPLICATION_ZIP)
+                .accept(InputMetricsBatchConversion.APPLICATION_ZIP)
+                .post(ClientResponse.class, new ByteArrayInputStream(new byte[0]));
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), clientResponse.getStatus());
+    }
+
+}
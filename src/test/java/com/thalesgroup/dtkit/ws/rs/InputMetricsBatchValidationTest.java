@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.GenericType;
+import com.sun.jersey.api.client.filter.LoggingFilter;
+import com.sun.jersey.core.header.FormDataContentDisposition;
+import com.sun.jersey.multipart.FormDataBodyPart;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import com.thalesgroup.dtkit.ws.rs.resources.InputMetricsBatchValidation;
+import com.thalesgroup.dtkit.ws.rs.vo.InputMetricValidationResult;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class InputMetricsBatchValidationTest extends InputMetricsAbstractTest {
+
+    @Before
+    public void loadWebResurce() {
+        webResource = resource().path(InputMetricsBatchValidation.PATH);
+        webResource.addFilter(new LoggingFilter());
+    }
+
+    private FormDataMultiPart getMultiPart() {
+        FormDataMultiPart multiPart = new FormDataMultiPart();
+        multiPart.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("file").fileName("valid.xml").build(), this.getClass().getResourceAsStream("cppunit/cppunit-valid-input.xml"), MediaType.APPLICATION_XML_TYPE));
+        multiPart.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("file").fileName("novalid.xml").build(), this.getClass().getResourceAsStream("cppunit/cppunit-novalid-input.xml"), MediaType.APPLICATION_XML_TYPE));
+        return multiPart;
+    }
+
+    private void checkResults(List<InputMetricValidationResult> results) {
+        Assert.assertEquals(2, results.size());
+        Map<String, InputMetricValidationResult> resultsByFile = new HashMap<String, InputMetricValidationResult>();
+        for (InputMetricValidationResult result : results) {
+            resultsByFile.put(result.getFileName(), result);
+        }
+        Assert.assertTrue(resultsByFile.get("valid.xml").isValid());
+        Assert.assertFalse(resultsByFile.get("novalid.xml").isValid());
+        Assert.assertEquals(1, resultsByFile.get("novalid.xml").getValidationErrors().size());
+    }
+
+    @Test
+    public void validateInputFilesXML() throws Exception {
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+                .accept(MediaType.APPLICATION_XML_TYPE)
+                .post(ClientResponse.class, getMultiPart());
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        checkResults(clientResponse.getEntity(new GenericType<List<InputMetricValidationResult>>() {
+        }));
+    }
+
+    @Test
+    public void validateInputFilesJSON() throws Exception {
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, getMultiPart());
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        checkResults(clientResponse.getEntity(new GenericType<List<InputMetricValidationResult>>() {
+        }));
+    }
+
+    @Test
+    public void validateInputFilesWithNoExistingMetric() throws Exception {
+        ClientResponse clientResponse = webResource.path(";name=notExistMetric")
+                .type(MediaType.MULTIPART_FORM_DATA_TYPE)
+                .accept(MediaType.APPLICATION_XML_TYPE)
+                .post(ClientResponse.class, getMultiPart());
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        List<InputMetricValidationResult> results = clientResponse.getEntity(new GenericType<List<InputMetricValidationResult>>() {
+        });
+        Assert.assertEquals(2, results.size());
+        Assert.assertFalse(results.get(0).isValid());
+        Assert.assertFalse(results.get(1).isValid());
+    }
+
+}
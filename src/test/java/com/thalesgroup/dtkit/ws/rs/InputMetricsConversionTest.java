@@ -122,5 +122,29 @@ public class InputMetricsConversionTest extends InputMetricsAbstractTest {
         Assert.assertEquals(expectedResult, clientResponse.getEntity(String.class));
     }
 
+    @Test
+    public void convertInputStreamWithValidInput() throws Exception {
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(MediaType.APPLICATION_XML_TYPE)
+                .accept(MediaType.APPLICATION_XML_TYPE)
+                .post(ClientResponse.class, this.getClass().getResourceAsStream("cppunit/cppunit-valid-input.xml"));
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        File cppunitJunitFile = clientResponse.getEntity(File.class);
+        Assert.assertNotNull(cppunitJunitFile);
+        InputMetric inputMetricCppUnit = InputMetricFactory.getInstance(CppUnit.class);
+        Assert.assertTrue(inputMetricCppUnit.validateOutputFile(cppunitJunitFile));
+    }
+
+    @Test
+    public void convertInputStreamNoValidInput() throws Exception {
+        ClientResponse clientResponse = webResource.path(";name=cppunit;format=junit")
+                .type(MediaType.APPLICATION_XML_TYPE)
+                .accept(MediaType.APPLICATION_XML_TYPE)
+                .post(ClientResponse.class, this.getClass().getResourceAsStream("cppunit/cppunit-novalid-input.xml"));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        String expectedResult = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><validationResult><valid>false</valid><errors><error><line>2</line><message>cvc-elt.1: Cannot find the declaration of element 'TestRun2'.</message><type>ERROR</type></error></errors></validationResult>";
+        Assert.assertEquals(expectedResult, clientResponse.getEntity(String.class));
+    }
 
 }
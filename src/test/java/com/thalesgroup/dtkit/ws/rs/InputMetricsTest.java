@@ -17,6 +17,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.JAXBContext;
@@ -26,6 +27,7 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.Iterator;
 
 
@@ -130,4 +132,70 @@ public class InputMetricsTest extends InputMetricsAbstractTest {
         ClientResponse clientResponse = webResource.path("/xsd;name=notExistMetric").get(ClientResponse.class);
         Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), clientResponse.getStatus());
     }
+
+    @Test
+    public void getInputMetricsNotModified() {
+        ClientResponse clientResponse = webResource.accept(MediaType.APPLICATION_XML_TYPE).get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        EntityTag entityTag = clientResponse.getEntityTag();
+        Assert.assertNotNull(entityTag);
+        Assert.assertNotNull(clientResponse.getHeaders().getFirst("Cache-Control"));
+
+        clientResponse = webResource.accept(MediaType.APPLICATION_XML_TYPE).header("If-None-Match", entityTag.toString()).get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), clientResponse.getStatus());
+        Assert.assertEquals(entityTag, clientResponse.getEntityTag());
+    }
+
+    @Test
+    public void getInputMetricsTagDependsOnMediaType() {
+        EntityTag xmlTag = webResource.accept(MediaType.APPLICATION_XML_TYPE).get(ClientResponse.class).getEntityTag();
+        ClientResponse clientResponse = webResource.accept(MediaType.APPLICATION_JSON_TYPE).header("If-None-Match", xmlTag.toString()).get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        Assert.assertFalse(xmlTag.equals(clientResponse.getEntityTag()));
+    }
+
+    @Test
+    public void getXSDNotModified() {
+        ClientResponse clientResponse = webResource.path("/xsd;name=cppunit;format=junit").get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+        EntityTag entityTag = clientResponse.getEntityTag();
+        Assert.assertNotNull(entityTag);
+
+        clientResponse = webResource.path("/xsd;name=cppunit;format=junit").header("If-None-Match", entityTag.toString()).get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), clientResponse.getStatus());
+    }
+
+    //The pages are followed through their Link header until the listing is exhausted
+    @Test
+    public void getInputMetricsPages() {
+        int expected = inputMetricEmbeddedDAO.getInputMetrics().size();
+        int count = 0;
+        int pages = 0;
+        ClientResponse clientResponse = webResource.queryParam("limit", "2").accept(MediaType.APPLICATION_XML_TYPE).get(ClientResponse.class);
+        while (true) {
+            Assert.assertEquals(Response.Status.OK.getStatusCode(), clientResponse.getStatus());
+            int pageSize = clientResponse.getEntity(InputMetricsResult.class).getMetrics().size();
+            Assert.assertTrue(pageSize <= 2);
+            count += pageSize;
+            pages++;
+            String link = clientResponse.getHeaders().getFirst("Link");
+            if (link == null) {
+                break;
+            }
+            Assert.assertTrue(link.endsWith("; rel=\"next\""));
+            Assert.assertEquals(2, pageSize);
+            URI next = URI.create(link.substring(link.indexOf('<') + 1, link.indexOf('>')));
+            Assert.assertNotNull(next.getQuery());
+            Assert.assertTrue(next.getQuery().contains("cursor="));
+            clientResponse = client().resource(next).accept(MediaType.APPLICATION_XML_TYPE).get(ClientResponse.class);
+        }
+        Assert.assertEquals(expected, count);
+        Assert.assertEquals(Math.max(1, (expected + 1) / 2), pages);
+    }
+
+    @Test
+    public void getInputMetricsPageOverMaxLimit() {
+        ClientResponse clientResponse = webResource.queryParam("limit", Integer.toString(InputMetrics.MAX_LIMIT + 1)).accept(MediaType.APPLICATION_XML_TYPE).get(ClientResponse.class);
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), clientResponse.getStatus());
+    }
 }
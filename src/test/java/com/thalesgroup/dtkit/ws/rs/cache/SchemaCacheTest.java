@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.validation.Schema;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+
+public class SchemaCacheTest {
+
+    private SchemaCache schemaCache;
+
+    private File getResourceFile(String name) throws URISyntaxException {
+        return new File(this.getClass().getResource("/com/thalesgroup/dtkit/ws/rs/cppunit/" + name).toURI());
+    }
+
+    @Before
+    public void createCache() {
+        schemaCache = new SchemaCache(10);
+    }
+
+    @Test
+    public void compiledOnce() throws Exception {
+        Schema first = schemaCache.getSchema(getResourceFile("cppunit-input.xsd"));
+        Schema second = schemaCache.getSchema(getResourceFile("cppunit-input.xsd"));
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, schemaCache.getCache().getHitCount());
+        Assert.assertEquals(1, schemaCache.getCache().getMissCount());
+    }
+
+    @Test
+    public void validateWithCachedSchema() throws Exception {
+        Schema schema = schemaCache.getSchema(getResourceFile("cppunit-input.xsd"));
+        Assert.assertEquals(0, schemaCache.validate(schema, getResourceFile("cppunit-valid-input.xml")).size());
+        Assert.assertEquals(1, schemaCache.validate(schema, getResourceFile("cppunit-novalid-input.xml")).size());
+    }
+
+    @Test
+    public void embeddedNotEvicted() throws Exception {
+        schemaCache = new SchemaCache(1);
+        URL[] xsdURLs = {getResourceFile("cppunit-input.xsd").toURI().toURL()};
+        Schema embedded = schemaCache.getSchema("embedded", xsdURLs);
+        schemaCache.getSchema(getResourceFile("cppunit-input.xsd"));
+        schemaCache.getSchema("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"><xs:element name=\"a\"/></xs:schema>");
+        Assert.assertSame(embedded, schemaCache.getSchema("embedded", xsdURLs));
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.transform.Templates;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+
+public class TemplatesCacheTest {
+
+    private TemplatesCache templatesCache;
+
+    private String xslContent;
+
+    @Before
+    public void loadXsl() throws IOException {
+        templatesCache = new TemplatesCache(2);
+        InputStream inputStream = this.getClass().getResourceAsStream("/com/thalesgroup/dtkit/ws/rs/cppunit/cppunit-to-junit.xsl");
+        try {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = inputStream.read()) != -1) {
+                sb.append((char) c);
+            }
+            xslContent = sb.toString();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void compiledOnce() {
+        Templates first = templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent);
+        Templates second = templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, templatesCache.getCache().getHitCount());
+        Assert.assertEquals(1, templatesCache.getCache().getMissCount());
+    }
+
+    @Test
+    public void recompiledWhenContentChanges() {
+        Templates first = templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent);
+        Templates second = templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent + "\n<!-- changed -->");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, templatesCache.getCache().size());
+    }
+
+    @Test
+    public void invalidate() {
+        Templates first = templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent);
+        templatesCache.invalidate("{cppunit,1,test,junit}");
+        Assert.assertEquals(0, templatesCache.getCache().size());
+        Assert.assertNotSame(first, templatesCache.getTemplates("{cppunit,1,test,junit}", xslContent));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        templatesCache.getTemplates("a", xslContent);
+        templatesCache.getTemplates("b", xslContent);
+        templatesCache.getTemplates("a", xslContent);
+        templatesCache.getTemplates("c", xslContent);
+        Assert.assertEquals(2, templatesCache.getCache().size());
+        Assert.assertEquals(1, templatesCache.getCache().getEvictionCount());
+        Assert.assertNotNull(templatesCache.getCache().get("a"));
+        Assert.assertNull(templatesCache.getCache().get("b"));
+    }
+
+    @Test
+    public void embeddedNotEvicted() {
+        URL xslURL = this.getClass().getResource("/com/thalesgroup/dtkit/ws/rs/cppunit/cppunit-to-junit.xsl");
+        Templates embedded = templatesCache.getTemplates("embedded", xslURL);
+        templatesCache.getTemplates("a", xslContent);
+        templatesCache.getTemplates("b", xslContent);
+        templatesCache.getTemplates("c", xslContent);
+        Assert.assertSame(embedded, templatesCache.getTemplates("embedded", xslURL));
+    }
+}
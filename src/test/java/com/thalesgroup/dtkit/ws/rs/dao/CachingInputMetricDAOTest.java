@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+
+
+public class CachingInputMetricDAOTest {
+
+    private int readCount;
+
+    private boolean unavailable;
+
+    private boolean writeDuringRead;
+
+    private CachingInputMetricDAO cachingInputMetricDAO;
+
+    @Before
+    public void createDAO() {
+        readCount = 0;
+        unavailable = false;
+        writeDuringRead = false;
+        InputMetricDAO countingDAO = new InputMetricDAO() {
+            public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+                return StoreResult.CREATED;
+            }
+
+            public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+                return StoreResult.REMOVED;
+            }
+
+            public long getCount() {
+                return 0;
+            }
+
+            public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+                readCount++;
+                return Collections.emptyList();
+            }
+
+            public Collection<? extends InputMetric> getInputMetrics() {
+                readCount++;
+                if (unavailable) {
+                    throw new StoreUnavailableException("unavailable", 1000);
+                }
+                if (writeDuringRead) {
+                    cachingInputMetricDAO.delete("cppunit", "1", InputType.TEST, null);
+                }
+                return Collections.emptyList();
+            }
+
+            public InputMetricIterator iterateInputMetrics(String position, int limit) {
+                return new ListInputMetricIterator(Collections.<InputMetric>emptyList(), position, limit);
+            }
+
+            public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+                readCount++;
+                return null;
+            }
+
+            public boolean isPersistenceStore() {
+                return true;
+            }
+
+            public String getStoreName() {
+                return "counting";
+            }
+        };
+        cachingInputMetricDAO = new CachingInputMetricDAO(countingDAO, 10, 60000);
+    }
+
+    @Test
+    public void readThrough() {
+        cachingInputMetricDAO.getInputMetric(new InputMetricSelector("cppunit", null, null, "junit"));
+        cachingInputMetricDAO.getInputMetric(new InputMetricSelector("CPPUNIT", null, null, "JUnit"));
+        cachingInputMetricDAO.getXSD(new InputMetricSelector("cppunit", null, null, "junit"));
+        cachingInputMetricDAO.getXSD(new InputMetricSelector("cppunit", null, null, "junit"));
+        Assert.assertEquals(2, readCount);
+        Assert.assertEquals(1, cachingInputMetricDAO.getMetricsCache().getHitCount());
+        Assert.assertEquals(1, cachingInputMetricDAO.getXsdCache().getHitCount());
+    }
+
+    @Test
+    public void invalidatedOnWrite() {
+        cachingInputMetricDAO.getInputMetric(new InputMetricSelector("cppunit", null, null, "junit"));
+        cachingInputMetricDAO.delete("cppunit", "1", InputType.TEST, null);
+        cachingInputMetricDAO.getInputMetric(new InputMetricSelector("cppunit", null, null, "junit"));
+        Assert.assertEquals(2, readCount);
+    }
+
+    @Test
+    public void writeDuringReadNotCached() {
+        writeDuringRead = true;
+        cachingInputMetricDAO.getInputMetrics();
+        writeDuringRead = false;
+        cachingInputMetricDAO.getInputMetrics();
+        Assert.assertEquals(2, readCount);
+        Assert.assertEquals(0, cachingInputMetricDAO.getMetricsCache().getHitCount());
+    }
+
+    @Test
+    public void expired() throws InterruptedException {
+        cachingInputMetricDAO = new CachingInputMetricDAO(cachingInputMetricDAO.getDelegate(), 10, 1);
+        cachingInputMetricDAO.getInputMetrics();
+        Thread.sleep(5);
+        cachingInputMetricDAO.getInputMetrics();
+        Assert.assertEquals(2, readCount);
+        Assert.assertEquals(1, cachingInputMetricDAO.getMetricsCache().getExpirationCount());
+    }
+
+    @Test
+    public void staleWhileUnavailable() throws InterruptedException {
+        cachingInputMetricDAO = new CachingInputMetricDAO(cachingInputMetricDAO.getDelegate(), 10, 1);
+        Collection<? extends InputMetric> metrics = cachingInputMetricDAO.getInputMetrics();
+        Thread.sleep(5);
+        unavailable = true;
+        Assert.assertSame(metrics, cachingInputMetricDAO.getInputMetrics());
+        Assert.assertEquals(2, readCount);
+
+        cachingInputMetricDAO.delete("cppunit", "1", InputType.TEST, null);
+        try {
+            cachingInputMetricDAO.getInputMetrics();
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+        }
+    }
+}
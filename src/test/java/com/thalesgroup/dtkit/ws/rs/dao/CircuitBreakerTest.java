@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.mongodb.MongoException;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContent;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricContentLoader;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class CircuitBreakerTest {
+
+    private static class FailingDAO implements InputMetricDAO {
+
+        private boolean failing = true;
+
+        private int callCount;
+
+        private List<InputMetric> metrics = Collections.emptyList();
+
+        public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+            return StoreResult.CREATED;
+        }
+
+        public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+            return StoreResult.REMOVED;
+        }
+
+        public long getCount() {
+            return 0;
+        }
+
+        public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+            callCount++;
+            if (failing) {
+                throw new MongoException("down");
+            }
+            return metrics;
+        }
+
+        public Collection<? extends InputMetric> getInputMetrics() {
+            return getInputMetric(null);
+        }
+
+        public InputMetricIterator iterateInputMetrics(String position, int limit) {
+            return new ListInputMetricIterator(Collections.<InputMetric>emptyList(), position, limit);
+        }
+
+        public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+            return null;
+        }
+
+        public boolean isPersistenceStore() {
+            return true;
+        }
+
+        public String getStoreName() {
+            return "mongo";
+        }
+    }
+
+    @Test
+    public void opensOnFailureRate() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(4, 50, 1000, 60000);
+        for (int i = 0; i < 3; i++) {
+            long permit = circuitBreaker.tryAcquire();
+            Assert.assertTrue(permit != CircuitBreaker.REFUSED);
+            circuitBreaker.record(permit, 0, i == 0);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 0, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(CircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+        Assert.assertEquals(1, circuitBreaker.getOpenedCount());
+        Assert.assertEquals(1, circuitBreaker.getRejectedCount());
+        Assert.assertTrue(circuitBreaker.getRetryAfterMillis() > 0);
+    }
+
+    @Test
+    public void slowCallsCount() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100, 10, 60000);
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 20000000L, false);
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 20000000L, false);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void singleProbeWhenHalfOpen() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 1000, 1);
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 0, true);
+        Thread.sleep(5);
+
+        long probe = circuitBreaker.tryAcquire();
+        Assert.assertTrue(probe != CircuitBreaker.REFUSED);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertEquals(CircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+        circuitBreaker.record(probe, 0, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(2, circuitBreaker.getOpenedCount());
+
+        Thread.sleep(5);
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 0, false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.tryAcquire() != CircuitBreaker.REFUSED);
+    }
+
+    @Test
+    public void lateCallIsNotTheProbe() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 1000, 1);
+        long late = circuitBreaker.tryAcquire();
+        circuitBreaker.record(circuitBreaker.tryAcquire(), 0, true);
+        Thread.sleep(5);
+
+        long probe = circuitBreaker.tryAcquire();
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        //Admitted while closed, it finishes during the probe and must not decide for it
+        circuitBreaker.record(late, 0, false);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertEquals(CircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+
+        circuitBreaker.record(probe, 0, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    private static InputMetricDB storedMetric(final AtomicInteger loadCount) {
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setContentLoader(new InputMetricContentLoader() {
+            public InputMetricContent load(ObjectId contentId) {
+                loadCount.incrementAndGet();
+                return null;
+            }
+        });
+        return inputMetricDB;
+    }
+
+    @Test
+    public void contentLoadsGuarded() {
+        FailingDAO failingDAO = new FailingDAO();
+        failingDAO.failing = false;
+        CircuitBreakerInputMetricDAO circuitBreakerDAO = new CircuitBreakerInputMetricDAO(failingDAO, "mongo", new CircuitBreaker(1, 100, 1000, 60000), new Bulkhead(1));
+
+        //A selected metric is loaded within the lookup
+        AtomicInteger loadCount = new AtomicInteger();
+        InputMetricDB selected = storedMetric(loadCount);
+        failingDAO.metrics = Collections.<InputMetric>singletonList(selected);
+        circuitBreakerDAO.getInputMetric(null);
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertNull(selected.getContentLoader());
+
+        //A listed metric is loaded lazily, the call is refused once the breaker is open
+        InputMetricDB listed = storedMetric(loadCount);
+        failingDAO.metrics = Collections.<InputMetric>singletonList(listed);
+        circuitBreakerDAO.getInputMetrics();
+        Assert.assertNotNull(listed.getContentLoader());
+        failingDAO.failing = true;
+        try {
+            circuitBreakerDAO.getInputMetrics();
+            Assert.fail();
+        } catch (MongoException expected) {
+        }
+        try {
+            listed.getXslContent();
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+        }
+        Assert.assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void bulkheadRefusesBeyondLimit() {
+        Bulkhead bulkhead = new Bulkhead(2);
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertFalse(bulkhead.tryAcquire());
+        Assert.assertEquals(2, bulkhead.getInUse());
+        Assert.assertEquals(1, bulkhead.getRejectedCount());
+        bulkhead.release();
+        Assert.assertTrue(bulkhead.tryAcquire());
+    }
+
+    @Test
+    public void storeRefusedOnceOpen() {
+        FailingDAO failingDAO = new FailingDAO();
+        Bulkhead bulkhead = new Bulkhead(1);
+        CircuitBreakerInputMetricDAO circuitBreakerDAO = new CircuitBreakerInputMetricDAO(failingDAO, "mongo", new CircuitBreaker(2, 100, 1000, 60000), bulkhead);
+        for (int i = 0; i < 2; i++) {
+            try {
+                circuitBreakerDAO.getInputMetrics();
+                Assert.fail();
+            } catch (MongoException expected) {
+            }
+        }
+        failingDAO.failing = false;
+        try {
+            circuitBreakerDAO.getInputMetrics();
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+            Assert.assertTrue(expected.getRetryAfterMillis() > 0);
+        }
+        Assert.assertEquals(2, failingDAO.callCount);
+        Assert.assertEquals(0, bulkhead.getInUse());
+    }
+}
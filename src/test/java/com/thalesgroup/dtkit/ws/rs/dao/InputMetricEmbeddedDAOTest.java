@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.ws.rs.cache.ContentDigest;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class InputMetricEmbeddedDAOTest {
+
+    @Test
+    public void xsdBuiltOnce() throws Exception {
+        InputMetricEmbeddedDAO inputMetricEmbeddedDAO = new InputMetricEmbeddedDAO();
+        InputMetricSelector selector = new InputMetricSelector("cppunit", null, null, "junit");
+        XsdPayload xsdPayload = inputMetricEmbeddedDAO.getXSD(selector);
+        Assert.assertNotNull(xsdPayload);
+        Assert.assertSame(xsdPayload, inputMetricEmbeddedDAO.getXSD(selector));
+
+        byte[] content = xsdPayload.toByteArray();
+        Assert.assertEquals(content.length, xsdPayload.getLength());
+        Assert.assertEquals(ContentDigest.of(content), xsdPayload.getEntityTag().getValue());
+    }
+}
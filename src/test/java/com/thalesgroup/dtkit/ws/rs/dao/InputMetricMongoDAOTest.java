@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.google.code.morphia.Morphia;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Mongo;
+import com.mongodb.MongoException;
+import com.thalesgroup.dtkit.metrics.model.AbstractOutputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+
+//Needs a Mongo server on localhost, the tests are skipped without it
+public class InputMetricMongoDAOTest {
+
+    private static final String DB_NAME = "dtkit-test";
+
+    private static final OutputMetric JUNIT = new AbstractOutputMetric() {
+        @Override
+        public String getKey() {
+            return "junit";
+        }
+
+        @Override
+        public String getDescription() {
+            return "junit";
+        }
+
+        @Override
+        public String getVersion() {
+            return "1.0";
+        }
+
+        @Override
+        public String[] getXsdNameList() {
+            return null;
+        }
+    };
+
+    private Mongo mongo;
+
+    private InputMetricMongoDAO inputMetricMongoDAO;
+
+    private File xsl;
+
+    @Before
+    public void connect() throws Exception {
+        mongo = new Mongo("localhost", 27017);
+        try {
+            mongo.getDB(DB_NAME).command(new BasicDBObject("ping", 1)).throwOnError();
+        } catch (MongoException me) {
+            Assume.assumeNoException(me);
+        } catch (RuntimeException re) {
+            Assume.assumeNoException(re);
+        }
+        mongo.dropDatabase(DB_NAME);
+        inputMetricMongoDAO = Guice.createInjector(new AbstractModule() {
+            @Override
+            public void configure() {
+                bind(Mongo.class).toInstance(mongo);
+                bind(Morphia.class);
+                bind(String.class).toInstance(DB_NAME);
+            }
+        }).getInstance(InputMetricMongoDAO.class);
+        xsl = write("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"/>");
+    }
+
+    @After
+    public void drop() {
+        if (inputMetricMongoDAO != null) {
+            mongo.dropDatabase(DB_NAME);
+            xsl.delete();
+        }
+        mongo.close();
+    }
+
+    private static File write(String content) throws IOException {
+        File file = File.createTempFile("dtkit-test", ".xsl");
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private InputMetricDB get() {
+        Collection<? extends InputMetric> metrics = inputMetricMongoDAO.getInputMetric(new InputMetricSelector("custom", "1.0", InputType.TEST.name(), "junit"));
+        Assert.assertEquals(1, metrics.size());
+        return (InputMetricDB) metrics.iterator().next();
+    }
+
+    @Test
+    public void insertThenReplace() throws Exception {
+        Assert.assertEquals(StoreResult.CREATED, inputMetricMongoDAO.insert("custom", "1.0", InputType.TEST, xsl, null, JUNIT));
+        Assert.assertEquals(1, inputMetricMongoDAO.getCount());
+        Assert.assertEquals(StoreResult.REPLACED, inputMetricMongoDAO.insert("custom", "1.0", InputType.TEST, xsl, null, JUNIT));
+        Assert.assertEquals(1, inputMetricMongoDAO.getCount());
+    }
+
+    @Test
+    public void deleteThenNotFound() throws Exception {
+        Assert.assertEquals(StoreResult.NOT_FOUND, inputMetricMongoDAO.delete("custom", "1.0", InputType.TEST, JUNIT));
+        inputMetricMongoDAO.insert("custom", "1.0", InputType.TEST, xsl, null, JUNIT);
+        Assert.assertEquals(StoreResult.REMOVED, inputMetricMongoDAO.delete("custom", "1.0", InputType.TEST, JUNIT));
+        Assert.assertEquals(StoreResult.NOT_FOUND, inputMetricMongoDAO.delete("custom", "1.0", InputType.TEST, JUNIT));
+        Assert.assertEquals(0, inputMetricMongoDAO.getCount());
+    }
+
+    //A metric read before the replacement still loads its own content
+    @Test
+    public void replacedContentStaysReadable() throws Exception {
+        inputMetricMongoDAO.insert("custom", "1.0", InputType.TEST, xsl, null, JUNIT);
+        InputMetricDB before = get();
+        File otherXsl = write("<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"/>");
+        try {
+            inputMetricMongoDAO.insert("custom", "1.0", InputType.TEST, otherXsl, null, JUNIT);
+        } finally {
+            otherXsl.delete();
+        }
+        Assert.assertTrue(before.getXslContent().contains("version=\"1.0\""));
+        Assert.assertTrue(get().getXslContent().contains("version=\"2.0\""));
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+
+public class InputMetricsCursorTest {
+
+    private static class ListDAO implements InputMetricDAO {
+
+        private final String storeName;
+
+        private final List<InputMetric> metrics = new ArrayList<InputMetric>();
+
+        private ListDAO(String storeName, String... names) {
+            this.storeName = storeName;
+            for (String name : names) {
+                InputMetricDB inputMetricDB = new InputMetricDB();
+                inputMetricDB.setToolName(name);
+                metrics.add(inputMetricDB);
+            }
+        }
+
+        public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+            return StoreResult.CREATED;
+        }
+
+        public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+            return StoreResult.REMOVED;
+        }
+
+        public long getCount() {
+            return metrics.size();
+        }
+
+        public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+            return metrics;
+        }
+
+        public Collection<? extends InputMetric> getInputMetrics() {
+            return metrics;
+        }
+
+        public InputMetricIterator iterateInputMetrics(String position, int limit) {
+            return new ListInputMetricIterator(metrics, position, limit);
+        }
+
+        public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+            return null;
+        }
+
+        public boolean isPersistenceStore() {
+            return false;
+        }
+
+        public String getStoreName() {
+            return storeName;
+        }
+    }
+
+    private final List<InputMetricDAO> inputMetricDAOList = Arrays.<InputMetricDAO>asList(new ListDAO("first", "a", "b", "c"), new ListDAO("empty"), new ListDAO("last", "d", "e"));
+
+    private List<String> readPage(InputMetricsCursor inputMetricsCursor) {
+        List<String> names = new ArrayList<String>();
+        while (inputMetricsCursor.hasNext()) {
+            names.add(inputMetricsCursor.next().getToolName());
+        }
+        return names;
+    }
+
+    @Test
+    public void allStores() {
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), readPage(new InputMetricsCursor(inputMetricDAOList, null, 0)));
+    }
+
+    @Test
+    public void pages() {
+        List<String> names = new ArrayList<String>();
+        String cursor = null;
+        int pageCount = 0;
+        while (true) {
+            InputMetricsCursor inputMetricsCursor = new InputMetricsCursor(inputMetricDAOList, cursor, 2);
+            List<String> page = readPage(inputMetricsCursor);
+            if (page.isEmpty()) {
+                break;
+            }
+            Assert.assertTrue(page.size() <= 2);
+            names.addAll(page);
+            cursor = inputMetricsCursor.getCursor();
+            pageCount++;
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), names);
+        Assert.assertEquals(3, pageCount);
+    }
+
+    @Test
+    public void cursorNamesTheStore() {
+        InputMetricsCursor inputMetricsCursor = new InputMetricsCursor(inputMetricDAOList, null, 4);
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), readPage(inputMetricsCursor));
+        Assert.assertEquals("last:0", inputMetricsCursor.getCursor());
+
+        //A store attached before the cursor's one doesn't shift it
+        List<InputMetricDAO> reordered = Arrays.<InputMetricDAO>asList(new ListDAO("other", "x"), inputMetricDAOList.get(0), inputMetricDAOList.get(2));
+        inputMetricsCursor = new InputMetricsCursor(reordered, "last:0", 4);
+        Assert.assertEquals(Arrays.asList("e"), readPage(inputMetricsCursor));
+        Assert.assertEquals("last:1", inputMetricsCursor.getCursor());
+        Assert.assertFalse(new InputMetricsCursor(reordered, inputMetricsCursor.getCursor(), 1).hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCursor() {
+        new InputMetricsCursor(inputMetricDAOList, ":1", 2);
+    }
+
+    @Test(expected = StoreUnavailableException.class)
+    public void absentStore() {
+        new InputMetricsCursor(inputMetricDAOList, "mongo:1", 2);
+    }
+}
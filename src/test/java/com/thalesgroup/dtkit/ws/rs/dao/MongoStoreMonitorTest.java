@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.dao;
+
+import com.mongodb.Mongo;
+import com.mongodb.MongoException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+public class MongoStoreMonitorTest {
+
+    private static class FakeMonitor extends MongoStoreMonitor {
+
+        private final InputMetricDAO store = new CachingInputMetricDAO(null, 1, 1);
+
+        private boolean reachable;
+
+        private int created;
+
+        private FakeMonitor(List<InputMetricDAO> inputMetricDAOList) {
+            super(inputMetricDAOList, "localhost", 27017, "metrics", 1000);
+        }
+
+        @Override
+        protected void ping() {
+            if (!reachable) {
+                throw new MongoException("unreachable");
+            }
+        }
+
+        @Override
+        protected InputMetricDAO createStore(Mongo mongo, String dbName) {
+            created++;
+            return store;
+        }
+    }
+
+    @Test
+    public void storeFollowsReachability() {
+        List<InputMetricDAO> inputMetricDAOList = new CopyOnWriteArrayList<InputMetricDAO>();
+        FakeMonitor fakeMonitor = new FakeMonitor(inputMetricDAOList);
+
+        fakeMonitor.check();
+        Assert.assertFalse(fakeMonitor.isAttached());
+        Assert.assertTrue(inputMetricDAOList.isEmpty());
+        Assert.assertEquals(0, fakeMonitor.created);
+
+        fakeMonitor.reachable = true;
+        fakeMonitor.check();
+        fakeMonitor.check();
+        Assert.assertTrue(fakeMonitor.isAttached());
+        Assert.assertEquals(Arrays.asList(fakeMonitor.store), inputMetricDAOList);
+
+        fakeMonitor.reachable = false;
+        fakeMonitor.check();
+        Assert.assertFalse(fakeMonitor.isAttached());
+        Assert.assertTrue(inputMetricDAOList.isEmpty());
+
+        fakeMonitor.reachable = true;
+        fakeMonitor.check();
+        Assert.assertEquals(Arrays.asList(fakeMonitor.store), inputMetricDAOList);
+        Assert.assertEquals(1, fakeMonitor.created);
+    }
+
+    @Test
+    public void unreachableServer() {
+        List<InputMetricDAO> inputMetricDAOList = new CopyOnWriteArrayList<InputMetricDAO>();
+        MongoStoreMonitor mongoStoreMonitor = new MongoStoreMonitor(inputMetricDAOList, "localhost", 1, "metrics", 500) {
+            @Override
+            protected InputMetricDAO createStore(Mongo mongo, String dbName) {
+                throw new AssertionError("The store must not be created");
+            }
+        };
+        mongoStoreMonitor.check();
+        Assert.assertFalse(mongoStoreMonitor.isAttached());
+        Assert.assertTrue(inputMetricDAOList.isEmpty());
+        mongoStoreMonitor.stop();
+    }
+}
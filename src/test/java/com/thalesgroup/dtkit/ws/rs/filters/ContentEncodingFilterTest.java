@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.filters;
+
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+import com.sun.jersey.spi.container.WebApplication;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.io.*;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+public class ContentEncodingFilterTest {
+
+    private static final int THRESHOLD = 64;
+
+    //Not initialized, the requests and responses only need it for tracing
+    private static final WebApplication WEB_APPLICATION = WebApplicationFactory.createWebApplication();
+
+    private final ContentEncodingFilter filter = new ContentEncodingFilter(THRESHOLD);
+
+    private static class RecordingWriter implements ContainerResponseWriter {
+
+        private final ByteArrayOutputStream entity = new ByteArrayOutputStream();
+
+        private long contentLength;
+
+        private boolean finished;
+
+        public OutputStream writeStatusAndHeaders(long contentLength, ContainerResponse response) {
+            this.contentLength = contentLength;
+            return entity;
+        }
+
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    private static ContainerRequest newRequest(String header, String value, InputStream entity) {
+        InBoundHeaders headers = new InBoundHeaders();
+        if (header != null) {
+            headers.putSingle(header, value);
+        }
+        return new ContainerRequest(WEB_APPLICATION, "POST", URI.create("http://localhost/"), URI.create("http://localhost/inputMetricsConversion"), headers, entity);
+    }
+
+    //Writes the entity through the response writer set up by the filter, as Jersey does
+    private static ContainerResponse write(ContentEncodingFilter filter, String acceptEncoding, byte[] content, long contentLength, RecordingWriter recordingWriter) throws IOException {
+        ContainerResponse response = new ContainerResponse(WEB_APPLICATION, null, recordingWriter);
+        response.setEntity(content);
+        filter.filter(newRequest("Accept-Encoding", acceptEncoding, null), response);
+        OutputStream outputStream = response.getContainerResponseWriter().writeStatusAndHeaders(contentLength, response);
+        outputStream.write(content);
+        response.getContainerResponseWriter().finish();
+        return response;
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return content;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int wasRead;
+        while ((wasRead = inputStream.read(buffer)) != -1) {
+            byteArrayOutputStream.write(buffer, 0, wasRead);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Test
+    public void negotiate() {
+        Assert.assertNull(ContentEncodingFilter.negotiate(null));
+        Assert.assertNull(ContentEncodingFilter.negotiate("identity"));
+        Assert.assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.negotiate("gzip, deflate"));
+        Assert.assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.negotiate("*"));
+        Assert.assertEquals(ContentEncodingFilter.DEFLATE, ContentEncodingFilter.negotiate("gzip;q=0.5, deflate"));
+        Assert.assertEquals(ContentEncodingFilter.DEFLATE, ContentEncodingFilter.negotiate("gzip;q=0, *"));
+        Assert.assertNull(ContentEncodingFilter.negotiate("gzip;q=0, deflate;q=0"));
+    }
+
+    @Test
+    public void largeEntityOfUnknownSizeIsCompressed() throws IOException {
+        byte[] content = content(THRESHOLD * 10);
+        RecordingWriter recordingWriter = new RecordingWriter();
+        ContainerResponse response = write(filter, "gzip", content, -1, recordingWriter);
+
+        Assert.assertEquals("gzip", response.getHttpHeaders().getFirst("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHttpHeaders().getFirst("Vary"));
+        Assert.assertEquals(-1, recordingWriter.contentLength);
+        Assert.assertTrue(recordingWriter.finished);
+        Assert.assertArrayEquals(content, read(new GZIPInputStream(new ByteArrayInputStream(recordingWriter.entity.toByteArray()))));
+    }
+
+    @Test
+    public void largeEntityOfKnownSizeIsDeflated() throws IOException {
+        byte[] content = content(THRESHOLD * 10);
+        RecordingWriter recordingWriter = new RecordingWriter();
+        ContainerResponse response = write(filter, "deflate", content, content.length, recordingWriter);
+
+        Assert.assertEquals("deflate", response.getHttpHeaders().getFirst("Content-Encoding"));
+        Assert.assertEquals(-1, recordingWriter.contentLength);
+        Assert.assertArrayEquals(content, read(new InflaterInputStream(new ByteArrayInputStream(recordingWriter.entity.toByteArray()))));
+    }
+
+    @Test
+    public void smallEntityIsNotCompressed() throws IOException {
+        byte[] content = content(THRESHOLD - 1);
+        RecordingWriter recordingWriter = new RecordingWriter();
+        ContainerResponse response = write(filter, "gzip", content, -1, recordingWriter);
+
+        Assert.assertNull(response.getHttpHeaders().getFirst("Content-Encoding"));
+        Assert.assertEquals(content.length, recordingWriter.contentLength);
+        Assert.assertTrue(recordingWriter.finished);
+        Assert.assertArrayEquals(content, recordingWriter.entity.toByteArray());
+    }
+
+    @Test
+    public void gzipRequestIsDecoded() throws IOException {
+        byte[] content = content(THRESHOLD * 10);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(content);
+        gzipOutputStream.close();
+
+        ContainerRequest request = filter.filter(newRequest("Content-Encoding", "gzip", new ByteArrayInputStream(compressed.toByteArray())));
+        Assert.assertNull(request.getHeaderValue("Content-Encoding"));
+        Assert.assertArrayEquals(content, read(request.getEntityInputStream()));
+    }
+
+    @Test
+    public void gzipRequestOverLimitIsRejected() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(new byte[THRESHOLD * 100]);
+        gzipOutputStream.close();
+
+        ContentEncodingFilter limitedFilter = new ContentEncodingFilter(THRESHOLD, THRESHOLD * 10);
+        ContainerRequest request = limitedFilter.filter(newRequest("Content-Encoding", "gzip", new ByteArrayInputStream(compressed.toByteArray())));
+        try {
+            read(request.getEntityInputStream());
+            Assert.fail("The decoded entity exceeds the limit");
+        } catch (WebApplicationException wae) {
+            Assert.assertEquals(413, wae.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void tagIsWeakForEncodingClients() throws IOException {
+        EntityTag entityTag = new EntityTag("metrics");
+
+        ContainerResponse response = new ContainerResponse(WEB_APPLICATION, null, new RecordingWriter());
+        response.setEntity(content(THRESHOLD * 10));
+        response.getHttpHeaders().putSingle("ETag", entityTag);
+        filter.filter(newRequest("Accept-Encoding", "gzip", null), response);
+        Assert.assertEquals(new EntityTag("metrics", true), response.getHttpHeaders().getFirst("ETag"));
+
+        response = new ContainerResponse(WEB_APPLICATION, null, new RecordingWriter());
+        response.setEntity(content(THRESHOLD * 10));
+        response.getHttpHeaders().putSingle("ETag", entityTag);
+        filter.filter(newRequest(null, null, null), response);
+        Assert.assertEquals(entityTag, response.getHttpHeaders().getFirst("ETag"));
+        Assert.assertEquals("Accept-Encoding", response.getHttpHeaders().getFirst("Vary"));
+    }
+
+    @Test
+    public void notModifiedVariesOnAcceptEncoding() throws IOException {
+        ContainerResponse response = new ContainerResponse(WEB_APPLICATION, null, new RecordingWriter());
+        response.setResponse(Response.notModified(new EntityTag("metrics")).build());
+        filter.filter(newRequest("Accept-Encoding", "gzip", null), response);
+        Assert.assertEquals("Accept-Encoding", response.getHttpHeaders().getFirst("Vary"));
+        Assert.assertEquals(new EntityTag("metrics", true), response.getHttpHeaders().getFirst("ETag"));
+    }
+}
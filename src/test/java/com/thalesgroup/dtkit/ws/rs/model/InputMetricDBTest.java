@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.model;
+
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class InputMetricDBTest {
+
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+            + "<xs:element name=\"testsuite\" type=\"xs:string\"/></xs:schema>";
+
+    private static class CountingLoader implements InputMetricContentLoader {
+
+        private final InputMetricContent content;
+
+        private int loads;
+
+        private CountingLoader(InputMetricContent content) {
+            this.content = content;
+        }
+
+        public InputMetricContent load(ObjectId metricId) {
+            loads++;
+            return content;
+        }
+    }
+
+    @Test
+    public void contentIsCompressed() {
+        StringBuilder xsl = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            xsl.append("<xsl:template match=\"testcase\">é</xsl:template>");
+        }
+        InputMetricContent content = new InputMetricContent(new ObjectId(), xsl.toString(), null);
+        Assert.assertEquals(xsl.toString(), content.getXslContent());
+        Assert.assertNull(content.getXsdContent());
+    }
+
+    @Test
+    public void contentIsLoadedOnceWhenNeeded() throws Exception {
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setXsdContent(XSD);
+        String xsdDigest = inputMetricDB.getXsdDigest();
+        CountingLoader loader = new CountingLoader(new InputMetricContent(inputMetricDB.getId(), "<xsl/>", XSD));
+        inputMetricDB.setContentLoader(loader);
+
+        Assert.assertEquals(xsdDigest, inputMetricDB.getXsdDigest());
+        Assert.assertEquals(0, loader.loads);
+        Assert.assertEquals(XSD, inputMetricDB.getXsdContent());
+        Assert.assertEquals("<xsl/>", inputMetricDB.getXslContent());
+        Assert.assertEquals(1, loader.loads);
+    }
+
+    @Test
+    public void compiledSchemaNeedsNoContent() throws Exception {
+        InputMetricDB stored = new InputMetricDB();
+        stored.setXsdContent(XSD);
+        Assert.assertNotNull(stored.getSchema());
+
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setXsdContent(XSD);
+        CountingLoader loader = new CountingLoader(null);
+        inputMetricDB.setContentLoader(loader);
+        Assert.assertNotNull(inputMetricDB.getSchema());
+        Assert.assertEquals(0, loader.loads);
+    }
+
+    @Test
+    public void noXsdNeedsNoContent() throws Exception {
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        CountingLoader loader = new CountingLoader(null);
+        inputMetricDB.setContentLoader(loader);
+        Assert.assertNull(inputMetricDB.getSchema());
+        Assert.assertEquals(0, loader.loads);
+    }
+}
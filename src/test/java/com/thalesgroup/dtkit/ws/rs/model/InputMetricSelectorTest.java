@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class InputMetricSelectorTest {
+
+    private static InputMetricSelector selector(String toolName, String toolVersion) {
+        return new InputMetricSelector(toolName, toolVersion, null, (String) null);
+    }
+
+    @Test
+    public void sameCriteriaWithoutCase() {
+        InputMetricSelector selector = new InputMetricSelector("CppUnit", "1.0", "TEST", "JUnit");
+        Assert.assertEquals(new InputMetricSelector("cppunit", "1.0", "test", "junit"), selector);
+        Assert.assertEquals(new InputMetricSelector("cppunit", "1.0", "test", "junit").hashCode(), selector.hashCode());
+    }
+
+    @Test
+    public void separatorsInCriteria() {
+        Assert.assertFalse(selector("a,b", "c").equals(selector("a", "b,c")));
+        Assert.assertFalse(selector("a:b", null).equals(selector("a", ":b")));
+        Assert.assertFalse(selector("1:a", null).equals(selector("a", null)));
+    }
+
+    @Test
+    public void lengthOfNormalizedCriterion() {
+        //The dotted capital I is lower cased into two characters
+        String normalized = InputMetricSelector.normalize("\u0130");
+        Assert.assertEquals(2, normalized.length());
+        Assert.assertTrue(selector("\u0130", null).getKey().startsWith("2:" + normalized));
+    }
+
+    @Test
+    public void missingCriterion() {
+        Assert.assertFalse(selector("null", null).equals(selector(null, null)));
+        Assert.assertFalse(selector("-", null).equals(selector(null, null)));
+        Assert.assertFalse(selector("", null).equals(selector(null, null)));
+        Assert.assertFalse(selector(null, "a").equals(selector("a", null)));
+    }
+}
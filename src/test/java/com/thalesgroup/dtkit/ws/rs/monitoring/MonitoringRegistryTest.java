@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+
+public class MonitoringRegistryTest {
+
+    private final MonitoringRegistry monitoringRegistry = new MonitoringRegistry();
+
+    @Test
+    public void sameSeriesForEqualSelectors() {
+        OperationStats stats = monitoringRegistry.getRequestStats("GET /inputMetrics", new InputMetricSelector("cppunit", null, null, "junit"));
+        Assert.assertSame(stats, monitoringRegistry.getRequestStats("GET /inputMetrics", new InputMetricSelector("cppunit", null, null, "junit")));
+        Assert.assertNotSame(stats, monitoringRegistry.getRequestStats("GET /inputMetrics/xsd", new InputMetricSelector("cppunit", null, null, "junit")));
+        Assert.assertSame(monitoringRegistry.getRequestStats("GET /inputMetrics", null),
+                monitoringRegistry.getRequestStats("GET /inputMetrics", MonitoringRegistry.NO_SELECTOR));
+    }
+
+    @Test
+    public void seriesAreBounded() {
+        for (int i = 0; i < MonitoringRegistry.MAX_SERIES + 10; i++) {
+            monitoringRegistry.getRequestStats("GET /inputMetrics", new InputMetricSelector("metric" + i, null, null, (String) null));
+        }
+        Assert.assertEquals(MonitoringRegistry.MAX_SERIES + 1, monitoringRegistry.getRequestStats().size());
+    }
+
+    @Test
+    public void histogramBuckets() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        latencyHistogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        latencyHistogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        latencyHistogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        latencyHistogram.record(TimeUnit.SECONDS.toNanos(60));
+        long[] buckets = latencyHistogram.getBuckets();
+        Assert.assertEquals(2, buckets[0]);
+        Assert.assertEquals(1, buckets[2]);
+        Assert.assertEquals(1, buckets[LatencyHistogram.BOUNDS.length]);
+        Assert.assertEquals(60.0045, latencyHistogram.getSumSeconds(), 1e-9);
+    }
+
+    @Test
+    public void prometheusFormat() throws IOException {
+        monitoringRegistry.getRequestStats("POST /inputMetricsConversion", new InputMetricSelector("cppunit", null, null, "junit"))
+                .record(TimeUnit.MILLISECONDS.toNanos(20), false, 100, 50);
+        monitoringRegistry.getStoreStats("mongo", "select").record(TimeUnit.MILLISECONDS.toNanos(2), true, 0, 0);
+
+        StringWriter writer = new StringWriter();
+        MonitoringFormats.writePrometheus(monitoringRegistry, writer);
+        String text = writer.toString();
+        String labels = "endpoint=\"POST /inputMetricsConversion\",name=\"cppunit\",version=\"\",type=\"\",format=\"junit\"";
+        Assert.assertTrue(text.contains("# TYPE dtkit_http_request_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains("dtkit_http_requests_total{" + labels + "} 1\n"));
+        Assert.assertTrue(text.contains("dtkit_http_request_bytes_total{" + labels + "} 100\n"));
+        Assert.assertTrue(text.contains("dtkit_http_response_bytes_total{" + labels + "} 50\n"));
+        Assert.assertTrue(text.contains("dtkit_http_request_duration_seconds_bucket{" + labels + ",le=\"0.01\"} 0\n"));
+        Assert.assertTrue(text.contains("dtkit_http_request_duration_seconds_bucket{" + labels + ",le=\"0.025\"} 1\n"));
+        Assert.assertTrue(text.contains("dtkit_http_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(text.contains("dtkit_store_operation_errors_total{store=\"mongo\",operation=\"select\"} 1\n"));
+    }
+
+    @Test
+    public void jsonFormat() throws IOException {
+        monitoringRegistry.getRequestStats("GET /inputMetrics", null).record(TimeUnit.MILLISECONDS.toNanos(1), true, 0, 10);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MonitoringFormats.writeJSON(monitoringRegistry, outputStream);
+        JsonNode request = new ObjectMapper().readTree(outputStream.toString("UTF-8")).get("requests").get(0);
+        Assert.assertEquals("GET /inputMetrics", request.get("endpoint").getTextValue());
+        Assert.assertEquals(1, request.get("count").getLongValue());
+        Assert.assertEquals(1, request.get("errors").getLongValue());
+        Assert.assertEquals(10, request.get("bytesOut").getLongValue());
+        Assert.assertEquals(LatencyHistogram.BOUNDS.length + 1, request.get("latencyBuckets").size());
+    }
+}
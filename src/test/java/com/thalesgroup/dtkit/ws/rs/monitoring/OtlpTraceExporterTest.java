@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class OtlpTraceExporterTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    @Test
+    public void validTraceParent() {
+        String[] traceContext = OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID + "-" + PARENT_ID + "-01");
+        Assert.assertArrayEquals(new String[]{TRACE_ID, PARENT_ID}, traceContext);
+        //A later version may add fields
+        Assert.assertNotNull(OtlpTraceExporter.parseTraceParent("01-" + TRACE_ID + "-" + PARENT_ID + "-01-extra"));
+    }
+
+    @Test
+    public void malformedTraceParent() {
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent(null));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID + "-" + PARENT_ID));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID + "-" + PARENT_ID + "-01-extra"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("ff-" + TRACE_ID + "-" + PARENT_ID + "-01"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID.toUpperCase() + "-" + PARENT_ID + "-01"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-4bf92f3577b34da6a3ce929d0e0e473\"-" + PARENT_ID + "-01"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-00000000000000000000000000000000-" + PARENT_ID + "-01"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID + "-0000000000000000-01"));
+        Assert.assertNull(OtlpTraceExporter.parseTraceParent("00-" + TRACE_ID + "-" + PARENT_ID + "-1"));
+    }
+}
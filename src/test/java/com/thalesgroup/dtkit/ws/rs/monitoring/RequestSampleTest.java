@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.monitoring;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+
+public class RequestSampleTest {
+
+    @After
+    public void clear() {
+        RequestSample.clear();
+    }
+
+    @Test
+    public void spansOutsideOfARequestAreIgnored() {
+        RequestSample.startSpan("lookup").end();
+        RequestSample.spanFromStart("parse");
+        RequestSample.tagSelector(new InputMetricSelector("cppunit", null, null, (String) null));
+        Assert.assertNull(RequestSample.current());
+    }
+
+    @Test
+    public void serverTiming() {
+        RequestSample sample = RequestSample.start("POST /inputMetricsConversion");
+        RequestSample.spanFromStart("parse");
+        RequestSample.startSpan("lookup").end();
+        RequestSample.startSpan("transform");
+
+        String serverTiming = sample.getServerTiming(System.nanoTime());
+        Assert.assertTrue(serverTiming, serverTiming.matches("parse;dur=\\d+\\.\\d{3}, lookup;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}"));
+        Assert.assertEquals(3, sample.getSpans().size());
+    }
+
+    @Test
+    public void firstSelectorTagsTheRequest() {
+        RequestSample sample = RequestSample.start("POST /inputMetricsValidation");
+        RequestSample.tagSelector(new InputMetricSelector("cppunit", null, null, (String) null));
+        RequestSample.tagSelector(new InputMetricSelector("cpptest", null, null, (String) null));
+        Assert.assertEquals("cppunit", sample.getSelector().getToolName());
+    }
+
+    @Test
+    public void otlpSpans() throws IOException {
+        RequestSample sample = RequestSample.start("POST /inputMetricsConversion");
+        sample.setTraceParent("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        sample.setStatus(200);
+        RequestSample.tagSelector(new InputMetricSelector("cppunit", null, null, "junit"));
+        RequestSample.startSpan("lookup").end();
+        RequestSample.startSpan("transform");
+        sample.end(System.nanoTime());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new OtlpTraceExporter("http://localhost:4318/v1/traces", "dtkit-rs").writeTraces(Collections.singletonList(sample), outputStream);
+        JsonNode spans = new ObjectMapper().readTree(outputStream.toString("UTF-8"))
+                .get("resourceSpans").get(0).get("scopeSpans").get(0).get("spans");
+
+        //The request and its ended phase
+        Assert.assertEquals(2, spans.size());
+        JsonNode requestSpan = spans.get(0);
+        Assert.assertEquals("POST /inputMetricsConversion", requestSpan.get("name").getTextValue());
+        Assert.assertEquals("0af7651916cd43dd8448eb211c80319c", requestSpan.get("traceId").getTextValue());
+        Assert.assertEquals("b7ad6b7169203331", requestSpan.get("parentSpanId").getTextValue());
+        JsonNode lookupSpan = spans.get(1);
+        Assert.assertEquals("lookup", lookupSpan.get("name").getTextValue());
+        Assert.assertEquals(requestSpan.get("spanId").getTextValue(), lookupSpan.get("parentSpanId").getTextValue());
+        Assert.assertTrue(Long.parseLong(lookupSpan.get("startTimeUnixNano").getTextValue())
+                >= Long.parseLong(requestSpan.get("startTimeUnixNano").getTextValue()));
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+public class BatchSourceTest {
+
+    private static final InputMetricSelector SELECTOR = new InputMetricSelector("name", "1.0", null, (String) null);
+
+    private static byte[] zip(int... sizes) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(archive);
+        for (int i = 0; i < sizes.length; i++) {
+            zipOutputStream.putNextEntry(new ZipEntry("file" + i + ".xml"));
+            zipOutputStream.write(new byte[sizes[i]]);
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        return archive.toByteArray();
+    }
+
+    private static int read(BatchSource.BatchItem batchItem) throws IOException {
+        int count = 0;
+        while (batchItem.inputStream.read() != -1) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void entriesWithinLimits() throws Exception {
+        BatchSource batchSource = BatchSource.fromZip(new ByteArrayInputStream(zip(100, 200)), SELECTOR, 1000, 1000);
+        BatchSource.BatchItem batchItem = batchSource.next();
+        Assert.assertNull(batchItem.error);
+        Assert.assertEquals(100, read(batchItem));
+        batchItem = batchSource.next();
+        Assert.assertNull(batchItem.error);
+        Assert.assertEquals(200, read(batchItem));
+        Assert.assertNull(batchSource.next());
+    }
+
+    @Test
+    public void entryOverLimitStopsTheArchive() throws Exception {
+        BatchSource batchSource = BatchSource.fromZip(new ByteArrayInputStream(zip(100, 5000, 100)), SELECTOR, 1000, 100000);
+        Assert.assertNull(batchSource.next().error);
+        BatchSource.BatchItem batchItem = batchSource.next();
+        Assert.assertEquals("file1.xml", batchItem.fileName);
+        Assert.assertNotNull(batchItem.error);
+        Assert.assertNull(batchSource.next());
+    }
+
+    @Test
+    public void entryNamesStayInTheArchive() {
+        Assert.assertEquals("dir/file.xml", BatchSource.getEntryName("dir/./file.xml", 1));
+        Assert.assertEquals("etc/passwd", BatchSource.getEntryName("../../etc/passwd", 1));
+        Assert.assertEquals("etc/passwd", BatchSource.getEntryName("/etc/passwd", 1));
+        Assert.assertEquals("tmp/file.xml", BatchSource.getEntryName("C:\\tmp\\file.xml", 1));
+        Assert.assertEquals("file2.xml", BatchSource.getEntryName("..", 2));
+        Assert.assertEquals("file3.xml", BatchSource.getEntryName(null, 3));
+    }
+
+    @Test
+    public void batchOverLimit() throws Exception {
+        BatchSource batchSource = BatchSource.fromZip(new ByteArrayInputStream(zip(600, 600)), SELECTOR, 1000, 1000);
+        Assert.assertNull(batchSource.next().error);
+        BatchSource.BatchItem batchItem = batchSource.next();
+        Assert.assertEquals("file1.xml", batchItem.fileName);
+        Assert.assertNotNull(batchItem.error);
+        Assert.assertNull(batchSource.next());
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.resources;
+
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import java.util.Arrays;
+
+
+public class EntityTagsTest {
+
+    private static InputMetricDB metric(String xsl) {
+        InputMetricDB inputMetricDB = new InputMetricDB();
+        inputMetricDB.setToolName("custom");
+        inputMetricDB.setToolVersion("1.0");
+        inputMetricDB.setXslContent(xsl);
+        return inputMetricDB;
+    }
+
+    @Test
+    public void upsertChangesTheTag() {
+        EntityTag before = EntityTags.ofMetrics(Arrays.asList(metric("<xsl:stylesheet version=\"1.0\"/>")), "application/xml");
+        EntityTag after = EntityTags.ofMetrics(Arrays.asList(metric("<xsl:stylesheet version=\"2.0\"/>")), "application/xml");
+        Assert.assertFalse(before.equals(after));
+        Assert.assertEquals(before, EntityTags.ofMetrics(Arrays.asList(metric("<xsl:stylesheet version=\"1.0\"/>")), "application/xml"));
+    }
+
+    @Test
+    public void weakTag() {
+        EntityTag entityTag = EntityTags.ofMetrics(Arrays.asList(metric("<xsl/>")), "application/xml", true);
+        Assert.assertTrue(entityTag.isWeak());
+        Assert.assertEquals(EntityTags.ofMetrics(Arrays.asList(metric("<xsl/>")), "application/xml").getValue(), entityTag.getValue());
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.mongodb.MongoException;
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricIterator;
+import com.thalesgroup.dtkit.ws.rs.dao.ListInputMetricIterator;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreResult;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreUnavailableException;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class InputMetricsFinderTest {
+
+    private static class FakeDAO implements InputMetricDAO {
+
+        private final boolean persistenceStore;
+
+        private final long latency;
+
+        private final XsdPayload xsd;
+
+        private RuntimeException failure;
+
+        private FakeDAO(boolean persistenceStore, long latency, XsdPayload xsd) {
+            this.persistenceStore = persistenceStore;
+            this.latency = latency;
+            this.xsd = xsd;
+        }
+
+        public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+            return StoreResult.CREATED;
+        }
+
+        public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+            return StoreResult.REMOVED;
+        }
+
+        public long getCount() {
+            return 0;
+        }
+
+        public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+            return Collections.emptyList();
+        }
+
+        public Collection<? extends InputMetric> getInputMetrics() {
+            return Collections.emptyList();
+        }
+
+        public InputMetricIterator iterateInputMetrics(String position, int limit) {
+            return new ListInputMetricIterator(Collections.<InputMetric>emptyList(), position, limit);
+        }
+
+        public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+            if (latency < 0) {
+                throw new StoreUnavailableException("refused", 1000);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return xsd;
+        }
+
+        public boolean isPersistenceStore() {
+            return persistenceStore;
+        }
+
+        public String getStoreName() {
+            return persistenceStore ? "mongo" : "embedded";
+        }
+    }
+
+    private InputMetricSelector selector = new InputMetricSelector("cppunit", null, null, "junit");
+
+    @Test
+    public void resultsInStoreOrder() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(true, 100, XsdPayload.of(new byte[]{1})),
+                new FakeDAO(false, 0, XsdPayload.of(new byte[]{2}))), 1000);
+        Assert.assertArrayEquals(new byte[]{1}, inputMetricsFinder.getXSD(selector).toByteArray());
+    }
+
+    @Test
+    public void slowStoreIgnored() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, null),
+                new FakeDAO(true, 5000, XsdPayload.of(new byte[]{1})),
+                new FakeDAO(true, 0, XsdPayload.of(new byte[]{2}))), 200);
+        long start = System.currentTimeMillis();
+        Assert.assertArrayEquals(new byte[]{2}, inputMetricsFinder.getXSD(selector).toByteArray());
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void slowStoreWithoutResult() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, null),
+                new FakeDAO(true, 5000, XsdPayload.of(new byte[]{1}))), 200);
+        try {
+            inputMetricsFinder.getXSD(selector);
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+        }
+    }
+
+    @Test
+    public void refusedStoreWithoutResult() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, null),
+                new FakeDAO(true, -1, XsdPayload.of(new byte[]{1}))), 1000);
+        try {
+            inputMetricsFinder.getXSD(selector);
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+            Assert.assertEquals(1000, expected.getRetryAfterMillis());
+        }
+    }
+
+    @Test
+    public void timeoutByStore() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, null),
+                new FakeDAO(true, 5000, XsdPayload.of(new byte[]{1}))), 10000);
+        Map<String, Long> storeTimeouts = new HashMap<String, Long>();
+        storeTimeouts.put("mongo", 200L);
+        inputMetricsFinder.setStoreTimeouts(storeTimeouts);
+        long start = System.currentTimeMillis();
+        try {
+            inputMetricsFinder.getXSD(selector);
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+            Assert.assertEquals(200, expected.getRetryAfterMillis());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void storeFailureUnavailable() {
+        FakeDAO failingDAO = new FakeDAO(true, 0, null);
+        failingDAO.failure = new MongoException("down");
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, null), failingDAO), 1000);
+        try {
+            inputMetricsFinder.getXSD(selector);
+            Assert.fail();
+        } catch (StoreUnavailableException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void programmingErrorRethrown() {
+        FakeDAO failingDAO = new FakeDAO(true, 0, null);
+        failingDAO.failure = new IllegalArgumentException("bad selector");
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, XsdPayload.of(new byte[]{2})), failingDAO), 1000);
+        inputMetricsFinder.getXSD(selector);
+    }
+
+    @Test
+    public void refusedStoreIgnored() {
+        InputMetricsFinder inputMetricsFinder = new InputMetricsFinder(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, 0, XsdPayload.of(new byte[]{2})),
+                new FakeDAO(true, -1, null)), 1000);
+        Assert.assertArrayEquals(new byte[]{2}, inputMetricsFinder.getXSD(selector).toByteArray());
+    }
+}
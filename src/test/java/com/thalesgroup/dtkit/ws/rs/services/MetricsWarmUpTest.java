@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.thalesgroup.dtkit.metrics.model.InputMetric;
+import com.thalesgroup.dtkit.metrics.model.InputType;
+import com.thalesgroup.dtkit.metrics.model.OutputMetric;
+import com.thalesgroup.dtkit.ws.rs.cache.TemplatesCache;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricDAO;
+import com.thalesgroup.dtkit.ws.rs.dao.InputMetricIterator;
+import com.thalesgroup.dtkit.ws.rs.dao.ListInputMetricIterator;
+import com.thalesgroup.dtkit.ws.rs.dao.StoreResult;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricDB;
+import com.thalesgroup.dtkit.ws.rs.model.InputMetricSelector;
+import com.thalesgroup.dtkit.ws.rs.vo.XsdPayload;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+public class MetricsWarmUpTest {
+
+    private static final String XSL = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:template match=\"/\"><testsuites/></xsl:template></xsl:stylesheet>";
+
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+            + "<xs:element name=\"testsuite\" type=\"xs:string\"/></xs:schema>";
+
+    private static class FakeDAO implements InputMetricDAO {
+
+        private final boolean persistenceStore;
+
+        private final List<InputMetric> metrics = new ArrayList<InputMetric>();
+
+        private FakeDAO(boolean persistenceStore, String... names) {
+            this.persistenceStore = persistenceStore;
+            for (String name : names) {
+                InputMetricDB inputMetricDB = new InputMetricDB();
+                inputMetricDB.setToolName(name);
+                inputMetricDB.setToolVersion("1");
+                inputMetricDB.setToolType(InputType.TEST);
+                inputMetricDB.setOutputFormat("junit");
+                inputMetricDB.setXslContent(XSL);
+                inputMetricDB.setXsdContent(XSD);
+                metrics.add(inputMetricDB);
+            }
+        }
+
+        public StoreResult insert(String name, String version, InputType toolType, File xsl, File xsd, OutputMetric outputMetric) {
+            return StoreResult.CREATED;
+        }
+
+        public StoreResult delete(String name, String version, InputType toolType, OutputMetric outputMetric) {
+            return StoreResult.REMOVED;
+        }
+
+        public long getCount() {
+            return metrics.size();
+        }
+
+        public Collection<? extends InputMetric> getInputMetric(InputMetricSelector inputMetricSelector) {
+            return metrics;
+        }
+
+        public Collection<? extends InputMetric> getInputMetrics() {
+            return metrics;
+        }
+
+        public InputMetricIterator iterateInputMetrics(String position, int limit) {
+            return new ListInputMetricIterator(metrics, position, limit);
+        }
+
+        public XsdPayload getXSD(InputMetricSelector inputMetricSelector) {
+            return null;
+        }
+
+        public boolean isPersistenceStore() {
+            return persistenceStore;
+        }
+
+        public String getStoreName() {
+            return persistenceStore ? "mongo" : "embedded";
+        }
+    }
+
+    @Test
+    public void embeddedMetricsCompiled() throws Exception {
+        TemplatesCache.getInstance().invalidateAll();
+        MetricsWarmUp metricsWarmUp = new MetricsWarmUp(Arrays.<InputMetricDAO>asList(
+                new FakeDAO(false, "cppunit", "boost", "check"),
+                new FakeDAO(true, "stored")), new ConversionExecutor(2), true, true);
+        Assert.assertTrue(metricsWarmUp.awaitReady(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, metricsWarmUp.getTotal());
+        Assert.assertEquals(3, metricsWarmUp.getWarmed());
+
+        String key = InputMetricDB.getCacheKey("cppunit", "1", InputType.TEST.name(), "junit");
+        Assert.assertNotNull(TemplatesCache.getInstance().getCache().get(key));
+        Assert.assertNull(TemplatesCache.getInstance().getCache().get(InputMetricDB.getCacheKey("stored", "1", InputType.TEST.name(), "junit")));
+    }
+
+    @Test
+    public void readyWhenDisabled() {
+        MetricsWarmUp metricsWarmUp = new MetricsWarmUp(Arrays.<InputMetricDAO>asList(new FakeDAO(false, "cppunit")),
+                new ConversionExecutor(1), false, false);
+        Assert.assertTrue(metricsWarmUp.isReady());
+        Assert.assertEquals(0, metricsWarmUp.getWarmed());
+    }
+
+    @Test
+    public void failingMetricDoesNotBlockReadiness() throws Exception {
+        FakeDAO fakeDAO = new FakeDAO(false, "cppunit", "broken");
+        ((InputMetricDB) fakeDAO.metrics.get(1)).setXslContent("<not a stylesheet");
+        MetricsWarmUp metricsWarmUp = new MetricsWarmUp(Arrays.<InputMetricDAO>asList(fakeDAO), new ConversionExecutor(2), true, false);
+        Assert.assertTrue(metricsWarmUp.awaitReady(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, metricsWarmUp.getTotal());
+        Assert.assertEquals(1, metricsWarmUp.getWarmed());
+    }
+}
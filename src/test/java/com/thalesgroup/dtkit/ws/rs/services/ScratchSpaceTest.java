@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.services;
+
+import com.thalesgroup.dtkit.ws.rs.monitoring.MonitoringRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+public class ScratchSpaceTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("scratch", "test");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static void write(File file, int length) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Test
+    public void filesDeletedOnClose() throws IOException {
+        ScratchSpace scratchSpace = new ScratchSpace(directory.getPath(), 100, 0, new MonitoringRegistry());
+        File upload = new File(directory, "upload");
+        write(upload, 10);
+
+        ScratchSpace.Session session = scratchSpace.open(20, upload);
+        File output = session.createFile();
+        write(output, 5);
+        Assert.assertEquals(20, scratchSpace.getReserved());
+        Assert.assertEquals(2, scratchSpace.getFileCount());
+
+        session.close();
+        session.close();
+        Assert.assertFalse(upload.exists());
+        Assert.assertFalse(output.exists());
+        Assert.assertEquals(0, scratchSpace.getReserved());
+        Assert.assertEquals(0, scratchSpace.getFileCount());
+        Assert.assertEquals(15, scratchSpace.getDeletedBytes());
+    }
+
+    @Test
+    public void streamedThenDeleted() throws IOException {
+        ScratchSpace scratchSpace = new ScratchSpace(directory.getPath(), 100, 0, new MonitoringRegistry());
+        ScratchSpace.Session session = scratchSpace.open(10);
+        File output = session.createFile();
+        write(output, 3);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        session.stream(output).write(outputStream);
+        Assert.assertEquals(3, outputStream.size());
+        Assert.assertFalse(output.exists());
+        Assert.assertEquals(0, scratchSpace.getReserved());
+    }
+
+    @Test
+    public void releasedWhenRequestEnds() throws IOException {
+        ScratchSpace scratchSpace = new ScratchSpace(directory.getPath(), 100, 0, new MonitoringRegistry());
+        scratchSpace.beginRequest();
+        ScratchSpace.Session session = scratchSpace.open(10);
+        File output = session.createFile();
+        //The response failed before its entity was written
+        session.stream(output);
+        Assert.assertEquals(10, scratchSpace.getReserved());
+
+        scratchSpace.endRequest();
+        Assert.assertFalse(output.exists());
+        Assert.assertEquals(0, scratchSpace.getReserved());
+        Assert.assertEquals(0, scratchSpace.getFileCount());
+
+        //Outside of a request, the session is closed by its owner only
+        ScratchSpace.Session unmanaged = scratchSpace.open(10);
+        scratchSpace.endRequest();
+        Assert.assertEquals(10, scratchSpace.getReserved());
+        unmanaged.close();
+    }
+
+    @Test
+    public void refusedBeyondQuota() throws IOException {
+        ScratchSpace scratchSpace = new ScratchSpace(directory.getPath(), 100, 50, new MonitoringRegistry());
+        ScratchSpace.Session session = scratchSpace.open(80);
+        File upload = new File(directory, "upload");
+        write(upload, 1);
+        try {
+            scratchSpace.open(30, upload);
+            Assert.fail();
+        } catch (WebApplicationException wae) {
+            Assert.assertEquals(503, wae.getResponse().getStatus());
+        }
+        Assert.assertFalse(upload.exists());
+        Assert.assertEquals(1, scratchSpace.getWaitCount());
+        Assert.assertEquals(1, scratchSpace.getRejectedCount());
+        session.close();
+
+        //Alone, a request larger than the quota is let through
+        scratchSpace.open(300).close();
+    }
+
+    @Test
+    public void waitsForRelease() throws Exception {
+        ScratchSpace scratchSpace = new ScratchSpace(directory.getPath(), 100, 5000, new MonitoringRegistry());
+        final ScratchSpace.Session session = scratchSpace.open(80);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                session.close();
+            }
+        };
+        thread.start();
+        scratchSpace.open(30).close();
+        thread.join();
+        Assert.assertEquals(1, scratchSpace.getWaitCount());
+        Assert.assertEquals(0, scratchSpace.getRejectedCount());
+    }
+
+    @Test
+    public void leftoversDeletedAtStartup() throws IOException {
+        File leftover = new File(directory, "dtkit-1.tmp");
+        File other = new File(directory, "other.tmp");
+        write(leftover, 1);
+        write(other, 1);
+        new ScratchSpace(directory.getPath(), 100, 0, new MonitoringRegistry());
+        Assert.assertFalse(leftover.exists());
+        Assert.assertTrue(other.exists());
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import com.thalesgroup.dtkit.junit.CppUnit;
+import com.thalesgroup.dtkit.metrics.model.InputMetricFactory;
+import com.thalesgroup.dtkit.util.converter.ConversionException;
+import com.thalesgroup.dtkit.util.validator.ValidationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+
+public class CompiledMetricsTest {
+
+    @Test
+    public void defaultConversion() throws Exception {
+        Assert.assertTrue(CompiledMetrics.isCompiledConversion(InputMetricFactory.getInstance(CppUnit.class)));
+    }
+
+    @Test
+    public void customConversion() throws Exception {
+        CppUnit customMetric = new CppUnit() {
+            @Override
+            public void convert(File inputFile, File outFile) throws ConversionException {
+                super.convert(inputFile, outFile);
+            }
+        };
+        Assert.assertFalse(CompiledMetrics.isCompiledConversion(customMetric));
+        Assert.assertTrue(CompiledMetrics.isCompiledValidation(customMetric));
+    }
+
+    @Test
+    public void customValidation() throws Exception {
+        CppUnit customMetric = new CppUnit() {
+            @Override
+            public boolean validateInputFile(File inputFile) throws ValidationException {
+                return true;
+            }
+        };
+        Assert.assertFalse(CompiledMetrics.isCompiledValidation(customMetric));
+        Assert.assertTrue(CompiledMetrics.isCompiledValidation(new CppUnit()));
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Thales Corporate Services SAS                             *
+ * Author : Gregory Boissinot                                                   *
+ *                                                                              *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy *
+ * of this software and associated documentation files (the "Software"), to deal*
+ * in the Software without restriction, including without limitation the rights *
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell    *
+ * copies of the Software, and to permit persons to whom the Software is        *
+ * furnished to do so, subject to the following conditions:                     *
+ *                                                                              *
+ * The above copyright notice and this permission notice shall be included in   *
+ * all copies or substantial portions of the Software.                          *
+ *                                                                              *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR   *
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,     *
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE  *
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER       *
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,*
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN    *
+ * THE SOFTWARE.                                                                *
+ *******************************************************************************/
+
+package com.thalesgroup.dtkit.ws.rs.xml;
+
+import com.thalesgroup.dtkit.ws.rs.cache.SchemaCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.validation.Schema;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+
+
+public class SAXEventBufferTest {
+
+    private File getResourceFile(String name) throws URISyntaxException {
+        return new File(this.getClass().getResource("/com/thalesgroup/dtkit/ws/rs/cppunit/" + name).toURI());
+    }
+
+    private SAXEventBuffer parse(String name, ValidationErrorCollector errorCollector) throws Exception {
+        InputStream inputStream = this.getClass().getResourceAsStream("/com/thalesgroup/dtkit/ws/rs/cppunit/" + name);
+        try {
+            return SAXEventBuffer.parse(new InputSource(inputStream), errorCollector);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void validateReplayedEvents() throws Exception {
+        SchemaCache schemaCache = new SchemaCache(10);
+        Schema schema = schemaCache.getSchema(getResourceFile("cppunit-input.xsd"));
+
+        SAXEventBuffer validInput = parse("cppunit-valid-input.xml", new ValidationErrorCollector());
+        Assert.assertEquals(0, schemaCache.validate(schema, validInput).size());
+
+        //Same errors as a validation of the file, each time the events are replayed
+        SAXEventBuffer noValidInput = parse("cppunit-novalid-input.xml", new ValidationErrorCollector());
+        int expectedErrors = schemaCache.validate(schema, getResourceFile("cppunit-novalid-input.xml")).size();
+        Assert.assertEquals(expectedErrors, schemaCache.validate(schema, noValidInput).size());
+        Assert.assertEquals(expectedErrors, schemaCache.validate(schema, noValidInput).size());
+    }
+
+    @Test
+    public void notWellFormedInput() throws Exception {
+        ValidationErrorCollector errorCollector = new ValidationErrorCollector();
+        try {
+            SAXEventBuffer.parse(new InputSource(new ByteArrayInputStream("<TestRun><open></TestRun>".getBytes("UTF-8"))), errorCollector);
+            Assert.fail("The input is not well formed");
+        } catch (SAXException se) {
+            Assert.assertTrue(errorCollector.isErrorFound());
+            Assert.assertEquals(1, errorCollector.getValidationErrors().size());
+        }
+    }
+
+    @Test
+    public void overflowedBuffer() throws Exception {
+        InputStream inputStream = this.getClass().getResourceAsStream("/com/thalesgroup/dtkit/ws/rs/cppunit/cppunit-valid-input.xml");
+        SAXEventBuffer overflowed;
+        try {
+            overflowed = SAXEventBuffer.parse(new InputSource(inputStream), new ValidationErrorCollector(), 256);
+        } finally {
+            inputStream.close();
+        }
+        Assert.assertTrue(overflowed.isOverflowed());
+        Assert.assertEquals(0, overflowed.size());
+
+        Assert.assertFalse(parse("cppunit-valid-input.xml", new ValidationErrorCollector()).isOverflowed());
+    }
+}